@@ -0,0 +1,15 @@
+/**
+ * The Action enum lists the choices on the Treasure Hunter menu.<p>
+ * It is what a PlayerStrategy hands back to the GameEngine each turn.
+ */
+
+public enum Action {
+    BUY,
+    SELL,
+    EXPLORE,
+    MOVE,
+    TROUBLE,
+    HUNT,
+    DIG,
+    EXIT
+}
@@ -0,0 +1,481 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The AuditLog class keeps a trail of every trade: each item bought or sold at a shop, and each item a shopkeeper hands
+ * over for free because the hunter has a sword. The trail is a CSV file, one trade per line.<p>
+ * A game thread never waits on the disk. Recording a trade claims a slot in a ring buffer allocated up front (one
+ * compare-and-set), fills it in, and publishes it; one writer thread of its own takes everything published so far,
+ * writes it as one batch and syncs the file once for the whole batch. If the ring is full because the disk has fallen
+ * behind, the trade is counted as dropped instead of making the game wait, and close() reports the count on
+ * standard error if there were any. While there is nothing to write, the writer
+ * sleeps for longer and longer, up to 10 ms at a time, so an idle log costs next to nothing.<p>
+ * Closing sets a bit in the same counter trades are claimed from, so every trade is either claimed before the log closes
+ * (and written) or refused after (and counted as dropped), never lost in between.<p>
+ * The hooks (bought(), sold() and swordGrant()) only read a field while no log is open. A log is opened with open(),
+ * or by TreasureHunterRunner and GameServer when the system property treasurehunter.audit names a file.<p>
+ * Usage (the throughput benchmark): java AuditLog [threads] [seconds] [file]
+ */
+
+public class AuditLog implements Closeable {
+    /**
+     * What happened in a trade.
+     */
+    public enum Kind {
+        BUY,
+        SELL,
+        SWORD_GRANT
+    }
+
+    // constants
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int MAX_BATCH = 1 << 16; // the most trades written before the file is synced
+    private static final long MIN_IDLE_NANOS = 50_000; // how long the writer first sleeps when there is nothing to write
+    private static final long MAX_IDLE_NANOS = 10_000_000; // the longest it sleeps, once the log has been idle a while
+    private static final long CLOSED = Long.MIN_VALUE; // the bit set in claimed once no more trades are taken
+    private static final byte[] HEADER = "time,kind,hunter,item,gold,hunter gold\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[][] KIND_FIELDS = new byte[Kind.values().length][]; // ",BUY" and so on
+    private static final byte[][] ITEM_FIELDS = new byte[Items.ITEM_COUNT][]; // "horse," and so on
+    private static final byte[] UNKNOWN_ITEM_FIELD = "?,".getBytes(StandardCharsets.US_ASCII);
+
+    static {
+        for (Kind kind : Kind.values()) {
+            KIND_FIELDS[kind.ordinal()] = ("," + kind.name()).getBytes(StandardCharsets.US_ASCII);
+        }
+        for (int id = 0; id < Items.ITEM_COUNT; id++) {
+            ITEM_FIELDS[id] = (Items.itemName(id) + ",").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    // static variables
+    private static volatile AuditLog current;
+    private static boolean hooked; // guarded by AuditLog.class, so only one shutdown hook is ever added
+
+    // instance variables
+    private final int mask;
+    private final long[] times; // the ring, one array per field, indexed by sequence & mask
+    private final byte[] kinds;
+    private final byte[] items;
+    private final int[] golds;
+    private final int[] balances;
+    private final String[] hunters;
+    private final AtomicLongArray published; // the sequence number of the trade in each slot, once it is filled in
+    private final AtomicLong claimed; // the next sequence number to hand out, with CLOSED set once the log is closed
+    private volatile long consumed; // every trade before this one has been taken by the writer
+    private final LongAdder dropped;
+    private volatile long written;
+    private volatile long syncs;
+    private boolean closing; // guarded by this, so close() only runs once
+    private final Path file;
+    private final FileChannel channel;
+    private final Thread writer;
+    private byte[] buffer; // the writer's batch, formatted
+    private int bufferLength;
+    private final byte[] digits;
+    private String lastHunter; // the hunter of the last trade formatted, and their name as a field
+    private byte[] lastHunterField;
+
+    /**
+     * Opens a log that adds to the end of a file, and starts its writer thread.
+     *
+     * @param file The CSV file; a header line is written first if it is new.
+     * @param capacity How many trades can wait to be written, rounded up to a power of two.
+     */
+    public AuditLog(Path file, int capacity) throws IOException {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        times = new long[size];
+        kinds = new byte[size];
+        items = new byte[size];
+        golds = new int[size];
+        balances = new int[size];
+        hunters = new String[size];
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        claimed = new AtomicLong();
+        consumed = 0;
+        dropped = new LongAdder();
+        buffer = new byte[1 << 18];
+        digits = new byte[20];
+        this.file = file;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (channel.size() == 0) {
+            channel.write(ByteBuffer.wrap(HEADER));
+        }
+        writer = new Thread(this::writeLoop, "audit-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Opens a log and makes it the one the hooks record to, closing the one it replaces.
+     * Whichever log is current when the JVM exits is closed then (and so writes out whatever is left).
+     *
+     * @return The log.
+     */
+    public static synchronized AuditLog open(Path file, int capacity) throws IOException {
+        AuditLog log = new AuditLog(file, capacity);
+        if (current != null) {
+            current.close();
+        }
+        current = log;
+        if (!hooked) {
+            // one hook for every log opened, so a replaced log isn't kept alive until exit
+            Runtime.getRuntime().addShutdownHook(new Thread(AuditLog::closeCurrent, "audit-log-shutdown"));
+            hooked = true;
+        }
+        return log;
+    }
+
+    /**
+     * Closes the log the hooks record to, if one is open.
+     */
+    private static void closeCurrent() {
+        AuditLog log = current;
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    /**
+     * Opens the log named by the system property treasurehunter.audit, if there is one.
+     *
+     * @return The log, or null if the property isn't set.
+     */
+    public static AuditLog openIfConfigured() throws IOException {
+        String file = System.getProperty("treasurehunter.audit");
+        if (file == null || file.isEmpty()) {
+            return null;
+        }
+        return open(Paths.get(file), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @return The log the hooks record to, or null if none is open.
+     */
+    public static AuditLog current() {
+        return current;
+    }
+
+    /**
+     * Records an item bought at a shop. Items a hunter's sword got them for free are recorded by swordGrant() instead.
+     *
+     * @param gold What the hunter paid.
+     */
+    public static void bought(Hunter hunter, String item, int gold) {
+        AuditLog log = current;
+        if (log != null) {
+            log.record(Kind.BUY, hunter, item, gold);
+        }
+    }
+
+    /**
+     * Records an item sold to a shop.
+     *
+     * @param gold What the shop paid.
+     */
+    public static void sold(Hunter hunter, String item, int gold) {
+        AuditLog log = current;
+        if (log != null) {
+            log.record(Kind.SELL, hunter, item, gold);
+        }
+    }
+
+    /**
+     * Records an item handed over for free because the hunter has a sword.
+     *
+     * @param gold What the item would have cost.
+     */
+    public static void swordGrant(Hunter hunter, String item, int gold) {
+        AuditLog log = current;
+        if (log != null) {
+            log.record(Kind.SWORD_GRANT, hunter, item, gold);
+        }
+    }
+
+    // accessors
+    /**
+     * @return How many trades have been written to the file.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return How many trades were left out because the ring was full.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return How many times the file has been synced; every sync covers a whole batch of trades.
+     */
+    public long getSyncs() {
+        return syncs;
+    }
+
+    /**
+     * Adds a trade to the ring, or counts it as dropped if the ring is full. Never blocks.
+     */
+    public void record(Kind kind, Hunter hunter, String item, int gold) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence < 0 || sequence - consumed > mask) { // closed, or full
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        int slot = (int) sequence & mask;
+        times[slot] = System.currentTimeMillis();
+        kinds[slot] = (byte) kind.ordinal();
+        items[slot] = (byte) Items.itemId(item);
+        golds[slot] = gold;
+        balances[slot] = hunter.getGold();
+        hunters[slot] = hunter.getHunterName();
+        // the writer reads the slot only once it sees its sequence number here, after everything above
+        published.lazySet(slot, sequence);
+    }
+
+    /**
+     * Stops taking trades, writes out everything already taken, syncs the file and closes it.
+     * If any trades were dropped, says how many on standard error, since the file can't show what it's missing.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closing) {
+                return;
+            }
+            closing = true;
+        }
+        claimed.getAndUpdate(sequence -> sequence | CLOSED);
+        if (current == this) {
+            current = null;
+        }
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long lost = dropped.sum();
+        if (lost > 0) {
+            System.err.println("Audit log " + file + ": " + lost + " trades were dropped because the log couldn't keep up");
+        }
+    }
+
+    /**
+     * The writer thread: takes every published trade in order, writes a batch, syncs, and sleeps when there are none.
+     */
+    private void writeLoop() {
+        long next = 0;
+        long idleNanos = MIN_IDLE_NANOS;
+        try {
+            while (true) {
+                // read first: once CLOSED is set no trade can be claimed, so the ones before it are all there are
+                long last = claimed.get();
+                boolean finishing = last < 0;
+                int count = 0;
+                while (count < MAX_BATCH && published.get((int) next & mask) == next) {
+                    append((int) next & mask);
+                    next++;
+                    count++;
+                }
+                if (count > 0) {
+                    consumed = next; // the slots can be reused while the batch goes to disk
+                    flushBuffer();
+                    channel.force(false);
+                    written += count;
+                    syncs++;
+                    idleNanos = MIN_IDLE_NANOS;
+                } else if (finishing && (last & ~CLOSED) == next) {
+                    break;
+                } else if (!finishing) {
+                    LockSupport.parkNanos(this, idleNanos); // close() unparks it
+                    idleNanos = Math.min(idleNanos * 2, MAX_IDLE_NANOS);
+                } else {
+                    Thread.onSpinWait(); // a trade claimed just before close() is still being filled in
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Audit log stopped: " + e.getMessage());
+            claimed.getAndUpdate(sequence -> sequence | CLOSED);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing more can be written anyway
+            }
+        }
+    }
+
+    /**
+     * Formats the trade in a slot as a CSV line at the end of the buffer.
+     */
+    private void append(int slot) throws IOException {
+        String hunter = hunters[slot];
+        if (hunter != lastHunter) {
+            lastHunter = hunter;
+            lastHunterField = csvField(hunter);
+        }
+        if (bufferLength + lastHunterField.length + 64 > buffer.length) {
+            flushBuffer();
+            if (lastHunterField.length + 64 > buffer.length) {
+                buffer = new byte[lastHunterField.length + 64];
+            }
+        }
+        putNumber(times[slot]);
+        put(KIND_FIELDS[kinds[slot]]);
+        put(lastHunterField);
+        put(items[slot] >= 0 ? ITEM_FIELDS[items[slot]] : UNKNOWN_ITEM_FIELD);
+        putNumber(golds[slot]);
+        buffer[bufferLength++] = ',';
+        putNumber(balances[slot]);
+        buffer[bufferLength++] = '\n';
+        hunters[slot] = null;
+    }
+
+    private void flushBuffer() throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, bufferLength);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bufferLength = 0;
+    }
+
+    private void put(byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, bufferLength, bytes.length);
+        bufferLength += bytes.length;
+    }
+
+    private void putNumber(long number) {
+        if (number < 0) {
+            buffer[bufferLength++] = '-';
+            number = -number;
+        }
+        int length = 0;
+        do {
+            digits[length++] = (byte) ('0' + number % 10);
+            number /= 10;
+        } while (number > 0);
+        while (length > 0) {
+            buffer[bufferLength++] = digits[--length];
+        }
+    }
+
+    /**
+     * @return A field between two commas, quoted if it has a comma, quote or line break in it.
+     */
+    private static byte[] csvField(String text) {
+        String field = text;
+        if (text.indexOf(',') >= 0 || text.indexOf('"') >= 0 || text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0) {
+            field = '"' + text.replace("\"", "\"\"") + '"';
+        }
+        return (',' + field + ',').getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Many threads trade, as fast as they can or at a steady rate between them, and every trade is audited;
+     * prints how many were recorded a second, how long recording one took on the trading thread, and how the writer kept up.
+     * Usage: java AuditLog [threads] [seconds] [trades per second, 0 for as many as possible] [file]
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        double seconds = 2.0;
+        double rate = 0;
+        Path file;
+        if (args.length > 0) {
+            threads = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            seconds = Double.parseDouble(args[1]);
+        }
+        if (args.length > 2) {
+            rate = Double.parseDouble(args[2]);
+        }
+        if (args.length > 3) {
+            file = Paths.get(args[3]);
+        } else {
+            file = Files.createTempFile("audit", ".csv");
+            file.toFile().deleteOnExit();
+        }
+        Files.deleteIfExists(file);
+        AuditLog log = open(file, 1 << 20);
+        LongAdder recorded = new LongAdder();
+        LongAdder recordNanos = new LongAdder();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        long end = System.nanoTime() + (long) (seconds * 1e9);
+        double nanosPerTrade = rate > 0 ? threads * 1e9 / rate : 0; // for each trader
+        Thread[] traders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            Hunter hunter = new Hunter("trader " + t, 100);
+            traders[t] = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long done = 0;
+                long start = System.nanoTime();
+                long now = start;
+                while (now < end) {
+                    // a horse bought and sold back, over and over, 1024 trades at a time
+                    for (int i = 0; i < 1024; i++) {
+                        if ((i & 1) == 0) {
+                            bought(hunter, "horse", 12);
+                        } else {
+                            sold(hunter, "horse", 6);
+                        }
+                    }
+                    done += 1024;
+                    long after = System.nanoTime();
+                    recordNanos.add(after - now);
+                    long due = start + (long) (done * nanosPerTrade);
+                    if (due > after) {
+                        LockSupport.parkNanos(due - after);
+                        after = System.nanoTime();
+                    }
+                    now = after;
+                }
+                recorded.add(done);
+            });
+            traders[t].start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread trader : traders) {
+            trader.join();
+        }
+        double tradingSeconds = (System.nanoTime() - start) / 1e9;
+        log.close();
+        double totalSeconds = (System.nanoTime() - start) / 1e9;
+
+        long lines = Files.lines(file).count() - 1;
+        System.out.printf("%d threads, %d cores%n", threads, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%,d trades recorded in %.2f seconds: %,.0f trades/sec, %.1f ns per trade on the trading thread%n",
+                recorded.sum(), tradingSeconds, recorded.sum() / tradingSeconds, (double) recordNanos.sum() / recorded.sum());
+        System.out.printf("%,d written in %.2f seconds (%,.0f/sec) in %,d synced batches, %,d dropped%n",
+                log.getWritten(), totalSeconds, log.getWritten() / totalSeconds, log.getSyncs(), log.getDropped());
+        boolean ok = lines == log.getWritten() && log.getWritten() + log.getDropped() == recorded.sum();
+        System.out.println(ok ? "every trade is in the file or counted as dropped" : "FAILED: " + lines + " lines in the file");
+    }
+}
@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A CommandSource for a script of commands, read from a file or from piped-in standard input.<p>
+ * The whole script is read in bulk through an NIO channel and decoded once, then handed out line by line,
+ * so even very large scripts replay without any per-line I/O.
+ */
+
+public class BatchCommandSource implements CommandSource {
+    // constants
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    // instance variables
+    private String script;
+    private int position;
+
+    /**
+     * @param script The whole script, with one command per line.
+     */
+    public BatchCommandSource(String script) {
+        this.script = script;
+        position = 0;
+    }
+
+    /**
+     * Reads a whole script file.
+     *
+     * @param file The script.
+     * @return A source that replays it.
+     * @throws IOException If the file can't be read.
+     */
+    public static BatchCommandSource fromFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too big to be a command script");
+            }
+            ByteBuffer bytes = ByteBuffer.allocate((int) size);
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                // keep reading until the buffer is full or the file ends
+            }
+            bytes.flip();
+            return new BatchCommandSource(StandardCharsets.UTF_8.decode(bytes).toString());
+        }
+    }
+
+    /**
+     * Reads everything piped into a stream until it ends.
+     *
+     * @param in The stream, usually System.in.
+     * @return A source that replays it.
+     * @throws IOException If the stream can't be read.
+     */
+    public static BatchCommandSource fromStream(InputStream in) throws IOException {
+        ReadableByteChannel channel = Channels.newChannel(in);
+        ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+        while (channel.read(bytes) >= 0) {
+            if (!bytes.hasRemaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(bytes.capacity() * 2);
+                bytes.flip();
+                bigger.put(bytes);
+                bytes = bigger;
+            }
+        }
+        bytes.flip();
+        return new BatchCommandSource(StandardCharsets.UTF_8.decode(bytes).toString());
+    }
+
+    public String nextLine() {
+        if (position >= script.length()) {
+            return null;
+        }
+        int end = script.indexOf('\n', position);
+        if (end < 0) {
+            end = script.length();
+        }
+        int lineEnd = end;
+        if (lineEnd > position && script.charAt(lineEnd - 1) == '\r') {
+            lineEnd--;
+        }
+        String line = script.substring(position, lineEnd);
+        position = end + 1;
+        return line;
+    }
+}
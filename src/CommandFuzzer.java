@@ -0,0 +1,475 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The CommandFuzzer class plays random streams of commands through TreasureHunter.processChoice(), and so through
+ * Shop.enter() with random answers to the shopkeeper, with nothing printed, and checks after every command that the
+ * hunter is still in a state the game allows:
+ * <ul>
+ * <li>the kit holds only real items, and no more than Hunter.KIT_SIZE of them;</li>
+ * <li>the treasures are only real treasures, none is ever lost, and only hunting finds one, one at a time;</li>
+ * <li>gold and the kit only change the ways the game says they can: buying adds one item for exactly the price the shop
+ * asked (nothing with a sword), selling removes one for exactly the price offered, a brawl moves at most
+ * Town.MAX_BRAWL_GOLD (and is never lost with a sword), digging finds at most Town.MAX_GOLD_DUG with a shovel,
+ * moving on can only lose the one item it used, and nothing else changes either.</li>
+ * </ul>
+ * An exception thrown by a command is a failure too. When a game ends (broke, all treasures, or x) a new one starts.<p>
+ * A failing stream is shrunk by delta debugging to one that still breaks the same rule when played again with the
+ * same seed but can't lose any command without passing, and that is printed and saved as a script for
+ * TreasureHunterRunner. Saving and restoring (v and r) are left out so nothing touches the disk.<p>
+ * Every core fuzzes its own streams; each stream's seed comes from the master seed and its number.<p>
+ * Usage: java CommandFuzzer [--seconds s] [--seed s] [--length commands] [--world towns] [--market] [--threads n] [--repro file]
+ */
+
+public class CommandFuzzer {
+    // constants
+    private static final String[] MENU = {"b", "s", "e", "m", "l", "h", "d", "w", "x"};
+    private static final String[] JUNK = {"q", "bb", "B", " "};
+    private static final String[] ITEMS = {"water", "rope", "machete", "horse", "boat", "boots", "shovel", "sword", "dragon", ""};
+    private static final String[] NUMBERS = {"0", "1", "2", "3", "-1", "99999"};
+    private static final String[] TOKENS = concat(MENU, JUNK, ITEMS, NUMBERS, new String[] {"y", "n", "Y"});
+    private static final int YES = index("y");
+    private static final int NO = index("n");
+    private static final Difficulty[] MODES = {Difficulty.EASY, Difficulty.NORMAL, Difficulty.HARD, Difficulty.SECRET, Difficulty.TEST};
+    private static final String[] MODE_CHOICES = {"e", "n", "h", "s", "test"}; // what to answer TreasureHunterRunner
+    private static final long ALL_ITEMS = (1L << Items.ITEM_COUNT) - 1;
+    private static final int DEFAULT_LENGTH = 2000;
+    private static final String NAME = "fuzz";
+
+    /**
+     * A stream of commands and answers, as indexes into TOKENS, with the seed and mode it is played with.
+     */
+    public static class Case {
+        private final long seed;
+        private final int mode;
+        private final byte[] tokens;
+
+        public Case(long seed, int mode, byte[] tokens) {
+            this.seed = seed;
+            this.mode = mode;
+            this.tokens = tokens;
+        }
+
+        /**
+         * @return The commands and answers, one per line, as TreasureHunterRunner would read them
+         * after the hunter's name and the mode.
+         */
+        public String script() {
+            StringBuilder str = new StringBuilder();
+            str.append(NAME).append('\n').append(MODE_CHOICES[mode]).append('\n');
+            for (byte token : tokens) {
+                str.append(TOKENS[token]).append('\n');
+            }
+            return str.toString();
+        }
+    }
+
+    /**
+     * Which rule a stream broke, and where.
+     */
+    public static class Failure {
+        private final String rule;
+        private final String detail;
+        private final int step; // the number of the command that broke it, counting from 0
+        private final int end; // how many tokens had been read by then
+
+        Failure(String rule, String detail, int step, int end) {
+            this.rule = rule;
+            this.detail = detail;
+            this.step = step;
+            this.end = end;
+        }
+
+        public String getRule() {
+            return rule;
+        }
+
+        public String getDetail() {
+            return detail;
+        }
+    }
+
+    /**
+     * Hands out a case's tokens as lines, to the fuzzer for commands and to the shops for answers.
+     */
+    private static class TokenSource implements CommandSource {
+        private final byte[] tokens;
+        private int position;
+
+        TokenSource(byte[] tokens) {
+            this.tokens = tokens;
+            position = 0;
+        }
+
+        public String nextLine() {
+            if (position >= tokens.length) {
+                return null;
+            }
+            return TOKENS[tokens[position++]];
+        }
+
+        public boolean hasQueuedInput() {
+            // everything is already here, so there is never anything to flush for
+            return true;
+        }
+    }
+
+    // instance variables
+    private final int worldSize;
+    private final boolean market;
+    private final int[] buyPrices;
+    private final int[] sellPrices;
+    private long commands;
+
+    /**
+     * @param worldSize How many towns each game's world has, or 0 for the usual fresh town after every move.
+     * @param market true to shop from a Market (a new one for every case) instead of each mode's own shop.
+     */
+    public CommandFuzzer(int worldSize, boolean market) {
+        this.worldSize = worldSize;
+        this.market = market;
+        buyPrices = new int[Items.ITEM_COUNT];
+        sellPrices = new int[Items.ITEM_COUNT];
+        commands = 0;
+    }
+
+    // accessors
+    /**
+     * @return How many commands this fuzzer has played.
+     */
+    public long getCommands() {
+        return commands;
+    }
+
+    /**
+     * Makes up a random stream: mostly menu commands with sensible answers, with junk anywhere now and then.
+     *
+     * @param seed The case's seed; its stream and the game's random numbers both come from it.
+     * @param length How many commands the stream has.
+     * @return The case.
+     */
+    public static Case randomCase(long seed, int length) {
+        GameRandom random = new GameRandom(seed);
+        int mode = random.nextInt(MODES.length);
+        byte[] tokens = new byte[length * 3];
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (random.nextInt(20) == 0) {
+                tokens[count++] = (byte) random.nextInt(TOKENS.length);
+                continue;
+            }
+            // x ends the game, so it comes up less often than the rest
+            int command = random.nextInt(8 * MENU.length) < 8 * MENU.length - 7 ? random.nextInt(MENU.length - 1) : MENU.length - 1;
+            tokens[count++] = (byte) command;
+            String choice = MENU[command];
+            if (choice.equals("b") || choice.equals("s")) {
+                tokens[count++] = (byte) index(ITEMS[random.nextInt(ITEMS.length)]);
+                tokens[count++] = (byte) (random.nextInt(5) == 0 ? NO : YES);
+            } else if (choice.equals("m") || choice.equals("w")) {
+                // only asked in a world; anywhere else it is the next command
+                tokens[count++] = (byte) index(NUMBERS[random.nextInt(NUMBERS.length)]);
+            }
+        }
+        return new Case(seed, mode, Arrays.copyOf(tokens, count));
+    }
+
+    /**
+     * Plays a case from a new game, checking the rules after every command.
+     *
+     * @return The first rule broken, or null if none was.
+     */
+    public Failure play(Case fuzzCase) {
+        return play(fuzzCase.seed, MODES[fuzzCase.mode], fuzzCase.tokens);
+    }
+
+    private Failure play(long seed, Difficulty difficulty, byte[] tokens) {
+        TokenSource source = new TokenSource(tokens);
+        TurnRenderer out = new TurnRenderer(OutputStream.nullOutputStream());
+        TreasureHunter game = new TreasureHunter(seed, source, out);
+        game.setWorldSize(worldSize);
+        if (market) {
+            game.setShops(Market.openShops(Market.DEFAULT_STOCK));
+        }
+        game.startGame(NAME, difficulty);
+        int step = 0;
+        while (true) {
+            String command = source.nextLine();
+            if (command == null) {
+                return null;
+            }
+            Hunter hunter = game.getHunter();
+            int goldBefore = hunter.getGold();
+            long kitBefore = hunter.getKit();
+            long treasuresBefore = hunter.getTreasures();
+            if (command.equals("b") || command.equals("s")) {
+                Shop shop = game.getCurrentTown().getShop();
+                for (int id = 0; id < Items.ITEM_COUNT; id++) {
+                    buyPrices[id] = shop.checkMarketPrice(Items.itemName(id), true);
+                    sellPrices[id] = shop.checkMarketPrice(Items.itemName(id), false);
+                }
+            }
+            try {
+                game.processChoice(command);
+            } catch (RuntimeException e) {
+                return new Failure("a command threw " + e.getClass().getSimpleName(), String.valueOf(e.getMessage()),
+                        step, source.position);
+            }
+            commands++;
+            out.flush();
+            String broken = check(command, hunter, goldBefore, kitBefore, treasuresBefore);
+            if (broken != null) {
+                return new Failure(broken, describe(hunter, goldBefore, kitBefore), step, source.position);
+            }
+            if (command.equals("x") || hunter.getGold() < 0 || hunter.allTreasuresCollected()) {
+                game.startGame(NAME, difficulty);
+            }
+            step++;
+        }
+    }
+
+    /**
+     * @return The rule the last command broke, or null if it broke none.
+     */
+    private String check(String command, Hunter hunter, int goldBefore, long kitBefore, long treasuresBefore) {
+        long kit = hunter.getKit();
+        long treasures = hunter.getTreasures();
+        if ((kit & ~ALL_ITEMS) != 0) {
+            return "the kit holds something that isn't an item";
+        }
+        if (Long.bitCount(kit) > Hunter.KIT_SIZE) {
+            return "the kit holds more than " + Hunter.KIT_SIZE + " items";
+        }
+        if ((treasures & ~Items.ALL_TREASURES) != 0) {
+            return "the treasures hold something that isn't a treasure";
+        }
+        if ((treasuresBefore & ~treasures) != 0) {
+            return "a treasure was lost";
+        }
+        long newTreasures = treasures & ~treasuresBefore;
+        if (newTreasures != 0 && !command.equals("h")) {
+            return "a treasure was found without hunting";
+        }
+        if (Long.bitCount(newTreasures) > 1) {
+            return "more than one treasure was found at once";
+        }
+        long gained = kit & ~kitBefore;
+        long lost = kitBefore & ~kit;
+        int goldChange = hunter.getGold() - goldBefore;
+        boolean sword = (kitBefore & Items.bit(Items.SWORD)) != 0;
+        switch (command) {
+            case "b":
+                if (lost != 0 || Long.bitCount(gained) > 1) {
+                    return "buying did more than add one item";
+                }
+                if (gained == 0) {
+                    return goldChange != 0 ? "gold changed without anything being bought" : null;
+                }
+                int price = sword ? 0 : buyPrices[Long.numberOfTrailingZeros(gained)];
+                return goldChange != -price ? "an item cost something other than its price" : null;
+            case "s":
+                if (gained != 0 || Long.bitCount(lost) > 1) {
+                    return "selling did more than take one item";
+                }
+                if (lost == 0) {
+                    return goldChange != 0 ? "gold changed without anything being sold" : null;
+                }
+                return goldChange != sellPrices[Long.numberOfTrailingZeros(lost)] ? "an item sold for something other than its price" : null;
+            case "l":
+                if (gained != 0 || lost != 0) {
+                    return "a brawl changed the kit";
+                }
+                if (Math.abs(goldChange) > Town.MAX_BRAWL_GOLD) {
+                    return "a brawl moved more than " + Town.MAX_BRAWL_GOLD + " gold";
+                }
+                return sword && goldChange < 0 ? "a brawl was lost with a sword" : null;
+            case "d":
+                if (gained != 0 || lost != 0) {
+                    return "digging changed the kit";
+                }
+                if (goldChange < 0 || goldChange > Town.MAX_GOLD_DUG) {
+                    return "digging found less than nothing or more than " + Town.MAX_GOLD_DUG + " gold";
+                }
+                return goldChange > 0 && (kitBefore & Items.bit(Items.SHOVEL)) == 0 ? "gold was dug without a shovel" : null;
+            case "m":
+                if (gained != 0 || Long.bitCount(lost) > 1) {
+                    return "moving on did more than lose one item";
+                }
+                return goldChange != 0 ? "moving on changed the gold" : null;
+            default:
+                if (gained != 0 || lost != 0) {
+                    return "the kit changed on a command that doesn't touch it";
+                }
+                return goldChange != 0 ? "the gold changed on a command that doesn't touch it" : null;
+        }
+    }
+
+    private static String describe(Hunter hunter, int goldBefore, long kitBefore) {
+        return "gold " + goldBefore + " -> " + hunter.getGold() + ", kit " + Long.toBinaryString(kitBefore)
+                + " -> " + Long.toBinaryString(hunter.getKit());
+    }
+
+    /**
+     * Shrinks a failing case by delta debugging: drops ever smaller chunks of its stream for as long as what is left
+     * still breaks the same rule, until no single token can go.
+     *
+     * @param fuzzCase The case.
+     * @param failure How it failed.
+     * @return The smallest case found that still breaks the rule.
+     */
+    public Case shrink(Case fuzzCase, Failure failure) {
+        Difficulty difficulty = MODES[fuzzCase.mode];
+        // nothing after the failing command matters
+        byte[] tokens = Arrays.copyOf(fuzzCase.tokens, failure.end);
+        int chunks = 2;
+        while (tokens.length >= 2) {
+            int chunk = (tokens.length + chunks - 1) / chunks;
+            boolean reduced = false;
+            for (int start = 0; start < tokens.length && !reduced; start += chunk) {
+                int end = Math.min(tokens.length, start + chunk);
+                byte[] part = Arrays.copyOfRange(tokens, start, end);
+                if (stillFails(fuzzCase.seed, difficulty, part, failure)) {
+                    tokens = part;
+                    chunks = 2;
+                    reduced = true;
+                    continue;
+                }
+                byte[] rest = new byte[tokens.length - (end - start)];
+                System.arraycopy(tokens, 0, rest, 0, start);
+                System.arraycopy(tokens, end, rest, start, tokens.length - end);
+                if (stillFails(fuzzCase.seed, difficulty, rest, failure)) {
+                    tokens = rest;
+                    chunks = Math.max(chunks - 1, 2);
+                    reduced = true;
+                }
+            }
+            if (!reduced) {
+                if (chunks >= tokens.length) {
+                    break;
+                }
+                chunks = Math.min(tokens.length, chunks * 2);
+            }
+        }
+        return new Case(fuzzCase.seed, fuzzCase.mode, tokens);
+    }
+
+    private boolean stillFails(long seed, Difficulty difficulty, byte[] tokens, Failure failure) {
+        Failure again = play(seed, difficulty, tokens);
+        return again != null && again.rule.equals(failure.rule);
+    }
+
+    /**
+     * Fuzzes on every core until the time is up or a stream fails, then shrinks and reports the failure.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        double seconds = 10;
+        long masterSeed = 25;
+        int length = DEFAULT_LENGTH;
+        int worldSize = 0;
+        boolean market = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path repro = Path.of("fuzz-repro.txt");
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--seconds")) {
+                seconds = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--seed")) {
+                masterSeed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--length")) {
+                length = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--world")) {
+                worldSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--market")) {
+                market = true;
+            } else if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--repro")) {
+                repro = Path.of(args[++i]);
+            }
+        }
+        if (worldSize < 0 || worldSize == 1) {
+            System.out.println("A world needs at least 2 towns (or leave out --world to fuzz without one).");
+            System.out.println("Usage: java CommandFuzzer [--seconds s] [--seed s] [--length commands] [--world towns] [--market]"
+                    + " [--threads n] [--repro file]");
+            return;
+        }
+
+        long seed = masterSeed;
+        int streamLength = length;
+        int towns = worldSize;
+        boolean shared = market;
+        long end = System.nanoTime() + (long) (seconds * 1e9);
+        LongAdder commands = new LongAdder();
+        LongAdder cases = new LongAdder();
+        AtomicReference<Case> failed = new AtomicReference<>();
+        AtomicReference<Failure> failure = new AtomicReference<>();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int worker = t;
+            int workerCount = threads;
+            workers[t] = new Thread(() -> {
+                CommandFuzzer fuzzer = new CommandFuzzer(towns, shared);
+                for (long n = worker; System.nanoTime() < end && failed.get() == null; n += workerCount) {
+                    Case fuzzCase = randomCase(GameRandom.seedForGame(seed, n), streamLength);
+                    Failure result = fuzzer.play(fuzzCase);
+                    cases.increment();
+                    if (result != null && failed.compareAndSet(null, fuzzCase)) {
+                        failure.set(result);
+                    }
+                }
+                commands.add(fuzzer.getCommands());
+            });
+            workers[t].start();
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%,d streams, %,d commands in %.2f seconds on %d threads: %,.0f commands/sec%n",
+                cases.sum(), commands.sum(), elapsed, threads, commands.sum() / elapsed);
+        if (failed.get() == null) {
+            System.out.println("No rule was broken.");
+            return;
+        }
+
+        Case fuzzCase = failed.get();
+        Failure first = failure.get();
+        System.out.println("FAILED: " + first.rule + " (" + first.detail + ") at command " + first.step
+                + " of seed " + fuzzCase.seed + " in " + MODES[fuzzCase.mode] + " mode");
+        CommandFuzzer fuzzer = new CommandFuzzer(worldSize, market);
+        Case smallest = fuzzer.shrink(fuzzCase, first);
+        Failure last = fuzzer.play(smallest);
+        System.out.println("Shrunk from " + first.end + " tokens to " + smallest.tokens.length + ": " + last.rule
+                + " (" + last.detail + ")");
+        System.out.print(smallest.script());
+        Files.write(repro, smallest.script().getBytes(StandardCharsets.UTF_8));
+        System.out.println("Saved as " + repro + "; replay it with java TreasureHunterRunner --render plain "
+                + (worldSize > 0 ? "--world " + worldSize + " " : "") + smallest.seed + " " + repro
+                + " (the fuzzer starts a new game when one ends, the runner stops)");
+        System.exit(1);
+    }
+
+    private static int index(String token) {
+        for (int i = 0; i < TOKENS.length; i++) {
+            if (TOKENS[i].equals(token)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(token);
+    }
+
+    private static String[] concat(String[]... lists) {
+        String[] all = new String[0];
+        for (String[] list : lists) {
+            int length = all.length;
+            all = Arrays.copyOf(all, length + list.length);
+            System.arraycopy(list, 0, all, length, list.length);
+        }
+        return all;
+    }
+}
@@ -0,0 +1,21 @@
+/**
+ * A CommandSource is where the game reads the player's answers from, one line at a time.<p>
+ * The game and every shop share the same CommandSource, so lines are never split between two readers.
+ */
+
+public interface CommandSource {
+    /**
+     * Reads the next line of input.
+     *
+     * @return The line without its line ending, or null once there is no more input.
+     */
+    String nextLine();
+
+    /**
+     * @return true if nextLine() has an answer ready and won't wait for the player,
+     * in which case there is no need to flush what has been printed before asking.
+     */
+    default boolean hasQueuedInput() {
+        return false;
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * The Difficulty enum holds the settings for each mode of the Treasure Hunter game.<p>
+ * Both the console game and the GameEngine use it to build towns, so the two always play by the same rules.
+ * Each mode has one Shop, shared by all of its towns.
+ */
+
+public enum Difficulty {
+    EASY('e', 1.0, 0.2, true, false),
+    NORMAL('n', 0.5, 0.4, false, false),
+    HARD('h', 0.25, 0.75, false, false),
+    TEST('t', 0.5, 0.4, false, false),
+    SECRET('s', 0.5, 0.0, true, true);
+
+    // instance variables
+    private final byte code;
+    private final double markdown;
+    private final double toughness;
+    private final boolean itemsDoNotBreak;
+    private final boolean secret;
+    private final Shop shop;
+
+    /**
+     * Sets the settings for a mode.
+     *
+     * @param code The byte files store the mode as.
+     * @param markdown Percentage of markdown for selling items in decimal format.
+     * @param toughness The chance that a town is a tough town.
+     * @param itemsDoNotBreak true if items never break when crossing terrain.
+     * @param secret true if the shops sell the secret sword.
+     */
+    Difficulty(char code, double markdown, double toughness, boolean itemsDoNotBreak, boolean secret) {
+        this.code = (byte) code;
+        this.markdown = markdown;
+        this.toughness = toughness;
+        this.itemsDoNotBreak = itemsDoNotBreak;
+        this.secret = secret;
+        shop = new Shop(markdown, secret);
+    }
+
+    // accessors
+    /**
+     * @return The byte files store this mode as. Unlike the ordinal, it doesn't change when modes are added or reordered.
+     */
+    public byte getCode() {
+        return code;
+    }
+
+    public double getMarkdown() {
+        return markdown;
+    }
+
+    public double getToughness() {
+        return toughness;
+    }
+
+    public boolean itemsDoNotBreak() {
+        return itemsDoNotBreak;
+    }
+
+    public boolean isSecret() {
+        return secret;
+    }
+
+    public Shop getShop() {
+        return shop;
+    }
+
+    /**
+     * Converts the player's answer to the difficulty question into a mode.<p>
+     * Anything that isn't recognized plays like normal mode.
+     *
+     * @param choice What the player typed, already lower case.
+     * @return The matching Difficulty.
+     */
+    public static Difficulty fromChoice(String choice) {
+        if (choice.equals("e")) {
+            return EASY;
+        } else if (choice.equals("h")) {
+            return HARD;
+        } else if (choice.equals("test")) {
+            return TEST;
+        } else if (choice.equals("s")) {
+            return SECRET;
+        }
+        return NORMAL;
+    }
+
+    /**
+     * @param code A byte a file stored a mode as (see getCode()).
+     * @return The mode, or null if no mode has that code.
+     */
+    public static Difficulty fromCode(int code) {
+        for (Difficulty difficulty : values()) {
+            if (difficulty.code == code) {
+                return difficulty;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates a new town using this mode's settings and shop.
+     * To move on from a town, reset() it rather than asking for a new one.
+     *
+     * @param random The game's source of random numbers.
+     * @return A Town with no hunter in it yet.
+     */
+    public Town newTown(GameRandom random) {
+        return newTown(random, shop);
+    }
+
+    /**
+     * Creates a new town using this mode's settings but another shop, such as one selling from a shared Market.
+     *
+     * @param random The game's source of random numbers.
+     * @param shop The town's shop.
+     * @return A Town with no hunter in it yet.
+     */
+    public Town newTown(GameRandom random, Shop shop) {
+        return new Town(shop, toughness, itemsDoNotBreak, secret, random);
+    }
+}
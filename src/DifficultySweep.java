@@ -0,0 +1,230 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The DifficultySweep class plays simulated games over a grid of GameRules (markdown, toughness, starting gold and
+ * item break chance) to show how each setting changes the win rate.<p>
+ * Every cell of the grid plays batches of games until the 95% Wilson confidence interval of its win rate is narrower
+ * than the precision asked for (or it reaches the most games allowed), so clear-cut cells stop early.
+ * The cells are played in parallel on every core, and every game is seeded from the master seed and its number,
+ * so a cell always comes out the same.<p>
+ * Finished cells are added to a cache file as they finish, keyed by everything that decides their result,
+ * so running a sweep again (or a bigger one) only plays the cells it hasn't seen.<p>
+ * Usage: java DifficultySweep [--cache file] [--precision half-width] [--max-games n] [--seed s] [--strategy seeker/random]
+ * [markdowns [toughnesses [starting golds [break chances]]]], each list comma-separated, e.g. 0.25,0.5,1.0
+ */
+
+public class DifficultySweep {
+    // constants
+    private static final int BATCH = 2048;
+    private static final double Z = 1.96; // 95% confidence
+    private static final String CACHE_VERSION = "v1"; // change whenever the rules of the game change
+    private static final String DEFAULT_CACHE = "difficulty-sweep.tsv";
+
+    /**
+     * One cell of the grid and, once it has been played, its result.
+     */
+    private static class Cell {
+        private final GameRules rules;
+        private final String key;
+        private long games;
+        private long wins;
+        private long turns;
+        private boolean cached;
+
+        Cell(GameRules rules, String key) {
+            this.rules = rules;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Plays one cell, batch by batch, until its interval is narrow enough, then adds it to the cache.
+     */
+    private static class CellTask extends RecursiveTask<Cell> {
+        private static final long serialVersionUID = 1L;
+        private final Cell cell;
+        private final PlayerStrategy strategy;
+        private final long masterSeed;
+        private final double precision;
+        private final long maxGames;
+        private final BufferedWriter cache;
+
+        CellTask(Cell cell, PlayerStrategy strategy, long masterSeed, double precision, long maxGames, BufferedWriter cache) {
+            this.cell = cell;
+            this.cache = cache;
+            this.strategy = strategy;
+            this.masterSeed = masterSeed;
+            this.precision = precision;
+            this.maxGames = maxGames;
+        }
+
+        @Override
+        protected Cell compute() {
+            SimulationRunner.Totals totals = new SimulationRunner.Totals();
+            while (totals.getGames() < maxGames
+                    && (totals.getGames() == 0 || halfWidth(totals.getWins(), totals.getGames()) > precision)) {
+                long first = totals.getGames();
+                long last = Math.min(maxGames, first + BATCH);
+                for (long i = first; i < last; i++) {
+                    GameEngine game = new GameEngine(cell.rules, GameEngine.DEFAULT_TURN_LIMIT, GameRandom.forGame(masterSeed, i));
+                    totals.record(game.play(strategy), game.getTurns());
+                }
+            }
+            cell.games = totals.getGames();
+            cell.wins = totals.getWins();
+            cell.turns = totals.getTurns();
+            synchronized (cache) {
+                try {
+                    cache.write(cell.key + "\t" + cell.games + "\t" + cell.wins + "\t" + cell.turns);
+                    cache.newLine();
+                    cache.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return cell;
+        }
+    }
+
+    /**
+     * @return Half the width of the 95% Wilson score interval for a win rate.
+     */
+    public static double halfWidth(long wins, long games) {
+        double p = (double) wins / games;
+        double z2 = Z * Z;
+        return Z * Math.sqrt(p * (1 - p) / games + z2 / (4.0 * games * games)) / (1 + z2 / games);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path cacheFile = Paths.get(DEFAULT_CACHE);
+        double precision = 0.005;
+        long maxGames = 1_000_000;
+        long masterSeed = 22;
+        String strategyName = "seeker";
+        List<String> lists = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--cache")) {
+                cacheFile = Paths.get(args[++i]);
+            } else if (args[i].equals("--precision")) {
+                precision = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--max-games")) {
+                maxGames = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--seed")) {
+                masterSeed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--strategy")) {
+                strategyName = args[++i].toLowerCase();
+            } else {
+                lists.add(args[i]);
+            }
+        }
+        double[] markdowns = parseList(lists.size() > 0 ? lists.get(0) : "0.25,0.5,1.0");
+        double[] toughnesses = parseList(lists.size() > 1 ? lists.get(1) : "0.0,0.2,0.4,0.75");
+        double[] startingGolds = parseList(lists.size() > 2 ? lists.get(2) : "10,20,40");
+        double[] breakChances = parseList(lists.size() > 3 ? lists.get(3) : "0.0,0.25,0.5");
+        PlayerStrategy strategy = SimulationRunner.strategyFor(strategyName);
+
+        Map<String, String[]> cache = loadCache(cacheFile);
+        BufferedWriter cacheWriter = Files.newBufferedWriter(cacheFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        List<Cell> cells = new ArrayList<>();
+        List<CellTask> tasks = new ArrayList<>();
+        for (double markdown : markdowns) {
+            for (double toughness : toughnesses) {
+                for (double startingGold : startingGolds) {
+                    for (double breakChance : breakChances) {
+                        GameRules rules = new GameRules(Difficulty.NORMAL, markdown, toughness, (int) startingGold, breakChance);
+                        String key = String.join("\t", CACHE_VERSION, strategyName, Long.toString(masterSeed),
+                                Double.toString(precision), Long.toString(maxGames), Double.toString(markdown),
+                                Double.toString(toughness), Integer.toString((int) startingGold), Double.toString(breakChance));
+                        Cell cell = new Cell(rules, key);
+                        cells.add(cell);
+                        String[] result = cache.get(key);
+                        if (result != null) {
+                            cell.games = Long.parseLong(result[0]);
+                            cell.wins = Long.parseLong(result[1]);
+                            cell.turns = Long.parseLong(result[2]);
+                            cell.cached = true;
+                        } else {
+                            tasks.add(new CellTask(cell, strategy, masterSeed, precision, maxGames, cacheWriter));
+                        }
+                    }
+                }
+            }
+        }
+
+        System.out.println(cells.size() + " cells, " + (cells.size() - tasks.size()) + " from " + cacheFile + ", "
+                + tasks.size() + " to play");
+        long start = System.nanoTime();
+        try (cacheWriter) {
+            ForkJoinTask.invokeAll(tasks);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%8s %9s %5s %6s %10s %8s %7s %10s%n", "markdown", "toughness", "gold", "break",
+                "games", "win %", "+/-", "turns/game");
+        long gamesPlayed = 0;
+        for (Cell cell : cells) {
+            System.out.printf("%8.2f %9.2f %5d %6.2f %,10d %8.2f %7.2f %10.1f%s%n", cell.rules.getMarkdown(),
+                    cell.rules.getToughness(), cell.rules.getStartingGold(), cell.rules.getItemBreakChance(), cell.games,
+                    100.0 * cell.wins / cell.games, 100 * halfWidth(cell.wins, cell.games),
+                    (double) cell.turns / cell.games, cell.cached ? "  (cached)" : "");
+            if (!cell.cached) {
+                gamesPlayed += cell.games;
+            }
+        }
+        System.out.printf("%,d games played in %.2f seconds%n", gamesPlayed, seconds);
+    }
+
+    /**
+     * @return The numbers in a comma-separated list.
+     */
+    private static double[] parseList(String list) {
+        String[] parts = list.split(",");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Double.parseDouble(parts[i].trim());
+        }
+        return values;
+    }
+
+    /**
+     * Reads the results of earlier sweeps. Each line is a cell's key fields followed by its games, wins and turns,
+     * all separated by tabs.
+     *
+     * @return The results (games, wins, turns) by key; empty if there is no cache yet.
+     */
+    private static Map<String, String[]> loadCache(Path cacheFile) {
+        Map<String, String[]> cache = new HashMap<>();
+        if (!Files.exists(cacheFile)) {
+            return cache;
+        }
+        try {
+            for (String line : Files.readAllLines(cacheFile, StandardCharsets.UTF_8)) {
+                int split = line.length();
+                for (int field = 0; field < 3 && split > 0; field++) {
+                    split = line.lastIndexOf('\t', split - 1);
+                }
+                if (split <= 0) {
+                    continue;
+                }
+                cache.put(line.substring(0, split), line.substring(split + 1).split("\t"));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return cache;
+    }
+}
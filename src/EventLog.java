@@ -0,0 +1,137 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The EventLog class records every action a player takes, and how it turned out, in an append-only binary file.<p>
+ * Each game in the file starts with a header (the seed, the mode and the hunter's name); every action after that is a
+ * 16 byte record of what was done and the hunter's gold, kit, treasures and random number generator state afterwards:
+ * <pre>
+ *   header: int magic "THEL", byte version, long seed, byte difficulty code (Difficulty.getCode()), short name length,
+ *           name in UTF-8
+ *   action: byte Action ordinal, byte item id (-1 if none), int gold, byte kit, byte treasures, long random state
+ *   restore: byte RESTORE, then a GameSnapshot
+ * </pre>
+ * Records are collected in a buffer and written in batches: TreasureHunter flushes the log whenever it waits for the
+ * player (and on a save and at the end of the game), so if the JVM crashes the log is only missing the turn that was
+ * being played. A script with its input already queued is written every 64 KB, so a crash there can lose up to that
+ * much. The file isn't synced, so if the whole machine goes down, whatever the OS hadn't yet written is lost too.
+ * EventReplay plays a log back without any console.
+ */
+
+public class EventLog implements Closeable {
+    // constants
+    public static final int MAGIC = 0x5448454c; // "THEL"
+    public static final byte VERSION = 2;
+    public static final byte RESTORE = 100;
+    public static final int RECORD_SIZE = 16;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // instance variables
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private GameRandom random;
+
+    /**
+     * Opens a log file, adding to the end of it if it already exists.
+     *
+     * @param file The log file.
+     * @throws IOException If the file can't be opened.
+     */
+    public EventLog(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        random = null;
+    }
+
+    /**
+     * Starts a new game in the log. Call this before anything random has happened in the game.
+     *
+     * @param difficulty The game's mode.
+     * @param hunterName The hunter's name.
+     * @param random The game's random number generator.
+     * @throws IllegalArgumentException If the name is longer than Hunter.MAX_NAME_BYTES in UTF-8 (see Hunter.fitName()).
+     */
+    public void start(Difficulty difficulty, String hunterName, GameRandom random) {
+        byte[] name = hunterName.getBytes(StandardCharsets.UTF_8);
+        if (name.length > Hunter.MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("The hunter's name is too long to log");
+        }
+        this.random = random;
+        makeRoom(16 + name.length);
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.putLong(random.getState());
+        buffer.put(difficulty.getCode());
+        buffer.putShort((short) name.length);
+        buffer.put(name);
+    }
+
+    /**
+     * Records an action after it has been carried out.
+     *
+     * @param action What the player did.
+     * @param itemId The item bought or sold, or -1.
+     * @param hunter The hunter, to record how things turned out.
+     */
+    public void record(Action action, int itemId, Hunter hunter) {
+        makeRoom(RECORD_SIZE);
+        buffer.put((byte) action.ordinal());
+        buffer.put((byte) itemId);
+        buffer.putInt(hunter.getGold());
+        buffer.put((byte) hunter.getKit());
+        buffer.put((byte) hunter.getTreasures());
+        buffer.putLong(random.getState());
+    }
+
+    /**
+     * Records that a saved game was restored, along with the whole save, so replays don't need the save file.
+     *
+     * @param snapshot The restored game.
+     */
+    public void recordRestore(GameSnapshot snapshot) {
+        makeRoom(1 + snapshot.size());
+        buffer.put(RESTORE);
+        snapshot.write(buffer);
+    }
+
+    /**
+     * Writes out any records still waiting in the buffer.
+     */
+    public void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    /**
+     * Writes the buffer out first if the next record won't fit, and makes the buffer bigger if it never could
+     * (a header or restore with a very long name).
+     */
+    private void makeRoom(int bytes) {
+        if (buffer.remaining() < bytes) {
+            flush();
+            if (buffer.capacity() < bytes) {
+                buffer = ByteBuffer.allocateDirect(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The EventReplay class plays an EventLog back through a GameEngine, with no console at all.<p>
+ * After every action it checks that the hunter and the random number generator ended up exactly as recorded,
+ * so it can both rebuild a player's game after a crash and show where a reported game went differently.<p>
+ * Usage: java EventReplay log-file [times to replay, for timing] [save file for the last game's final state]
+ */
+
+public class EventReplay {
+    // instance variables
+    private GameEngine engine;
+    private long games;
+    private long events;
+    private long mismatches;
+    private long firstMismatch;
+
+    public EventReplay() {
+        engine = null;
+        games = 0;
+        events = 0;
+        mismatches = 0;
+        firstMismatch = -1;
+    }
+
+    // accessors
+    public GameEngine getEngine() {
+        return engine;
+    }
+
+    public long getGames() {
+        return games;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public long getMismatches() {
+        return mismatches;
+    }
+
+    /**
+     * Replays every game in a log.
+     *
+     * @param log The whole log.
+     * @throws IOException If the log is damaged.
+     */
+    public void replay(ByteBuffer log) throws IOException {
+        Action[] actions = Action.values();
+        while (log.hasRemaining()) {
+            if (log.get(log.position()) == (byte) (EventLog.MAGIC >>> 24)) {
+                startGame(log);
+                continue;
+            }
+            if (engine == null) {
+                throw new IOException("Log doesn't start with a game header");
+            }
+            byte type = log.get();
+            events++;
+            if (type == EventLog.RESTORE) {
+                engine.restore(GameSnapshot.read(log));
+                continue;
+            }
+            if (type < 0 || type >= actions.length || log.remaining() < EventLog.RECORD_SIZE - 1) {
+                throw new IOException("Damaged record at byte " + (log.position() - 1));
+            }
+            int itemId = log.get();
+            int gold = log.getInt();
+            long kit = log.get() & 0xffL;
+            long treasures = log.get() & 0xffL;
+            long randomState = log.getLong();
+
+            apply(actions[type], itemId);
+
+            Hunter hunter = engine.getHunter();
+            if (hunter.getGold() != gold || hunter.getKit() != kit || hunter.getTreasures() != treasures
+                    || engine.getRandom().getState() != randomState) {
+                if (mismatches == 0) {
+                    firstMismatch = events;
+                }
+                mismatches++;
+            }
+        }
+    }
+
+    /**
+     * Reads a game header and starts a fresh game from it.
+     */
+    private void startGame(ByteBuffer log) throws IOException {
+        if (log.getInt() != EventLog.MAGIC || log.get() != EventLog.VERSION) {
+            throw new IOException("Unsupported event log");
+        }
+        long seed = log.getLong();
+        int code = log.get();
+        Difficulty difficulty = Difficulty.fromCode(code);
+        if (difficulty == null) {
+            throw new IOException("Unknown difficulty " + code + " at byte " + (log.position() - 1));
+        }
+        byte[] name = new byte[log.getShort() & 0xffff];
+        log.get(name);
+        engine = new GameEngine(difficulty, Integer.MAX_VALUE, new GameRandom(seed));
+        engine.start(new String(name, StandardCharsets.UTF_8));
+        games++;
+    }
+
+    /**
+     * Carries out one recorded action.
+     */
+    private void apply(Action action, int itemId) {
+        Town town = engine.getCurrentTown();
+        if (action == Action.BUY && itemId >= 0) {
+            engine.buy(Items.itemName(itemId));
+        } else if (action == Action.SELL && itemId >= 0) {
+            engine.sell(Items.itemName(itemId));
+        } else if (action == Action.MOVE) {
+            engine.move();
+        } else if (action == Action.TROUBLE) {
+            town.lookForTrouble();
+        } else if (action == Action.HUNT) {
+            town.huntForTreasure();
+        } else if (action == Action.DIG) {
+            town.digForGold();
+        }
+        // buying or selling something no shop has changes nothing
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java EventReplay log-file [times to replay] [save file]");
+            return;
+        }
+        int times = 1;
+        if (args.length > 1) {
+            times = Integer.parseInt(args[1]);
+        }
+
+        ByteBuffer log;
+        try (FileChannel channel = FileChannel.open(Path.of(args[0]), StandardOpenOption.READ)) {
+            log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        EventReplay replay = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            replay = new EventReplay();
+            replay.replay(log.duplicate());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println(replay.games + " games, " + replay.events + " events, " + replay.mismatches + " mismatches");
+        if (replay.mismatches > 0) {
+            System.out.println("First mismatch at event " + replay.firstMismatch);
+        }
+        System.out.printf("%.0f events/sec%n", replay.events * times / seconds);
+
+        GameEngine engine = replay.engine;
+        if (engine != null) {
+            System.out.println("Last game: " + engine.getHunter().infoString());
+            System.out.println(engine.getHunter().treasuresInfoString());
+            if (args.length > 2) {
+                GameSnapshot.capture(engine.getDifficulty(), engine.getRandom(), engine.getHunter(), engine.getCurrentTown())
+                        .save(Path.of(args[2]));
+                System.out.println("Saved to " + args[2]);
+            }
+        }
+    }
+}
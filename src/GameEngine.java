@@ -0,0 +1,223 @@
+/**
+ * The GameEngine class plays a game of Treasure Hunter without any console input or output.<p>
+ * It drives the Hunter, Town, Shop and Terrain objects directly and asks a PlayerStrategy what to do each turn,
+ * so many games can be simulated quickly (see SimulationRunner).
+ */
+
+public class GameEngine {
+    /**
+     * How a game ended.
+     */
+    public enum Outcome {
+        WON,
+        BROKE,
+        QUIT,
+        TURN_LIMIT
+    }
+
+    // constants
+    public static final int DEFAULT_TURN_LIMIT = 500;
+
+    // instance variables
+    private Difficulty difficulty;
+    private GameRules rules;
+    private int turnLimit;
+    private GameRandom random;
+    private Hunter hunter;
+    private Town currentTown;
+    private int turns;
+    private SimulationStats stats;
+
+    /**
+     * Sets up a game; nothing happens until play() is called.
+     *
+     * @param difficulty The mode to play.
+     * @param turnLimit The number of turns after which the game is stopped.
+     * @param random The game's own source of random numbers.
+     */
+    public GameEngine(Difficulty difficulty, int turnLimit, GameRandom random) {
+        this(GameRules.of(difficulty), turnLimit, random);
+    }
+
+    /**
+     * Sets up a game played by rules other than a mode's own; nothing happens until play() is called.
+     *
+     * @param rules The rules to play by.
+     * @param turnLimit The number of turns after which the game is stopped.
+     * @param random The game's own source of random numbers.
+     */
+    public GameEngine(GameRules rules, int turnLimit, GameRandom random) {
+        this.rules = rules;
+        difficulty = rules.getDifficulty();
+        this.turnLimit = turnLimit;
+        this.random = random;
+        hunter = null;
+        currentTown = null;
+        turns = 0;
+        stats = null;
+    }
+
+    /**
+     * Counts every item that breaks in the given statistics from now on.
+     *
+     * @param stats The statistics, or null to stop counting.
+     */
+    public void setStats(SimulationStats stats) {
+        this.stats = stats;
+    }
+
+    // accessors
+    public Difficulty getDifficulty() {
+        return difficulty;
+    }
+
+    public GameRandom getRandom() {
+        return random;
+    }
+
+    public Hunter getHunter() {
+        return hunter;
+    }
+
+    public Town getCurrentTown() {
+        return currentTown;
+    }
+
+    public int getTurns() {
+        return turns;
+    }
+
+    /**
+     * Plays one whole game, the same way TreasureHunter.showMenu() does, until it is won, lost or the turn limit is hit.
+     *
+     * @param strategy Who is making the choices.
+     * @return How the game ended.
+     */
+    public Outcome play(PlayerStrategy strategy) {
+        start();
+        while (true) {
+            if (hunter.getGold() < 0) {
+                return Outcome.BROKE;
+            }
+            if (hunter.allTreasuresCollected()) {
+                return Outcome.WON;
+            }
+            if (turns >= turnLimit) {
+                return Outcome.TURN_LIMIT;
+            }
+            Action action = strategy.chooseAction(this);
+            turns++;
+            if (action == Action.EXIT) {
+                return Outcome.QUIT;
+            }
+            perform(action, strategy);
+        }
+    }
+
+    /**
+     * Creates the hunter and the first town.
+     */
+    public void start() {
+        start("simulated hunter");
+    }
+
+    /**
+     * Creates a hunter with the given name and the first town.
+     *
+     * @param hunterName The hunter's name.
+     */
+    public void start(String hunterName) {
+        hunter = new Hunter(hunterName, rules.getStartingGold());
+        if (difficulty == Difficulty.TEST) {
+            hunter.changeGold(80);
+            hunter.addTestKit();
+        }
+        turns = 0;
+        currentTown = null;
+        enterTown();
+    }
+
+    /**
+     * Carries out one menu choice.
+     *
+     * @param action The choice to carry out.
+     * @param strategy Asked for an item when the choice is to buy or sell.
+     */
+    public void perform(Action action, PlayerStrategy strategy) {
+        if (action == Action.BUY) {
+            buy(strategy.chooseItem(this, action));
+        } else if (action == Action.SELL) {
+            sell(strategy.chooseItem(this, action));
+        } else if (action == Action.MOVE) {
+            move();
+        } else if (action == Action.TROUBLE) {
+            currentTown.lookForTrouble();
+        } else if (action == Action.HUNT) {
+            currentTown.huntForTreasure();
+        } else if (action == Action.DIG) {
+            currentTown.digForGold();
+        }
+        // exploring only prints the terrain, so there is nothing to do
+    }
+
+    /**
+     * Buys an item at the current town's shop.
+     *
+     * @param item The item to buy.
+     * @return true if the hunter got the item.
+     */
+    public boolean buy(String item) {
+        return currentTown.getShop().buyItem(hunter, item);
+    }
+
+    /**
+     * Sells an item at the current town's shop.
+     *
+     * @param item The item to sell.
+     * @return true if the item was sold.
+     */
+    public boolean sell(String item) {
+        return currentTown.getShop().sellItem(hunter, item);
+    }
+
+    /**
+     * Tries to leave the current town and, if the hunter can cross the terrain, enters a new one.
+     *
+     * @return true if the hunter moved.
+     */
+    public boolean move() {
+        if (currentTown.leaveTown()) {
+            if (stats != null && currentTown.getLastBrokenItem() >= 0) {
+                stats.recordItemBreak(currentTown.getLastBrokenItem());
+            }
+            enterTown();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the game being played with a saved one.
+     *
+     * @param snapshot The saved game.
+     */
+    public void restore(GameSnapshot snapshot) {
+        difficulty = snapshot.getDifficulty();
+        rules = GameRules.of(difficulty);
+        hunter = snapshot.createHunter();
+        currentTown = snapshot.createTown(random);
+        currentTown.hunterArrives(hunter);
+    }
+
+    /**
+     * Moves on to a new town (reusing the old one, if there is one) and adds the Hunter to it.
+     */
+    private void enterTown() {
+        if (currentTown == null) {
+            currentTown = rules.newTown(random);
+        } else {
+            currentTown.reset();
+        }
+        currentTown.hunterArrives(hunter);
+    }
+}
@@ -0,0 +1,257 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The GameMetrics class counts and times what players do, for everyone watching a live server over JMX.<p>
+ * Timing a method is two static calls: start() before and stop() after. While metrics are turned off start()
+ * only reads a flag, and while they are on recording is a LongAdder increment and a LongAccumulator update,
+ * so threads playing different games never wait on each other.<p>
+ * The gauges (hunters playing, their gold and treasures) are worked out from the live hunters when they are read,
+ * so the game itself pays nothing for them.<p>
+ * Metrics start turned off unless the system property treasurehunter.metrics is true; register() turns them on.
+ */
+
+public class GameMetrics implements GameMetricsMXBean {
+    /**
+     * The methods that are timed. PROCESS_CHOICE leaves out the commands that ask the player something
+     * (buying and selling, saves, and roads in a world), since their time is mostly the player's.
+     */
+    public enum Timer {
+        PROCESS_CHOICE,
+        BUY_ITEM,
+        SELL_ITEM,
+        LEAVE_TOWN,
+        LOOK_FOR_TROUBLE,
+        HUNT_FOR_TREASURE,
+        DIG_FOR_GOLD
+    }
+
+    // constants
+    public static final String OBJECT_NAME = "treasurehunter:type=GameMetrics";
+    public static final long NOT_TIMED = Long.MIN_VALUE;
+    private static final GameMetrics INSTANCE = new GameMetrics();
+
+    // static variables
+    private static volatile boolean enabled = Boolean.getBoolean("treasurehunter.metrics");
+    private static boolean registered = false;
+
+    // instance variables
+    private final LongAdder[] actionCounts; // indexed by Action ordinal
+    private final LongAdder[] callCounts; // the rest are indexed by Timer ordinal
+    private final LongAdder[] totalNanos;
+    private final LongAccumulator[] maxNanos;
+    private final LongAdder treasuresFound;
+    private final Set<Hunter> hunters;
+
+    private GameMetrics() {
+        actionCounts = new LongAdder[Action.values().length];
+        for (int i = 0; i < actionCounts.length; i++) {
+            actionCounts[i] = new LongAdder();
+        }
+        int timers = Timer.values().length;
+        callCounts = new LongAdder[timers];
+        totalNanos = new LongAdder[timers];
+        maxNanos = new LongAccumulator[timers];
+        for (int i = 0; i < timers; i++) {
+            callCounts[i] = new LongAdder();
+            totalNanos[i] = new LongAdder();
+            maxNanos[i] = new LongAccumulator(Math::max, 0);
+        }
+        treasuresFound = new LongAdder();
+        hunters = ConcurrentHashMap.newKeySet();
+    }
+
+    public static GameMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server (once) and turns them on.
+     */
+    public static synchronized void register() {
+        enabled = true;
+        if (registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+            registered = true;
+        } catch (JMException e) {
+            throw new IllegalStateException("Couldn't register " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * @return The time to pass to stop(), or NOT_TIMED if metrics are off.
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Records how long a timed method took.
+     *
+     * @param timer The method.
+     * @param start What start() returned before the method ran.
+     */
+    public static void stop(Timer timer, long start) {
+        if (start != NOT_TIMED) {
+            long nanos = System.nanoTime() - start;
+            int i = timer.ordinal();
+            INSTANCE.callCounts[i].increment();
+            INSTANCE.totalNanos[i].add(nanos);
+            INSTANCE.maxNanos[i].accumulate(nanos);
+        }
+    }
+
+    /**
+     * Counts a menu action.
+     *
+     * @param action The action the player chose.
+     */
+    public static void countAction(Action action) {
+        if (enabled) {
+            INSTANCE.actionCounts[action.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Counts a treasure being added to a hunter's treasures.
+     */
+    public static void treasureFound() {
+        if (enabled) {
+            INSTANCE.treasuresFound.increment();
+        }
+    }
+
+    /**
+     * Adds a hunter to the gauges; called when a game starts or is restored.
+     * While metrics are off, nothing is kept, so games that never end properly (like CommandFuzzer's) hold on to nothing.
+     *
+     * @param hunter The hunter now playing.
+     */
+    public static void hunterStarted(Hunter hunter) {
+        if (enabled) {
+            INSTANCE.hunters.add(hunter);
+        }
+    }
+
+    /**
+     * Takes a hunter out of the gauges; called when their game ends or is replaced.
+     *
+     * @param hunter The hunter no longer playing, or null.
+     */
+    public static void hunterLeft(Hunter hunter) {
+        if (enabled && hunter != null) {
+            INSTANCE.hunters.remove(hunter);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getActionCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Action action : Action.values()) {
+            counts.put(action.name(), actionCounts[action.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getCallCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Timer timer : Timer.values()) {
+            counts.put(timer.name(), callCounts[timer.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getMeanMicros() {
+        Map<String, Double> means = new LinkedHashMap<>();
+        for (Timer timer : Timer.values()) {
+            long calls = callCounts[timer.ordinal()].sum();
+            means.put(timer.name(), calls == 0 ? 0.0 : totalNanos[timer.ordinal()].sum() / 1000.0 / calls);
+        }
+        return means;
+    }
+
+    @Override
+    public Map<String, Long> getMaxMicros() {
+        Map<String, Long> maxes = new LinkedHashMap<>();
+        for (Timer timer : Timer.values()) {
+            maxes.put(timer.name(), maxNanos[timer.ordinal()].get() / 1000);
+        }
+        return maxes;
+    }
+
+    @Override
+    public int getActiveHunters() {
+        return hunters.size();
+    }
+
+    @Override
+    public long getGoldInCirculation() {
+        long gold = 0;
+        for (Hunter hunter : hunters) {
+            gold += Math.max(0, hunter.getGold());
+        }
+        return gold;
+    }
+
+    @Override
+    public long getTreasuresHeld() {
+        long held = 0;
+        for (Hunter hunter : hunters) {
+            held += Long.bitCount(hunter.getTreasures());
+        }
+        return held;
+    }
+
+    @Override
+    public long getTreasuresFound() {
+        return treasuresFound.sum();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean on) {
+        enabled = on;
+        if (!on) {
+            // hunterLeft() won't take them out any more; hunters who start after metrics are turned back on are counted
+            hunters.clear();
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder count : actionCounts) {
+            count.reset();
+        }
+        for (int i = 0; i < callCounts.length; i++) {
+            callCounts[i].reset();
+            totalNanos[i].reset();
+            maxNanos[i].reset();
+        }
+        treasuresFound.reset();
+    }
+
+    /**
+     * @return A string representation of the metrics.
+     */
+    public String infoString() {
+        return "actions " + getActionCounts() + "\ncalls " + getCallCounts() + "\nmean us " + getMeanMicros()
+                + "\nmax us " + getMaxMicros() + "\nhunters " + getActiveHunters() + ", gold " + getGoldInCirculation()
+                + ", treasures held " + getTreasuresHeld() + ", treasures found " + getTreasuresFound();
+    }
+}
@@ -0,0 +1,45 @@
+import java.util.Map;
+
+/**
+ * The management interface of GameMetrics, as seen in jconsole or any other JMX client.
+ * Every map is keyed by the name of an action or a timed method.
+ */
+
+public interface GameMetricsMXBean {
+    /**
+     * @return How many times each menu action has been chosen.
+     */
+    Map<String, Long> getActionCounts();
+
+    /**
+     * @return How many times each timed method has run.
+     */
+    Map<String, Long> getCallCounts();
+
+    /**
+     * @return The mean time each timed method has taken, in microseconds.
+     */
+    Map<String, Double> getMeanMicros();
+
+    /**
+     * @return The longest time each timed method has taken, in microseconds.
+     */
+    Map<String, Long> getMaxMicros();
+
+    int getActiveHunters();
+
+    long getGoldInCirculation();
+
+    long getTreasuresHeld();
+
+    long getTreasuresFound();
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * Sets every counter and timer back to zero; the gauges are left alone.
+     */
+    void reset();
+}
@@ -0,0 +1,113 @@
+/**
+ * The GameRandom class is the source of every random outcome in a game of Treasure Hunter.<p>
+ * Each game gets its own GameRandom, so games running on different threads never share (or fight over) a generator,
+ * and a game played again from the same seed with the same choices turns out exactly the same.<p>
+ * It uses the SplitMix64 algorithm (the same one behind java.util.SplittableRandom) but keeps its state visible
+ * so it can be saved and restored along with the rest of a game.
+ */
+
+public class GameRandom {
+    // constants
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    // instance variables
+    private long state;
+
+    /**
+     * Creates a generator that will produce the same sequence every time for the same seed.
+     *
+     * @param seed The seed.
+     */
+    public GameRandom(long seed) {
+        state = seed;
+    }
+
+    /**
+     * Creates the generator for one game in a batch, so that game can be replayed on its own later.
+     *
+     * @param masterSeed The seed for the whole batch.
+     * @param gameIndex The game's position in the batch.
+     * @return A generator for that game.
+     */
+    public static GameRandom forGame(long masterSeed, long gameIndex) {
+        return new GameRandom(seedForGame(masterSeed, gameIndex));
+    }
+
+    /**
+     * Works out the seed forGame() uses, so it can be reported for replaying.
+     *
+     * @param masterSeed The seed for the whole batch.
+     * @param gameIndex The game's position in the batch.
+     * @return The game's own seed.
+     */
+    public static long seedForGame(long masterSeed, long gameIndex) {
+        return mix64(masterSeed + gameIndex * GOLDEN_GAMMA);
+    }
+
+    // accessors
+    public long getState() {
+        return state;
+    }
+
+    public void setState(long state) {
+        this.state = state;
+    }
+
+    /**
+     * @return The next 64 random bits.
+     */
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix64(state);
+    }
+
+    /**
+     * A replacement for Math.random().
+     *
+     * @return A random number from 0.0 (inclusive) to 1.0 (exclusive).
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * Advances one of many generators whose states are kept side by side in an array (see Population),
+     * giving exactly the numbers a GameRandom with that state would.
+     *
+     * @param states The generators' states.
+     * @param index Which generator to advance.
+     * @return A random number from 0.0 (inclusive) to 1.0 (exclusive).
+     */
+    public static double nextDouble(long[] states, int index) {
+        long state = states[index] + GOLDEN_GAMMA;
+        states[index] = state;
+        return (mix64(state) >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * @param bound The upper bound (exclusive); must be positive.
+     * @return A random number from 0 up to bound.
+     */
+    public int nextInt(int bound) {
+        return (int) ((nextLong() >>> 33) * bound >>> 31);
+    }
+
+    /**
+     * Creates a new generator whose sequence does not overlap this one, for handing to another game or thread.
+     *
+     * @return The new generator.
+     */
+    public GameRandom split() {
+        return new GameRandom(mix64(nextLong()));
+    }
+
+    /**
+     * Scrambles the bits of a number (Stafford's "Mix13" variant used by SplittableRandom).
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
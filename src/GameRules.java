@@ -0,0 +1,91 @@
+/**
+ * The GameRules class holds the numbers that decide how hard a game is: the shop's markdown, how likely towns are
+ * to be tough, the hunter's starting gold and how likely an item is to break when it is used.<p>
+ * GameRules.of() gives the rules each Difficulty plays by; building GameRules with other numbers lets a GameEngine
+ * try out new settings (see DifficultySweep) without adding a mode.
+ */
+
+public class GameRules {
+    // constants
+    public static final int STARTING_GOLD = 20;
+
+    // instance variables
+    private final Difficulty difficulty;
+    private final double markdown;
+    private final double toughness;
+    private final int startingGold;
+    private final double itemBreakChance;
+    private final Shop shop;
+
+    /**
+     * @param difficulty The mode these rules change; it still decides the test kit and the secret items.
+     * @param markdown Percentage of markdown for selling items in decimal format.
+     * @param toughness The chance that a town is a tough town.
+     * @param startingGold The gold the hunter starts with.
+     * @param itemBreakChance The chance an item breaks when it is used to leave town.
+     */
+    public GameRules(Difficulty difficulty, double markdown, double toughness, int startingGold, double itemBreakChance) {
+        this.difficulty = difficulty;
+        this.markdown = markdown;
+        this.toughness = toughness;
+        this.startingGold = startingGold;
+        this.itemBreakChance = itemBreakChance;
+        if (markdown == difficulty.getMarkdown()) {
+            shop = difficulty.getShop();
+        } else {
+            shop = new Shop(markdown, difficulty.isSecret());
+        }
+    }
+
+    /**
+     * @param difficulty A mode.
+     * @return The rules that mode plays by.
+     */
+    public static GameRules of(Difficulty difficulty) {
+        return new GameRules(difficulty, difficulty.getMarkdown(), difficulty.getToughness(), STARTING_GOLD,
+                difficulty.itemsDoNotBreak() ? 0.0 : Town.ITEM_BREAK_CHANCE);
+    }
+
+    // accessors
+    public Difficulty getDifficulty() {
+        return difficulty;
+    }
+
+    public double getMarkdown() {
+        return markdown;
+    }
+
+    public double getToughness() {
+        return toughness;
+    }
+
+    public int getStartingGold() {
+        return startingGold;
+    }
+
+    public double getItemBreakChance() {
+        return itemBreakChance;
+    }
+
+    public Shop getShop() {
+        return shop;
+    }
+
+    /**
+     * Creates a new town that plays by these rules.
+     *
+     * @param random The game's source of random numbers.
+     * @return A Town with no hunter in it yet.
+     */
+    public Town newTown(GameRandom random) {
+        return new Town(shop, toughness, itemBreakChance, difficulty.isSecret(), random);
+    }
+
+    /**
+     * @return A string representation of the rules.
+     */
+    public String infoString() {
+        return String.format("markdown %.2f, toughness %.2f, starting gold %d, item break chance %.2f",
+                markdown, toughness, startingGold, itemBreakChance);
+    }
+}
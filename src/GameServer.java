@@ -0,0 +1,288 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The GameServer class hosts many games of Treasure Hunter at once over plain TCP (telnet or nc will do as a client).<p>
+ * Every connection gets its own TreasureHunter with its own input and output, running on its own thread -
+ * a virtual thread when the JVM has them (Java 21 and later), otherwise a pooled platform thread.<p>
+ * Idle players are disconnected after a timeout, and a player whose connection stops accepting output
+ * is disconnected once a write has been stuck for too long, so slow clients can't pile up.<p>
+ * The server turns on GameMetrics, so its players can be watched over JMX.<p>
+ * All the players shop from the same Market for each mode, so stock and prices move with everyone's buying and selling,
+ * and the shelves are restocked a step every second.<p>
+ * Players can't save or restore games, since every game on the server would share its saves directory.<p>
+ * Each player's screen is redrawn in place by a ScreenRenderer, which sends only what changed from turn to turn.
+ * A telnet client is asked for its window size, and tells the renderer whenever it changes; any other client is
+ * taken to have the standard 24 rows of 80 columns.<p>
+ * With -Dtreasurehunter.audit=file, every trade on the server is added to an AuditLog in that file.<p>
+ * Usage: java GameServer [port] [max players] [idle timeout seconds]
+ */
+
+public class GameServer {
+    // constants
+    public static final int DEFAULT_PORT = 4000;
+    private static final long REAPER_INTERVAL_MILLIS = 1000;
+
+    // instance variables
+    private int port;
+    private int idleTimeoutMillis;
+    private long writeTimeoutMillis;
+    private Semaphore openSeats;
+    private Set<Session> sessions;
+    private AtomicLong sessionsStarted;
+    private volatile boolean running;
+    private ServerSocket serverSocket;
+    private Map<Difficulty, Shop> shops;
+
+    /**
+     * @param port The port to listen on.
+     * @param maxSessions How many players can be connected at once.
+     * @param idleTimeoutMillis How long a player can go without typing anything before being disconnected.
+     * @param writeTimeoutMillis How long output to a player can be stuck before they are disconnected.
+     */
+    public GameServer(int port, int maxSessions, int idleTimeoutMillis, long writeTimeoutMillis) {
+        this.port = port;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        openSeats = new Semaphore(maxSessions);
+        sessions = ConcurrentHashMap.newKeySet();
+        sessionsStarted = new AtomicLong();
+        running = false;
+        shops = Market.openShops(Market.DEFAULT_STOCK);
+    }
+
+    // accessors
+    public int getActiveSessions() {
+        return sessions.size();
+    }
+
+    public long getSessionsStarted() {
+        return sessionsStarted.get();
+    }
+
+    /**
+     * Creates an executor that runs each task on its own virtual thread if this JVM has them,
+     * or on a cached pool of platform threads if it doesn't.
+     *
+     * @return The executor.
+     */
+    public static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Accepts players until stop() is called. Blocks the calling thread.
+     *
+     * @throws IOException If the port can't be listened on.
+     */
+    public void run() throws IOException {
+        ExecutorService executor = newThreadPerTaskExecutor();
+        serverSocket = new ServerSocket(port, 1024);
+        running = true;
+        Thread reaper = new Thread(this::reapStuckSessions, "session-reaper");
+        reaper.setDaemon(true);
+        reaper.start();
+        try {
+            while (running) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (running) {
+                        throw e;
+                    }
+                    break;
+                }
+                if (!openSeats.tryAcquire()) {
+                    turnAway(socket);
+                    continue;
+                }
+                executor.execute(() -> {
+                    try {
+                        serve(socket);
+                    } finally {
+                        openSeats.release();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Stops accepting players and disconnects everyone who is playing.
+     */
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            // already closed
+        }
+        for (Session session : sessions) {
+            session.close();
+        }
+    }
+
+    /**
+     * Plays one game with one connected player.
+     */
+    private void serve(Socket socket) {
+        Session session = new Session(socket);
+        sessions.add(session);
+        sessionsStarted.incrementAndGet();
+        try {
+            socket.setSoTimeout(idleTimeoutMillis);
+            socket.setTcpNoDelay(true);
+            ScreenRenderer out = new ScreenRenderer(session, false, ScreenRenderer.DEFAULT_ROWS,
+                    ScreenRenderer.DEFAULT_COLUMNS);
+            // the reports come in with the player's typing, so they are read on the game's own thread
+            CommandSource in = new TerminalCommandSource(new TelnetInputStream(socket.getInputStream(), out::setSize));
+            session.write(TelnetInputStream.DO_NAWS, 0, TelnetInputStream.DO_NAWS.length);
+            TreasureHunter game = new TreasureHunter(System.nanoTime() ^ socket.hashCode(), in, out);
+            game.setShops(shops);
+            // saves would all share the server's saves directory, open to anyone who connects
+            game.setSavesAllowed(false);
+            game.play();
+        } catch (IOException | UncheckedIOException e) {
+            // the player timed out, hung up, or stopped reading; either way the game is over
+        } finally {
+            sessions.remove(session);
+            session.close();
+        }
+    }
+
+    /**
+     * Tells a player the server is full and hangs up.
+     */
+    private void turnAway(Socket socket) {
+        try (socket) {
+            socket.getOutputStream().write("The server is full, try again later.\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // nothing more can be done for them
+        }
+    }
+
+    /**
+     * Disconnects any player whose output has been stuck for longer than the write timeout,
+     * and restocks the markets while it is at it.
+     */
+    private void reapStuckSessions() {
+        while (running) {
+            try {
+                Thread.sleep(REAPER_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (Session session : sessions) {
+                if (session.isStuck(now, writeTimeoutMillis * 1_000_000L)) {
+                    session.close();
+                }
+            }
+            for (Shop shop : shops.values()) {
+                shop.getMarket().restock();
+            }
+        }
+    }
+
+    /**
+     * The output side of one player's connection. It remembers when a write started,
+     * so the reaper can tell when a player has stopped reading.
+     */
+    private static class Session extends OutputStream {
+        private final Socket socket;
+        private final OutputStream out;
+        private volatile long writeStartedAt;
+
+        Session(Socket socket) {
+            this.socket = socket;
+            OutputStream stream;
+            try {
+                stream = socket.getOutputStream();
+            } catch (IOException e) {
+                stream = OutputStream.nullOutputStream();
+            }
+            out = stream;
+            writeStartedAt = 0;
+        }
+
+        boolean isStuck(long now, long timeoutNanos) {
+            long started = writeStartedAt;
+            return started != 0 && now - started > timeoutNanos;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            writeStartedAt = System.nanoTime();
+            try {
+                out.write(bytes, offset, length);
+            } finally {
+                writeStartedAt = 0;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        int maxSessions = 10_000;
+        int idleSeconds = 300;
+        if (args.length > 0) {
+            port = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            maxSessions = Integer.parseInt(args[1]);
+        }
+        if (args.length > 2) {
+            idleSeconds = Integer.parseInt(args[2]);
+        }
+        GameServer server = new GameServer(port, maxSessions, idleSeconds * 1000, 10_000);
+        GameMetrics.register();
+        AuditLog.openIfConfigured();
+        System.out.println("Treasure Hunter server listening on port " + port + " for up to " + maxSessions + " players");
+        server.run();
+    }
+}
@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A GameSnapshot is everything needed to pick a game of Treasure Hunter back up later:
+ * the mode, the random number generator, the hunter and the town the hunter is in.<p>
+ * Snapshots are saved in a small versioned binary format (25 bytes plus the hunter's name):
+ * <pre>
+ *   int    magic "THSV"
+ *   byte   format version
+ *   byte   difficulty code (Difficulty.getCode())
+ *   long   random number generator state
+ *   short  name length, then the name in UTF-8
+ *   int    gold
+ *   byte   kit bitmask
+ *   byte   treasures bitmask
+ *   byte   terrain kind
+ *   byte   treasure hidden in town (Items treasure id, or 3 for dust)
+ *   byte   flags: 1 = tough town, 2 = treasure searched, 4 = gold dug
+ * </pre>
+ * Version 1 saves are still read; they stored the difficulty as its place in EASY, NORMAL, HARD, TEST, SECRET.
+ * A name longer than Hunter.MAX_NAME_BYTES in UTF-8 can't be saved.<p>
+ * Saving writes through a FileChannel; loading memory-maps the file, so a whole directory of saves loads quickly.
+ */
+
+public class GameSnapshot {
+    // constants
+    public static final int MAGIC = 0x54485356; // "THSV"
+    public static final byte VERSION = 2;
+    public static final String EXTENSION = ".ths";
+    private static final int DUST = 3;
+    private static final int TOUGH_FLAG = 1;
+    private static final int SEARCHED_FLAG = 2;
+    private static final int DUG_FLAG = 4;
+    private static final int FIXED_SIZE = 4 + 1 + 1 + 8 + 2 + 4 + 1 + 1 + 1 + 1 + 1;
+    private static final Difficulty[] VERSION_1_DIFFICULTIES = {Difficulty.EASY, Difficulty.NORMAL, Difficulty.HARD,
+            Difficulty.TEST, Difficulty.SECRET};
+
+    // instance variables
+    private final Difficulty difficulty;
+    private final long randomState;
+    private final String hunterName;
+    private final int gold;
+    private final long kit;
+    private final long treasures;
+    private final int terrainKind;
+    private final int treasure;
+    private final int flags;
+
+    private GameSnapshot(Difficulty difficulty, long randomState, String hunterName, int gold, long kit, long treasures,
+                         int terrainKind, int treasure, int flags) {
+        this.difficulty = difficulty;
+        this.randomState = randomState;
+        this.hunterName = hunterName;
+        this.gold = gold;
+        this.kit = kit;
+        this.treasures = treasures;
+        this.terrainKind = terrainKind;
+        this.treasure = treasure;
+        this.flags = flags;
+    }
+
+    /**
+     * Takes a snapshot of a game in progress.
+     *
+     * @param difficulty The game's mode.
+     * @param random The game's random number generator.
+     * @param hunter The hunter.
+     * @param town The town the hunter is in.
+     * @return The snapshot.
+     */
+    public static GameSnapshot capture(Difficulty difficulty, GameRandom random, Hunter hunter, Town town) {
+        int treasure = Items.treasureId(town.getTreasure());
+        if (treasure < 0) {
+            treasure = DUST;
+        }
+        int flags = 0;
+        if (town.isToughTown()) {
+            flags |= TOUGH_FLAG;
+        }
+        if (town.isTreasureSearched()) {
+            flags |= SEARCHED_FLAG;
+        }
+        if (town.isGoldDug()) {
+            flags |= DUG_FLAG;
+        }
+        return new GameSnapshot(difficulty, random.getState(), hunter.getHunterName(), hunter.getGold(),
+                hunter.getKit(), hunter.getTreasures(), town.getTerrainKind(), treasure, flags);
+    }
+
+    // accessors
+    public Difficulty getDifficulty() {
+        return difficulty;
+    }
+
+    public String getHunterName() {
+        return hunterName;
+    }
+
+    /**
+     * @return A new Hunter just like the one that was saved.
+     */
+    public Hunter createHunter() {
+        Hunter hunter = new Hunter(hunterName, gold);
+        hunter.restoreKit(kit, treasures);
+        return hunter;
+    }
+
+    /**
+     * Rebuilds the saved town and puts the random number generator back where it was when the game was saved.
+     *
+     * @param random The restored game's random number generator.
+     * @return The town, with no hunter in it yet.
+     */
+    public Town createTown(GameRandom random) {
+        Town town = difficulty.newTown(random);
+        String treasureName = "dust";
+        if (treasure != DUST) {
+            treasureName = Items.treasureName(treasure);
+        }
+        town.restoreState(terrainKind, (flags & TOUGH_FLAG) != 0, treasureName,
+                (flags & SEARCHED_FLAG) != 0, (flags & DUG_FLAG) != 0);
+        // building the town used up random numbers, so the state is set afterwards
+        random.setState(randomState);
+        return town;
+    }
+
+    /**
+     * @return How many bytes write() will use.
+     */
+    public int size() {
+        return FIXED_SIZE + hunterName.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Writes the snapshot at the buffer's position.
+     *
+     * @param buffer The buffer; it needs at least size() bytes left.
+     * @throws IllegalStateException If the hunter's name is too long to save.
+     */
+    public void write(ByteBuffer buffer) {
+        byte[] name = hunterName.getBytes(StandardCharsets.UTF_8);
+        if (name.length > Hunter.MAX_NAME_BYTES) {
+            throw new IllegalStateException("The hunter's name is too long to save");
+        }
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.put(difficulty.getCode());
+        buffer.putLong(randomState);
+        buffer.putShort((short) name.length);
+        buffer.put(name);
+        buffer.putInt(gold);
+        buffer.put((byte) kit);
+        buffer.put((byte) treasures);
+        buffer.put((byte) terrainKind);
+        buffer.put((byte) treasure);
+        buffer.put((byte) flags);
+    }
+
+    /**
+     * Reads a snapshot from the buffer's position.
+     *
+     * @param buffer The buffer.
+     * @return The snapshot.
+     * @throws IOException If the bytes aren't a snapshot this version understands.
+     */
+    public static GameSnapshot read(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < FIXED_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a Treasure Hunter save");
+        }
+        byte version = buffer.get();
+        if (version != VERSION && version != 1) {
+            throw new IOException("Unsupported save version " + version);
+        }
+        int code = buffer.get();
+        Difficulty difficulty;
+        if (version == 1) {
+            difficulty = code >= 0 && code < VERSION_1_DIFFICULTIES.length ? VERSION_1_DIFFICULTIES[code] : null;
+        } else {
+            difficulty = Difficulty.fromCode(code);
+        }
+        if (difficulty == null) {
+            throw new IOException("Unknown difficulty " + code);
+        }
+        long randomState = buffer.getLong();
+        byte[] name = new byte[buffer.getShort() & 0xffff];
+        if (buffer.remaining() < name.length + FIXED_SIZE - 16) {
+            throw new IOException("Save is cut short");
+        }
+        buffer.get(name);
+        int gold = buffer.getInt();
+        long kit = buffer.get() & 0xffL;
+        long treasures = buffer.get() & Items.ALL_TREASURES;
+        int terrainKind = buffer.get();
+        int treasure = buffer.get();
+        int flags = buffer.get();
+        if (terrainKind < 0 || terrainKind >= Town.TERRAIN_KINDS || treasure < 0 || treasure > DUST) {
+            throw new IOException("Save has a town that can't exist");
+        }
+        return new GameSnapshot(difficulty, randomState, new String(name, StandardCharsets.UTF_8),
+                gold, kit, treasures, terrainKind, treasure, flags);
+    }
+
+    /**
+     * Saves the snapshot to a file. It is written to a temporary file first and then moved into place,
+     * so a crash part way through never leaves a broken save behind.
+     *
+     * @param file Where to save.
+     * @throws IOException If the file can't be written, or the hunter's name is too long to save.
+     */
+    public void save(Path file) throws IOException {
+        if (size() - FIXED_SIZE > Hunter.MAX_NAME_BYTES) {
+            throw new IOException("The hunter's name is too long to save");
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = parent.resolve(file.getFileName() + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(size());
+        write(buffer);
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads one save file.
+     *
+     * @param file The save.
+     * @return The snapshot.
+     * @throws IOException If the file can't be read or isn't a save.
+     */
+    public static GameSnapshot load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        }
+    }
+
+    /**
+     * Loads every save file (ending in EXTENSION) in a directory.
+     *
+     * @param directory The directory of saves.
+     * @return The snapshots, keyed by file.
+     * @throws IOException If the directory or one of the saves can't be read.
+     */
+    public static Map<Path, GameSnapshot> loadAll(Path directory) throws IOException {
+        Map<Path, GameSnapshot> snapshots = new LinkedHashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : files) {
+                snapshots.put(file, load(file));
+            }
+        }
+        return snapshots;
+    }
+}
@@ -0,0 +1,150 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * The HotPathBenchmarks class measures the methods that run on every turn of the game.<p>
+ * For each one it reports throughput (operations per second) and allocation (bytes allocated per operation,
+ * the same figure JMH's gc profiler reports as gc.alloc.rate.norm). Console output is thrown away while measuring.<p>
+ * Usage: java HotPathBenchmarks [seconds per iteration] [iterations]
+ */
+
+public class HotPathBenchmarks {
+    // constants
+    private static final int BATCH = 1024;
+    private static final PrintStream NULL_OUT = new PrintStream(OutputStream.nullOutputStream());
+
+    /**
+     * One operation to measure. Whatever it returns is kept so the JIT compiler can't throw the work away.
+     */
+    private interface Operation {
+        long run();
+    }
+
+    // static variables
+    private static volatile long sink;
+    private static double secondsPerIteration = 1.0;
+    private static int iterations = 5;
+
+    public static void main(String[] args) {
+        if (args.length > 0) {
+            secondsPerIteration = Double.parseDouble(args[0]);
+        }
+        if (args.length > 1) {
+            iterations = Integer.parseInt(args[1]);
+        }
+        PrintStream console = System.out;
+        console.printf("%-28s %16s %14s%n", "Benchmark", "ops/sec", "bytes/op");
+
+        Hunter hunter = new Hunter("bench", 20);
+        hunter.addTestKit();
+        console.printf(measure("Hunter.hasItemInKit", () -> hunter.hasItemInKit("boots") ? 1 : 0));
+
+        Hunter shopper = new Hunter("bench", 1000);
+        console.printf(measure("Hunter.buyItem/sellItem", () -> {
+            shopper.setGold(1000);
+            boolean bought = shopper.buyItem("horse", 12);
+            boolean sold = shopper.sellItem("horse", 6);
+            return (bought ? 1 : 0) + (sold ? 2 : 0);
+        }));
+
+        Shop shop = new Shop(0.5, true);
+        console.printf(measure("Shop.getCostOfItem", () -> shop.getCostOfItem("shovel")));
+        console.printf(measure("Shop.getBuyBackCost", () -> shop.getBuyBackCost("boat")));
+
+        GameRandom random = new GameRandom(1);
+        Town town = Difficulty.NORMAL.newTown(random);
+        Hunter brawler = new Hunter("bench", 20);
+        town.hunterArrives(brawler);
+        console.printf(measure("Town.lookForTrouble", () -> {
+            brawler.setGold(20);
+            town.lookForTrouble();
+            return brawler.getGold();
+        }));
+
+        // easy mode towns never break items, so the same hunter can leave over and over
+        Town easyTown = Difficulty.EASY.newTown(random);
+        Hunter traveller = new Hunter("bench", 20);
+        traveller.addTestKit();
+        easyTown.hunterArrives(traveller);
+        console.printf(measure("Town.leaveTown", () -> easyTown.leaveTown() ? 1 : 0));
+
+        TurnRenderer renderer = new TurnRenderer(OutputStream.nullOutputStream());
+        TreasureHunter game = new TreasureHunter(1, new MemoryCommandSource(), renderer);
+        String[] choices = {"l", "h", "d", "e"};
+        int[] turn = new int[1];
+        game.startGame("bench", Difficulty.EASY);
+        console.printf(measure("TreasureHunter turn", () -> {
+            game.getHunter().setGold(20);
+            game.printMenu();
+            game.processChoice(choices[turn[0]++ & 3]);
+            renderer.flush();
+            return game.getHunter().getGold();
+        }));
+
+        // moving used to build a new Town, Shop and Terrain every time; now it should allocate nothing
+        TreasureHunter mover = new TreasureHunter(2, new MemoryCommandSource(), renderer);
+        mover.startGame("bench", Difficulty.EASY);
+        mover.getHunter().addTestKit();
+        console.printf(measure("TreasureHunter move", () -> {
+            mover.processChoice("m");
+            renderer.flush();
+            return mover.getCurrentTown().getTerrainKind();
+        }));
+    }
+
+    /**
+     * Warms up and then times an operation.
+     *
+     * @param name The name to report.
+     * @param operation The operation to time.
+     * @return A formatted line with the results.
+     */
+    private static String measure(String name, Operation operation) {
+        PrintStream console = System.out;
+        System.setOut(NULL_OUT);
+        try {
+            runFor(operation, secondsPerIteration);
+            double bestOpsPerSecond = 0;
+            double bytesPerOp = 0;
+            for (int i = 0; i < iterations; i++) {
+                long bytesBefore = allocatedBytes();
+                long start = System.nanoTime();
+                long ops = runFor(operation, secondsPerIteration);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                long bytes = allocatedBytes() - bytesBefore;
+                bestOpsPerSecond = Math.max(bestOpsPerSecond, ops / seconds);
+                bytesPerOp = (double) bytes / ops;
+            }
+            return String.format("%-28s %16.0f %14.1f%n", name, bestOpsPerSecond, bytesPerOp);
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Runs an operation over and over, in batches, until the time is up.
+     *
+     * @return How many times it ran.
+     */
+    private static long runFor(Operation operation, double seconds) {
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        long ops = 0;
+        long result = 0;
+        while (System.nanoTime() < deadline) {
+            for (int i = 0; i < BATCH; i++) {
+                result += operation.run();
+            }
+            ops += BATCH;
+        }
+        sink = result;
+        return ops;
+    }
+
+    /**
+     * @return How many bytes this thread has allocated so far.
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
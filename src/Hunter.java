@@ -1,3 +1,5 @@
+import java.nio.charset.StandardCharsets;
+
 /**
  * Hunter Class<br /><br />
  * This class represents the treasure hunter character (the player) in the Treasure Hunt game.
@@ -5,11 +7,17 @@
  */
 
 public class Hunter {
+    // constants
+    public static final int KIT_SIZE = 8; // only 8 possible items can be stored in kit
+    public static final int MAX_NAME_BYTES = 0xffff; // saves and event logs store the name's length in UTF-8 as a short
+
     //instance variables
     private String hunterName;
-    private String[] kit;
-    private String[] treasures;
+    private long kit; // bitmask of item ids, see Items
+    private long treasures; // bitmask of treasure ids, see Items
     private int gold;
+    private String info; // cached infoString(); null when the gold or kit has changed
+    private String treasuresInfo; // cached treasuresInfoString(); null when a treasure has been added
 
     /**
      * The base constructor of a Hunter assigns the name to the hunter and an empty kit.
@@ -19,11 +27,29 @@ public class Hunter {
      */
     public Hunter(String hunterName, int startingGold) {
         this.hunterName = hunterName;
-        kit = new String[8]; // only 8 possible items can be stored in kit
-        treasures = new String[3]; // 3 required treasures to collect
+        kit = 0;
+        treasures = 0; // 3 required treasures to collect
         gold = startingGold;
     }
 
+    /**
+     * Cuts a name down to MAX_NAME_BYTES in UTF-8, so it can be saved and logged, without splitting a character.
+     *
+     * @param name The name the player gave.
+     * @return The name, or as much of it as fits.
+     */
+    public static String fitName(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAX_NAME_BYTES) {
+            return name;
+        }
+        int end = MAX_NAME_BYTES;
+        while ((bytes[end] & 0xc0) == 0x80) {
+            end--; // bytes[end] continues a character, so that character doesn't fit
+        }
+        return new String(bytes, 0, end, StandardCharsets.UTF_8);
+    }
+
     //Accessors
     public String getHunterName() {
         return hunterName;
@@ -33,6 +59,14 @@ public class Hunter {
         return gold;
     }
 
+    public long getKit() {
+        return kit;
+    }
+
+    public long getTreasures() {
+        return treasures;
+    }
+
     /**
      * Updates the amount of gold the hunter has.
      *
@@ -40,6 +74,7 @@ public class Hunter {
      */
     public void changeGold(int modifier) {
         gold += modifier;
+        info = null;
     }
 
     /**
@@ -51,27 +86,24 @@ public class Hunter {
      */
     public boolean buyItem(String item, int costOfItem) {
         if (hasItemInKit("sword") && item.equals("sword")){
-            System.out.println("SO greedy... YOU ALREADY HAVE ONE");
             return false;
         }
         if (costOfItem < 0){
-            System.out.println("We don't sell that here!");
             return false;
         }
-        if (hasItemInKit("sword") && gold < costOfItem){
-            System.out.println(Colors.YELLOW + "0_0. You know, you don't have enough, but don't sweat it haha... it's on the house" + Colors.RESET);
-            addItem(item);
-            return true;
-        } else if (hasItemInKit("sword") && gold >= costOfItem) {
-            System.out.println(Colors.YELLOW + "0_0. Is that a sword. You know what, you can just have it" + Colors.RESET);
-            addItem(item);
+        if (hasItemInKit("sword")) {
+            // shopkeepers don't argue with a sword, so the item is free
+            if (!addItem(item)) {
+                return false;
+            }
+            AuditLog.swordGrant(this, item, costOfItem);
             return true;
         } else {
-            if (gold < costOfItem || hasItemInKit(item)) {
+            if (gold < costOfItem || !addItem(item)) {
                 return false;
             }
             gold -= costOfItem;
-            addItem(item);
+            info = null;
             return true;
         }
     }
@@ -89,6 +121,7 @@ public class Hunter {
             return false;
         }
         gold += buyBackPrice;
+        info = null;
         removeItemFromKit(item);
         return true;
     }
@@ -96,80 +129,81 @@ public class Hunter {
     /**
      * Attempts to add a treasure to the treasure Array
      * @return If the hunter successfully collected the treasure.
-     * False if treasure is in treasures Array already
-     * or treasures Array is full, else true.
+     * False if the hunter has the treasure already
+     * or it isn't one of the three treasures, else true.
      */
     public boolean addTreasure(String treasure) {
-        int pos = emptyPositionInTreasures();
-        if (!hasTreasure(treasure)) {
-            treasures[pos] = treasure;
-            return true;
+        int id = Items.treasureId(treasure);
+        if (id < 0 || hasTreasure(treasure)) {
+            return false;
         }
-        return false;
+        treasures |= Items.bit(id);
+        treasuresInfo = null;
+        return true;
     }
 
     /**
-     * Removes an item from the kit by setting the index of the item to null.
+     * Removes an item from the kit by clearing its bit.
      *
      * @param item The item to be removed.
      */
     public void removeItemFromKit(String item) {
-        int itmIdx = findItemInKit(item);
+        int id = Items.itemId(item);
 
-        // if item is found
-        if (itmIdx >= 0) {
-            kit[itmIdx] = null;
+        // if item is a real item
+        if (id >= 0) {
+            kit &= ~Items.bit(id);
+            info = null;
         }
     }
 
     /**
-     * Checks to make sure that the item is not already in the kit.
-     * If not, it assigns the item to an index in the kit with a null value ("empty" position).
+     * Checks to make sure that the item is a real item, is not already in the kit, and that the kit has room.
+     * If so, it sets the item's bit in the kit.
      *
      * @param item The item to be added to the kit.
      * @return true if the item is not in the kit and has been added.
      */
     private boolean addItem(String item) {
-        if (!hasItemInKit(item)) {
-            int idx = emptyPositionInKit();
-            kit[idx] = item;
-            return true;
+        int id = Items.itemId(item);
+        if (id < 0 || hasItem(id) || kitIsFull()) {
+            return false;
         }
-        return false;
+        kit |= Items.bit(id);
+        info = null;
+        return true;
     }
 
-
-
     /**
-     * Checks if the kit Array has the specified item.
+     * Checks if the kit has the specified item.
      *
      * @param item The search item
      * @return true if the item is found.
      */
     public boolean hasItemInKit(String item) {
-        for (String tmpItem : kit) {
-            if (item.equals(tmpItem)) {
-                // early return
-                return true;
-            }
-        }
-        return false;
+        int id = Items.itemId(item);
+        return id >= 0 && hasItem(id);
+    }
+
+    /**
+     * Checks if the kit has the item with the given id.
+     *
+     * @param itemId The id of the item, from Items.
+     * @return true if the item is found.
+     */
+    public boolean hasItem(int itemId) {
+        return (kit & Items.bit(itemId)) != 0;
     }
 
     /**
-     * Checks if the treasure Array has the specified item.
+     * Checks if the hunter has the specified treasure.
      *
      * @param treasure The search item
      * @return true if the treasure is found.
      */
     public boolean hasTreasure(String treasure) {
-        for (String t : treasures) {
-            if (treasure.equals(t)) {
-                // early return
-                return true;
-            }
-        }
-        return false;
+        int id = Items.treasureId(treasure);
+        return id >= 0 && (treasures & Items.bit(id)) != 0;
     }
 
      /**
@@ -179,58 +213,67 @@ public class Hunter {
      * @return The printable String representation of the inventory.
      */
     public String getInventory() {
-        String printableKit =Colors.PURPLE + "";
+        StringBuilder printableKit = new StringBuilder(Colors.PURPLE);
         String space = " ";
 
-        for (String item : kit) {
-            if (item != null) {
-                printableKit += item +"," + space;
+        for (int id = 0; id < Items.ITEM_COUNT; id++) {
+            if (hasItem(id)) {
+                printableKit.append(Items.itemName(id)).append(',').append(space);
             }
         }
-        printableKit +=Colors.RESET;
-        return printableKit;
+        printableKit.append(Colors.RESET);
+        return printableKit.toString();
     }
 
     /**
      * Returns a printable representation of the hunter's treasures, which
      * is a list of the items in treasures.
      *
-     * @return The printable String representation of the treasures Array.
+     * It is only rebuilt after a new treasure is found.
+     *
+     * @return The printable String representation of the treasures.
      */
     public String treasuresInfoString() {
-        String printableTreasures = "Treasures found: " + Colors.YELLOW + "";
+        if (treasuresInfo != null) {
+            return treasuresInfo;
+        }
+        if (treasures == 0) {
+            treasuresInfo = "Treasures found: none";
+            return treasuresInfo;
+        }
+        StringBuilder printableTreasures = new StringBuilder("Treasures found: ").append(Colors.YELLOW);
         String space = " ";
-        int items = 0;
-        for (String item : treasures) {
-            if (item != null) {
-                items++;
-                printableTreasures += "a " + item + "," + space;
+        for (int id = 0; id < Items.TREASURE_COUNT; id++) {
+            if ((treasures & Items.bit(id)) != 0) {
+                printableTreasures.append("a ").append(Items.treasureName(id)).append(',').append(space);
             }
         }
-        printableTreasures += Colors.RESET;
-
-        if (items == 0) {
-            return "Treasures found: none";
-        } else {
-            return printableTreasures;
-        }
+        printableTreasures.append(Colors.RESET);
+        treasuresInfo = printableTreasures.toString();
+        return treasuresInfo;
     }
 
     /**
-     *
+     * @return true once the hunter has the trophy, the crown and the gem.
      */
     public boolean allTreasuresCollected() {
-        return hasTreasure("trophy") && hasTreasure("crown") && hasTreasure("gem");
+        return treasures == Items.ALL_TREASURES;
     }
 
     /**
+     * The string is only rebuilt when the hunter's gold or kit has changed since the last call.
+     *
      * @return A string representation of the hunter.
      */
     public String infoString() {
+        if (info != null) {
+            return info;
+        }
         String str = hunterName + " has " +Colors.YELLOW + gold + " gold" +Colors.RESET;
         if (!kitIsEmpty()) {
             str += " and " + getInventory();
         }
+        info = str;
         return str;
     }
 
@@ -239,68 +282,44 @@ public class Hunter {
      * Should only be called when initiating test mode.
      */
     public void addTestKit() {
-        kit = new String[]{"water", "rope", "machete", "horse", "boat", "boots"};
-    }
-
-    /**
-     * Searches kit Array for the index of the specified value.
-     *
-     * @param item String to look for.
-     * @return The index of the item, or -1 if not found.
-     */
-    private int findItemInKit(String item) {
-        for (int i = 0; i < kit.length; i++) {
-            String tmpItem = kit[i];
-
-            if (item.equals(tmpItem)) {
-                return i;
-            }
-        }
-        return -1;
+        kit = Items.bit(Items.WATER) | Items.bit(Items.ROPE) | Items.bit(Items.MACHETE)
+                | Items.bit(Items.HORSE) | Items.bit(Items.BOAT) | Items.bit(Items.BOOTS);
+        info = null;
     }
 
     /**
-     * Check if the kit is empty - meaning all elements are null.
+     * Check if the kit is empty - meaning no bits are set.
      *
      * @return true if kit is completely empty.
      */
     private boolean kitIsEmpty() {
-        for (String string : kit) {
-            if (string != null) {
-                return false;
-            }
-        }
-        return true;
+        return kit == 0;
     }
 
     /**
-     * Finds the first index where there is a null value in kit.
+     * Check if the kit already holds KIT_SIZE items.
      *
-     * @return index of empty index, or -1 if not found.
+     * @return true if there is no room for another item.
      */
-    private int emptyPositionInKit() {
-        for (int i = 0; i < kit.length; i++) {
-            if (kit[i] == null) {
-                return i;
-            }
-        }
-        return -1;
+    private boolean kitIsFull() {
+        return Long.bitCount(kit) >= KIT_SIZE;
     }
+
     /**
-     * Finds the first index where there is a null value in treasures.
+     * Puts back the kit and treasures from a saved game. Used by GameSnapshot.
      *
-     * @return index of empty index, or -1 if not found.
+     * @param kit The kit bitmask.
+     * @param treasures The treasures bitmask.
      */
-    private int emptyPositionInTreasures() {
-        for (int i = 0; i < treasures.length; i++) {
-            if (treasures[i] == null) {
-                return i;
-            }
-        }
-        return -1;
+    void restoreKit(long kit, long treasures) {
+        this.kit = kit;
+        this.treasures = treasures;
+        info = null;
+        treasuresInfo = null;
     }
 
     public void setGold(int gold) {
         this.gold = gold;
+        info = null;
     }
 }
\ No newline at end of file
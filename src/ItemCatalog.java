@@ -0,0 +1,137 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The ItemCatalog class holds the price list every shop sells from.<p>
+ * It is read once, the first time it is needed, from the items.csv resource. Prices are kept in arrays
+ * indexed by the ids in Items, and the shop's price list is built into a String once per mode instead of on every visit.
+ */
+
+public final class ItemCatalog {
+    // constants
+    private static final String RESOURCE = "/items.csv";
+    private static final String[] RAINBOW = {Colors.RED, Colors.GREEN, Colors.YELLOW, Colors.BLUE, Colors.PURPLE};
+
+    // instance variables
+    private final int[] costs;
+    private final boolean[] secretOnly;
+    private final String regularInventory;
+    private final String secretInventory;
+
+    /**
+     * Loads the catalog when the class is first used; this is the "holder" idiom, so it happens exactly once.
+     */
+    private static class Holder {
+        static final ItemCatalog CATALOG = load();
+    }
+
+    private ItemCatalog(int[] costs, boolean[] secretOnly, String[] displayNames) {
+        this.costs = costs;
+        this.secretOnly = secretOnly;
+        regularInventory = buildInventory(displayNames, false);
+        secretInventory = buildInventory(displayNames, true);
+    }
+
+    /**
+     * @return The catalog, loading it first if this is the first call.
+     */
+    public static ItemCatalog get() {
+        return Holder.CATALOG;
+    }
+
+    /**
+     * @param itemId An id from Items.
+     * @return The full price of the item.
+     */
+    public int getCost(int itemId) {
+        return costs[itemId];
+    }
+
+    /**
+     * @param itemId An id from Items.
+     * @return true if only the secret mode shop sells the item.
+     */
+    public boolean isSecretOnly(int itemId) {
+        return secretOnly[itemId];
+    }
+
+    /**
+     * @param secretMode Whether the shop is a secret mode shop.
+     * @return The printable price list for that kind of shop.
+     */
+    public String inventory(boolean secretMode) {
+        if (secretMode) {
+            return secretInventory;
+        }
+        return regularInventory;
+    }
+
+    /**
+     * Builds the printable price list, one item per line.
+     */
+    private String buildInventory(String[] displayNames, boolean secretMode) {
+        StringBuilder str = new StringBuilder();
+        for (int id = 0; id < costs.length; id++) {
+            if (secretOnly[id] && !secretMode) {
+                continue;
+            }
+            if (secretOnly[id]) {
+                // secret items are shown in rainbow colors
+                String name = displayNames[id];
+                for (int i = 0; i < name.length(); i++) {
+                    str.append(RAINBOW[i % RAINBOW.length]).append(name.charAt(i));
+                }
+                str.append(Colors.RESET);
+            } else {
+                str.append(displayNames[id]);
+            }
+            str.append(": ").append(costs[id]).append(" gold\n");
+        }
+        return str.toString();
+    }
+
+    /**
+     * Reads items.csv. Blank lines and lines starting with # are skipped.
+     *
+     * @return The loaded catalog.
+     */
+    private static ItemCatalog load() {
+        int[] costs = new int[Items.ITEM_COUNT];
+        boolean[] secretOnly = new boolean[Items.ITEM_COUNT];
+        String[] displayNames = new String[Items.ITEM_COUNT];
+
+        InputStream in = ItemCatalog.class.getResourceAsStream(RESOURCE);
+        if (in == null) {
+            throw new IllegalStateException("Can't find " + RESOURCE + " on the classpath");
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                int id = Items.itemId(fields[0].trim());
+                if (fields.length != 4 || id < 0) {
+                    throw new IllegalStateException("Bad line in " + RESOURCE + ": " + line);
+                }
+                displayNames[id] = fields[1].trim();
+                costs[id] = Integer.parseInt(fields[2].trim());
+                secretOnly[id] = Boolean.parseBoolean(fields[3].trim());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't read " + RESOURCE, e);
+        }
+
+        for (int id = 0; id < Items.ITEM_COUNT; id++) {
+            if (displayNames[id] == null) {
+                throw new IllegalStateException(RESOURCE + " has no price for " + Items.itemName(id));
+            }
+        }
+        return new ItemCatalog(costs, secretOnly, displayNames);
+    }
+}
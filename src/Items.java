@@ -0,0 +1,97 @@
+/**
+ * The Items class gives every item sold in the shops, and every treasure, a small number (its id).<p>
+ * The Hunter keeps its kit and treasures as bitmasks built from these ids, so checking for, adding or removing
+ * an item is a single bit operation.
+ */
+
+public final class Items {
+    // item ids
+    public static final int WATER = 0;
+    public static final int ROPE = 1;
+    public static final int MACHETE = 2;
+    public static final int HORSE = 3;
+    public static final int BOAT = 4;
+    public static final int BOOTS = 5;
+    public static final int SHOVEL = 6;
+    public static final int SWORD = 7;
+    public static final int ITEM_COUNT = 8;
+
+    // treasure ids
+    public static final int CROWN = 0;
+    public static final int TROPHY = 1;
+    public static final int GEM = 2;
+    public static final int TREASURE_COUNT = 3;
+
+    /** The bitmask with every treasure in it. */
+    public static final long ALL_TREASURES = (1L << TREASURE_COUNT) - 1;
+
+    private static final String[] ITEM_NAMES = {"water", "rope", "machete", "horse", "boat", "boots", "shovel", "sword"};
+    private static final String[] TREASURE_NAMES = {"crown", "trophy", "gem"};
+
+    private Items() {
+    }
+
+    /**
+     * Looks up the id of an item.
+     *
+     * @param name The item's name, in lower case.
+     * @return The item's id, or -1 if no shop sells it.
+     */
+    public static int itemId(String name) {
+        switch (name) {
+            case "water":
+                return WATER;
+            case "rope":
+                return ROPE;
+            case "machete":
+                return MACHETE;
+            case "horse":
+                return HORSE;
+            case "boat":
+                return BOAT;
+            case "boots":
+                return BOOTS;
+            case "shovel":
+                return SHOVEL;
+            case "sword":
+                return SWORD;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Looks up the id of a treasure.
+     *
+     * @param name The treasure's name, in lower case.
+     * @return The treasure's id, or -1 if it isn't one of the three treasures (dust, for example).
+     */
+    public static int treasureId(String name) {
+        switch (name) {
+            case "crown":
+                return CROWN;
+            case "trophy":
+                return TROPHY;
+            case "gem":
+                return GEM;
+            default:
+                return -1;
+        }
+    }
+
+    public static String itemName(int id) {
+        return ITEM_NAMES[id];
+    }
+
+    public static String treasureName(int id) {
+        return TREASURE_NAMES[id];
+    }
+
+    /**
+     * @param id An item or treasure id.
+     * @return The bitmask with only that id in it.
+     */
+    public static long bit(int id) {
+        return 1L << id;
+    }
+}
@@ -0,0 +1,315 @@
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The LazyWorld class is a World of up to two billion towns that is never built: every town, and every road,
+ * is worked out from the world's seed and the town's number whenever it is needed, the same way every time.<p>
+ * Each town has roads to the towns numbered one below and one above it (so the ring reaches every town)
+ * and one more road to a partner town picked by a seeded permutation, so the world is small to cross
+ * and every road is still two-way without having to remember it.<p>
+ * Only towns whose state has changed (they have been searched or dug) are remembered, in an off-heap hash table
+ * of 8-byte slots. It is doubled whenever it gets half full, so it takes 16 to 32 bytes a changed town, and it stops
+ * growing at 1 GB: a world can remember at most MAX_CHANGED_TOWNS (about 67 million) changed towns.
+ * Recently visited towns are kept in a bounded LRU cache, so however far a hunter explores, the heap holds at most
+ * that many towns.
+ */
+
+public class LazyWorld implements World {
+    /**
+     * A town that has been worked out, with its roads.
+     */
+    private static class CachedTown {
+        private int state;
+        private final int[] targets;
+        private final byte[] terrains;
+
+        CachedTown(int state, int[] targets, byte[] terrains) {
+            this.state = state;
+            this.targets = targets;
+            this.terrains = terrains;
+        }
+    }
+
+    // constants
+    public static final int DEFAULT_CACHE_SIZE = 4096;
+    private static final int FEISTEL_ROUNDS = 4;
+    private static final long ROAD_SALT = 0x524f414453L; // "ROADS"
+    private static final int SLOT_SIZE = 8; // int town + 1 (0 = empty slot), int state
+    private static final int INITIAL_SLOTS = 1024;
+    private static final int MAX_SLOTS = 1 << 27; // the biggest power of two whose table a ByteBuffer can hold
+    public static final int MAX_CHANGED_TOWNS = MAX_SLOTS / 2;
+
+    // instance variables
+    private final int towns;
+    private final long seed;
+    private final double toughness;
+    private final int halfBits; // the permutation works on numbers of 2 * halfBits bits
+    private final long halfMask;
+    private final Map<Integer, CachedTown> cache;
+    private ByteBuffer changed; // the off-heap table of changed towns, with linear probing
+    private int changedSlots;
+    private int changedCount;
+    private long townsGenerated;
+
+    /**
+     * @param towns How many towns.
+     * @param seed The world's seed; the same seed gives the same world.
+     * @param difficulty The mode, for the chance of a town being tough.
+     * @param cacheSize How many towns to keep on the heap at most.
+     */
+    public LazyWorld(int towns, long seed, Difficulty difficulty, int cacheSize) {
+        if (towns < 2) {
+            throw new IllegalArgumentException("A world needs at least 2 towns");
+        }
+        this.towns = towns;
+        this.seed = seed;
+        toughness = difficulty.getToughness();
+        int bits = 64 - Long.numberOfLeadingZeros(towns - 1L);
+        halfBits = Math.max(1, (bits + 1) / 2);
+        halfMask = (1L << halfBits) - 1;
+        cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CachedTown> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        changedSlots = INITIAL_SLOTS;
+        changed = ByteBuffer.allocateDirect(changedSlots * SLOT_SIZE);
+        changedCount = 0;
+        townsGenerated = 0;
+    }
+
+    // accessors
+    public int getCachedTowns() {
+        return cache.size();
+    }
+
+    public int getChangedTowns() {
+        return changedCount;
+    }
+
+    public long getOffHeapBytes() {
+        return changed.capacity();
+    }
+
+    public long getTownsGenerated() {
+        return townsGenerated;
+    }
+
+    public int townCount() {
+        return towns;
+    }
+
+    public int roadCount(int town) {
+        return lookUp(town).targets.length;
+    }
+
+    public int roadTarget(int town, int road) {
+        return lookUp(town).targets[road];
+    }
+
+    public int roadTerrain(int town, int road) {
+        return lookUp(town).terrains[road];
+    }
+
+    public int townState(int town) {
+        return lookUp(town).state;
+    }
+
+    public void setTownState(int town, int state) {
+        CachedTown cached = lookUp(town);
+        if (cached.state != state) {
+            remember(town, state);
+            cached.state = state;
+        }
+    }
+
+    /**
+     * @return The town from the cache, or worked out (and cached) if it isn't there.
+     */
+    private CachedTown lookUp(int town) {
+        CachedTown cached = cache.get(town);
+        if (cached == null) {
+            cached = generate(town);
+            cache.put(town, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Works out a town and its roads from the seed, using its remembered state if it has changed.
+     */
+    private CachedTown generate(int town) {
+        townsGenerated++;
+        int state = recall(town);
+        if (state < 0) {
+            GameRandom random = GameRandom.forGame(seed, town);
+            int kind = random.nextInt(Terrain.KIND_COUNT);
+            boolean tough = random.nextDouble() < toughness;
+            int treasure = random.nextInt(Town.TREASURE_KINDS);
+            state = World.packTown(kind, tough, treasure, false, false);
+        }
+
+        int below = town == 0 ? towns - 1 : town - 1;
+        int above = town == towns - 1 ? 0 : town + 1;
+        int partner = partner(town);
+        int[] targets = partner < 0 ? new int[]{below, above} : new int[]{below, above, partner};
+        byte[] terrains = new byte[targets.length];
+        for (int road = 0; road < targets.length; road++) {
+            terrains[road] = roadTerrainBetween(town, targets[road]);
+        }
+        return new CachedTown(state, targets, terrains);
+    }
+
+    /**
+     * @return The terrain of the road between two towns; the same whichever end it is asked from.
+     */
+    private byte roadTerrainBetween(int a, int b) {
+        long low = Math.min(a, b);
+        long high = Math.max(a, b);
+        long hash = GameRandom.seedForGame(seed ^ ROAD_SALT, low * towns + high);
+        return (byte) Long.remainderUnsigned(hash, Terrain.KIND_COUNT);
+    }
+
+    /**
+     * Pairs every town with another: towns whose places in a seeded permutation differ only in the last bit
+     * are partners. The pairing is its own inverse, so the road is found from either end.
+     *
+     * @return The partner town, or -1 if this town's partner would be past the last town.
+     */
+    private int partner(int town) {
+        long place = permute(town) ^ 1;
+        if (place >= towns) {
+            return -1;
+        }
+        return (int) unpermute(place);
+    }
+
+    /**
+     * A Feistel network over 2 * halfBits bits, walked round until it lands inside the world.
+     */
+    private long permute(long x) {
+        do {
+            long left = x >>> halfBits;
+            long right = x & halfMask;
+            for (int round = 0; round < FEISTEL_ROUNDS; round++) {
+                long next = left ^ (GameRandom.seedForGame(seed + round, right) & halfMask);
+                left = right;
+                right = next;
+            }
+            x = (left << halfBits) | right;
+        } while (x >= towns);
+        return x;
+    }
+
+    private long unpermute(long y) {
+        do {
+            long left = y >>> halfBits;
+            long right = y & halfMask;
+            for (int round = FEISTEL_ROUNDS - 1; round >= 0; round--) {
+                long previous = right ^ (GameRandom.seedForGame(seed + round, left) & halfMask);
+                right = left;
+                left = previous;
+            }
+            y = (left << halfBits) | right;
+        } while (y >= towns);
+        return y;
+    }
+
+    /**
+     * @return The slot in the off-heap table where a town is, or where it would go.
+     */
+    private int findSlot(ByteBuffer table, int slots, int town) {
+        int slot = (int) (GameRandom.seedForGame(seed, ~town) & (slots - 1));
+        while (true) {
+            int key = table.getInt(slot * SLOT_SIZE);
+            if (key == 0 || key == town + 1) {
+                return slot;
+            }
+            slot = (slot + 1) & (slots - 1);
+        }
+    }
+
+    /**
+     * @return The remembered state of a changed town, or -1 if it hasn't changed.
+     */
+    private int recall(int town) {
+        int slot = findSlot(changed, changedSlots, town);
+        if (changed.getInt(slot * SLOT_SIZE) == 0) {
+            return -1;
+        }
+        return changed.getInt(slot * SLOT_SIZE + 4);
+    }
+
+    /**
+     * Remembers a changed town's state off the heap, doubling the table when it gets half full.
+     *
+     * @throws IllegalStateException If the town is new to the table and it already holds MAX_CHANGED_TOWNS.
+     */
+    private void remember(int town, int state) {
+        int slot = findSlot(changed, changedSlots, town);
+        if (changed.getInt(slot * SLOT_SIZE) == 0) {
+            if (changedCount == MAX_CHANGED_TOWNS) {
+                throw new IllegalStateException("A LazyWorld can't remember more than " + MAX_CHANGED_TOWNS + " changed towns");
+            }
+            changedCount++;
+        }
+        changed.putInt(slot * SLOT_SIZE, town + 1);
+        changed.putInt(slot * SLOT_SIZE + 4, state);
+        // with at most MAX_CHANGED_TOWNS, a table of MAX_SLOTS is never more than half full, so it never grows past it
+        if (changedCount * 2 > changedSlots) {
+            int biggerSlots = changedSlots * 2;
+            ByteBuffer bigger = ByteBuffer.allocateDirect(biggerSlots * SLOT_SIZE);
+            for (int old = 0; old < changedSlots; old++) {
+                int key = changed.getInt(old * SLOT_SIZE);
+                if (key != 0) {
+                    int newSlot = findSlot(bigger, biggerSlots, key - 1);
+                    bigger.putInt(newSlot * SLOT_SIZE, key);
+                    bigger.putInt(newSlot * SLOT_SIZE + 4, changed.getInt(old * SLOT_SIZE + 4));
+                }
+            }
+            changed = bigger;
+            changedSlots = biggerSlots;
+        }
+    }
+
+    /**
+     * Walks a hunter at random through a huge world, searching and digging as it goes, to show that
+     * memory stays flat. Usage: java LazyWorld [towns] [steps] [cache size]
+     */
+    public static void main(String[] args) {
+        int towns = 1_000_000_000;
+        long steps = 5_000_000;
+        int cacheSize = DEFAULT_CACHE_SIZE;
+        if (args.length > 0) {
+            towns = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            steps = Long.parseLong(args[1]);
+        }
+        if (args.length > 2) {
+            cacheSize = Integer.parseInt(args[2]);
+        }
+        LazyWorld world = new LazyWorld(towns, 42, Difficulty.NORMAL, cacheSize);
+        GameRandom random = new GameRandom(7);
+        Runtime runtime = Runtime.getRuntime();
+        int town = 0;
+        long start = System.nanoTime();
+        for (long step = 1; step <= steps; step++) {
+            if (random.nextInt(4) == 0) {
+                int state = world.townState(town) | World.SEARCHED_BIT;
+                world.setTownState(town, state);
+            }
+            town = world.roadTarget(town, random.nextInt(world.roadCount(town)));
+            if (step % (steps / 5) == 0) {
+                System.gc();
+                System.out.printf("%,d steps: %,d towns worked out, %,d cached, %,d changed (%,d bytes off-heap), %,d KB heap used%n",
+                        step, world.getTownsGenerated(), world.getCachedTowns(), world.getChangedTowns(),
+                        world.getOffHeapBytes(), (runtime.totalMemory() - runtime.freeMemory()) / 1024);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%.0f steps/sec%n", steps / seconds);
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The LoadGenerator class connects many simulated players to a GameServer at once and reports
+ * how many sessions per second it handled and how long commands took (median and 99th percentile).<p>
+ * A command's latency is the time from sending it to receiving the whole of the next turn. The server's ScreenRenderer
+ * ends every turn it sends with the same erase code, so that is what is waited for.<p>
+ * Usage: java LoadGenerator [host] [port] [players] [commands per player]
+ */
+
+public class LoadGenerator {
+    // constants
+    private static final byte[] FRAME_END = "\033[J".getBytes(StandardCharsets.US_ASCII);
+    private static final int OPENING_FRAMES = 3; // the welcome and name, the difficulty, and the first menu
+    private static final String[] COMMANDS = {"l", "h", "d", "e", "m"};
+
+    // instance variables
+    private String host;
+    private int port;
+    private int players;
+    private int commandsPerPlayer;
+    private long[] latencies;
+    private AtomicInteger latencyCount;
+    private AtomicLong failedSessions;
+
+    /**
+     * @param host The server's host.
+     * @param port The server's port.
+     * @param players How many players to connect.
+     * @param commandsPerPlayer How many commands each player sends before quitting.
+     */
+    public LoadGenerator(String host, int port, int players, int commandsPerPlayer) {
+        this.host = host;
+        this.port = port;
+        this.players = players;
+        this.commandsPerPlayer = commandsPerPlayer;
+        latencies = new long[players * (commandsPerPlayer + 1)];
+        latencyCount = new AtomicInteger();
+        failedSessions = new AtomicLong();
+    }
+
+    /**
+     * Plays one simulated player's session.
+     */
+    private void play(int player) {
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            out.write(("bot" + player + "\nn\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            if (!readFrames(in, OPENING_FRAMES)) {
+                failedSessions.incrementAndGet();
+                return;
+            }
+            for (int i = 0; i < commandsPerPlayer; i++) {
+                byte[] command = (COMMANDS[(player + i) % COMMANDS.length] + "\n").getBytes(StandardCharsets.US_ASCII);
+                long start = System.nanoTime();
+                out.write(command);
+                out.flush();
+                if (!readFrames(in, 1)) {
+                    // the game ended (won or went broke), which is fine
+                    return;
+                }
+                latencies[latencyCount.getAndIncrement()] = System.nanoTime() - start;
+            }
+            out.write("x\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        } catch (IOException e) {
+            failedSessions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Reads until the given number of turns have arrived.
+     *
+     * @return false if the connection closed first.
+     */
+    private static boolean readFrames(InputStream in, int frames) throws IOException {
+        byte[] buffer = new byte[8192];
+        int matched = 0;
+        while (true) {
+            int count = in.read(buffer);
+            if (count < 0) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                if (buffer[i] == FRAME_END[matched]) {
+                    matched++;
+                    if (matched == FRAME_END.length) {
+                        frames--;
+                        if (frames == 0) {
+                            return true;
+                        }
+                        matched = 0;
+                    }
+                } else {
+                    matched = buffer[i] == FRAME_END[0] ? 1 : 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs every player at once and prints the results.
+     */
+    public void run() throws InterruptedException {
+        ExecutorService executor = GameServer.newThreadPerTaskExecutor();
+        CountDownLatch done = new CountDownLatch(players);
+        long start = System.nanoTime();
+        for (int i = 0; i < players; i++) {
+            int player = i;
+            executor.execute(() -> {
+                try {
+                    play(player);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        long[] sorted = Arrays.copyOf(latencies, latencyCount.get());
+        Arrays.sort(sorted);
+        System.out.printf("%d sessions (%d failed) in %.2f seconds: %.0f sessions/sec%n",
+                players, failedSessions.get(), seconds, players / seconds);
+        if (sorted.length > 0) {
+            System.out.printf("%d commands: p50 %.3f ms, p99 %.3f ms, max %.3f ms%n", sorted.length,
+                    percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6, sorted[sorted.length - 1] / 1e6);
+        }
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String host = "localhost";
+        int port = GameServer.DEFAULT_PORT;
+        int players = 1000;
+        int commands = 20;
+        if (args.length > 0) {
+            host = args[0];
+        }
+        if (args.length > 1) {
+            port = Integer.parseInt(args[1]);
+        }
+        if (args.length > 2) {
+            players = Integer.parseInt(args[2]);
+        }
+        if (args.length > 3) {
+            commands = Integer.parseInt(args[3]);
+        }
+        new LoadGenerator(host, port, players, commands).run();
+    }
+}
@@ -0,0 +1,313 @@
+import java.util.EnumMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Market class gives the shops of a multi-player game real stock, shared by every hunter, and prices that follow it:
+ * the emptier the shelf the dearer an item gets, and the fuller it is the less the shop pays to buy one back.<p>
+ * Each item's stock is one counter changed with compare-and-set, and the price is worked out from the stock value
+ * the compare-and-set succeeded on, so a hunter always pays the price of the unit they actually got.
+ * There are no locks; the counters are spaced a cache line apart so hunters buying different items
+ * don't slow each other down. restock() moves every shelf back toward its usual level.<p>
+ * A Shop built with a Market sells through it (see openShops()).<p>
+ * Usage (the contention benchmark): java Market [threads] [seconds]
+ */
+
+public class Market {
+    // constants
+    public static final int DEFAULT_STOCK = 50;
+    public static final int SOLD_OUT = -1;
+    public static final int TOO_DEAR = -2;
+    public static final int NOT_WANTED = -3;
+    private static final int STRIDE = 16; // longs between two items' counters, 128 bytes, so each has its own cache line
+    private static final double ELASTICITY = 0.5; // an empty shelf is this much dearer than the list price, a full one this much cheaper
+
+    // instance variables
+    private final double markdown;
+    private final int[] listPrices; // indexed by item id; -1 if this market doesn't sell the item
+    private final int targetStock;
+    private final int capacity;
+    private final int restockStep;
+    private final AtomicLongArray stock; // item id * STRIDE
+    private final LongAdder retries;
+
+    /**
+     * Opens a market with every item at its usual stock level and list price.
+     *
+     * @param markdown Percentage of markdown for selling items in decimal format.
+     * @param secretMode true if this market also sells the secret items.
+     * @param targetStock How many of each item a shelf usually holds; shelves hold at most twice this.
+     */
+    public Market(double markdown, boolean secretMode, int targetStock) {
+        this.markdown = markdown;
+        this.targetStock = targetStock;
+        capacity = targetStock * 2;
+        restockStep = Math.max(1, targetStock / 10);
+        ItemCatalog catalog = ItemCatalog.get();
+        listPrices = new int[Items.ITEM_COUNT];
+        stock = new AtomicLongArray(Items.ITEM_COUNT * STRIDE);
+        for (int id = 0; id < Items.ITEM_COUNT; id++) {
+            if (catalog.isSecretOnly(id) && !secretMode) {
+                listPrices[id] = -1;
+            } else {
+                listPrices[id] = catalog.getCost(id);
+                stock.set(id * STRIDE, targetStock);
+            }
+        }
+        retries = new LongAdder();
+    }
+
+    /**
+     * Opens one market-backed Shop for every mode, for all the games on a server to share.
+     *
+     * @param targetStock How many of each item a shelf usually holds.
+     * @return The shops, by mode.
+     */
+    public static EnumMap<Difficulty, Shop> openShops(int targetStock) {
+        EnumMap<Difficulty, Shop> shops = new EnumMap<>(Difficulty.class);
+        for (Difficulty difficulty : Difficulty.values()) {
+            Market market = new Market(difficulty.getMarkdown(), difficulty.isSecret(), targetStock);
+            shops.put(difficulty, new Shop(difficulty.getMarkdown(), difficulty.isSecret(), market));
+        }
+        return shops;
+    }
+
+    // accessors
+    public int getStock(int itemId) {
+        return (int) stock.get(itemId * STRIDE);
+    }
+
+    /**
+     * @return How many times a compare-and-set lost to another hunter and had to be tried again.
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * @return What the next one of an item costs right now, or -1 if this market doesn't sell it.
+     */
+    public int getPrice(int itemId) {
+        if (listPrices[itemId] < 0) {
+            return -1;
+        }
+        return priceAt(itemId, getStock(itemId));
+    }
+
+    /**
+     * @return What the shop would pay for one of an item right now.
+     */
+    public int getBuyBackPrice(int itemId) {
+        return buyBackPriceAt(itemId, Math.min(getStock(itemId), capacity - 1));
+    }
+
+    /**
+     * Takes one of an item off the shelf, if there is one and it costs no more than the hunter can pay.
+     *
+     * @param itemId The item.
+     * @param maxPrice The most the hunter will pay.
+     * @return The price of the unit taken, or SOLD_OUT or TOO_DEAR.
+     */
+    public int take(int itemId, int maxPrice) {
+        int slot = itemId * STRIDE;
+        while (true) {
+            long onShelf = stock.get(slot);
+            if (onShelf <= 0) {
+                return SOLD_OUT;
+            }
+            int price = priceAt(itemId, onShelf);
+            if (price > maxPrice) {
+                return TOO_DEAR;
+            }
+            if (stock.compareAndSet(slot, onShelf, onShelf - 1)) {
+                return price;
+            }
+            retries.increment();
+        }
+    }
+
+    /**
+     * Puts back a unit that was taken but couldn't be handed over after all.
+     *
+     * @param itemId The item.
+     */
+    public void putBack(int itemId) {
+        stock.incrementAndGet(itemId * STRIDE);
+    }
+
+    /**
+     * Puts one of an item that a hunter is selling on the shelf, if there is room and the shop will pay something for it.
+     *
+     * @param itemId The item.
+     * @return The price paid, or NOT_WANTED.
+     */
+    public int give(int itemId) {
+        if (listPrices[itemId] < 0) {
+            return NOT_WANTED;
+        }
+        int slot = itemId * STRIDE;
+        while (true) {
+            long onShelf = stock.get(slot);
+            if (onShelf >= capacity) {
+                return NOT_WANTED;
+            }
+            int price = buyBackPriceAt(itemId, onShelf);
+            if (price <= 0) {
+                return NOT_WANTED;
+            }
+            if (stock.compareAndSet(slot, onShelf, onShelf + 1)) {
+                return price;
+            }
+            retries.increment();
+        }
+    }
+
+    /**
+     * Moves every shelf one step back toward its usual stock level, as if carts had come and gone.
+     */
+    public void restock() {
+        for (int id = 0; id < Items.ITEM_COUNT; id++) {
+            if (listPrices[id] < 0) {
+                continue;
+            }
+            int slot = id * STRIDE;
+            long onShelf;
+            long restocked;
+            do {
+                onShelf = stock.get(slot);
+                if (onShelf < targetStock) {
+                    restocked = Math.min(targetStock, onShelf + restockStep);
+                } else {
+                    restocked = Math.max(targetStock, onShelf - restockStep);
+                }
+            } while (onShelf != restocked && !stock.compareAndSet(slot, onShelf, restocked));
+        }
+    }
+
+    /**
+     * @return The price list, with what is on the shelves, one item per line.
+     */
+    public String inventory() {
+        StringBuilder str = new StringBuilder();
+        for (int id = 0; id < Items.ITEM_COUNT; id++) {
+            if (listPrices[id] < 0) {
+                continue;
+            }
+            str.append(Items.itemName(id)).append(": ").append(getPrice(id)).append(" gold (")
+                    .append(getStock(id)).append(" in stock)\n");
+        }
+        return str.toString();
+    }
+
+    /**
+     * @return The price with this many on the shelf: the list price when the shelf is at its usual level,
+     * more when it is emptier, less when it is fuller, and never below 1 gold (unless the item is free).
+     */
+    private int priceAt(int itemId, long onShelf) {
+        int listPrice = listPrices[itemId];
+        if (listPrice == 0) {
+            return 0;
+        }
+        double scarcity = (double) (targetStock - onShelf) / targetStock;
+        return Math.max(1, (int) Math.round(listPrice * (1 + ELASTICITY * scarcity)));
+    }
+
+    /**
+     * @return What the shop pays for one more when this many are on the shelf: the price of that unit, marked down.
+     */
+    private int buyBackPriceAt(int itemId, long onShelf) {
+        return (int) (priceAt(itemId, onShelf + 1) * markdown);
+    }
+
+    /**
+     * The same stock and prices behind one lock, to compare against.
+     */
+    private static class LockedMarket extends Market {
+        LockedMarket(double markdown, boolean secretMode, int targetStock) {
+            super(markdown, secretMode, targetStock);
+        }
+
+        @Override
+        public synchronized int take(int itemId, int maxPrice) {
+            return super.take(itemId, maxPrice);
+        }
+
+        @Override
+        public synchronized int give(int itemId) {
+            return super.give(itemId);
+        }
+    }
+
+    /**
+     * Many threads buy and sell at once, most of them the same popular item, first through one lock
+     * and then through the lock-free counters.
+     * Usage: java Market [threads] [seconds]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        double seconds = 2.0;
+        if (args.length > 0) {
+            threads = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            seconds = Double.parseDouble(args[1]);
+        }
+        System.out.printf("%d threads, %d cores%n", threads, Runtime.getRuntime().availableProcessors());
+        for (int round = 0; round < 2; round++) {
+            // the first round only warms up the JIT compiler
+            double roundSeconds = round == 0 ? seconds / 4 : seconds;
+            Market locked = new LockedMarket(0.5, false, DEFAULT_STOCK);
+            Market lockFree = new Market(0.5, false, DEFAULT_STOCK);
+            double lockedRate = hammer(locked, threads, roundSeconds);
+            double lockFreeRate = hammer(lockFree, threads, roundSeconds);
+            if (round > 0) {
+                System.out.printf("%-12s %,14.0f trades/sec%n", "one lock", lockedRate);
+                System.out.printf("%-12s %,14.0f trades/sec  %.2fx, %,d retries; %s", "lock-free", lockFreeRate,
+                        lockFreeRate / lockedRate, lockFree.getRetries(), lockFree.inventory());
+            }
+        }
+    }
+
+    /**
+     * @return How many buys and sells a second all the threads managed together.
+     */
+    private static double hammer(Market market, int threads, double seconds) throws InterruptedException {
+        LongAdder trades = new LongAdder();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        long end = System.nanoTime() + (long) (seconds * 1e9);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            GameRandom random = new GameRandom(t);
+            workers[t] = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long done = 0;
+                while ((done & 255) != 0 || System.nanoTime() < end) {
+                    // three quarters of the traffic is horses, the rest spread over everything
+                    int item = random.nextInt(4) == 0 ? random.nextInt(Items.SWORD) : Items.HORSE;
+                    if (random.nextInt(2) == 0) {
+                        market.take(item, Integer.MAX_VALUE);
+                    } else {
+                        market.give(item);
+                    }
+                    done++;
+                }
+                trades.add(done);
+            });
+            workers[t].start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return trades.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+}
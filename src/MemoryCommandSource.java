@@ -0,0 +1,24 @@
+/**
+ * A CommandSource that hands out lines already held in memory, for tests, bots and simulations.
+ */
+
+public class MemoryCommandSource implements CommandSource {
+    // instance variables
+    private String[] lines;
+    private int next;
+
+    /**
+     * @param lines The lines to hand out, in order.
+     */
+    public MemoryCommandSource(String... lines) {
+        this.lines = lines;
+        next = 0;
+    }
+
+    public String nextLine() {
+        if (next >= lines.length) {
+            return null;
+        }
+        return lines[next++];
+    }
+}
@@ -0,0 +1,83 @@
+import java.util.ArrayDeque;
+import java.util.regex.Pattern;
+
+/**
+ * A CommandSource that lets one line carry several menu commands, each with the answers to its questions.<p>
+ * Commands are separated by semicolons and a command's answers follow it after spaces, so
+ * "b rope y; m; h" buys a rope, moves on and hunts, with one read instead of five.
+ * A line without semicolons or spaces works exactly as it did before.<p>
+ * Answers a command doesn't use are dropped when the next command starts; a question with no answer left
+ * waits for a new line as usual. Everything else is read from the source this one wraps.
+ */
+
+public class PipelinedCommandSource implements CommandSource {
+    // constants
+    private static final Pattern COMMAND_SEPARATOR = Pattern.compile(";");
+    private static final Pattern ANSWER_SEPARATOR = Pattern.compile("\\s+");
+
+    // instance variables
+    private CommandSource source;
+    private ArrayDeque<String> commands; // the rest of the line's commands, each still with its answers
+    private ArrayDeque<String> answers; // the current command's answers that haven't been asked for yet
+
+    /**
+     * @param source Where whole lines are read from.
+     */
+    public PipelinedCommandSource(CommandSource source) {
+        this.source = source;
+        commands = new ArrayDeque<>();
+        answers = new ArrayDeque<>();
+    }
+
+    /**
+     * Reads the answer to a question: the current command's next answer, or else a whole new line.
+     *
+     * @return The answer, or null once there is no more input.
+     */
+    public String nextLine() {
+        if (!answers.isEmpty()) {
+            return answers.poll();
+        }
+        return source.nextLine();
+    }
+
+    /**
+     * Reads the next menu command, reading a new line only when the last one's commands have all been used.
+     *
+     * @return The command, without its answers, or null once there is no more input.
+     */
+    public String nextCommand() {
+        answers.clear();
+        if (commands.isEmpty()) {
+            String line = source.nextLine();
+            if (line == null) {
+                return null;
+            }
+            for (String command : COMMAND_SEPARATOR.split(line)) {
+                if (!command.isBlank()) {
+                    commands.add(command);
+                }
+            }
+            if (commands.isEmpty()) {
+                // a blank line is still a (bad) command
+                return "";
+            }
+        }
+        String[] words = ANSWER_SEPARATOR.split(commands.poll().strip());
+        for (int i = 1; i < words.length; i++) {
+            answers.add(words[i]);
+        }
+        return words[0];
+    }
+
+    public boolean hasQueuedInput() {
+        return !answers.isEmpty();
+    }
+
+    /**
+     * @return true if the line last read still has commands to run.
+     */
+    public boolean hasQueuedCommands() {
+        return !commands.isEmpty();
+    }
+}
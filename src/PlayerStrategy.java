@@ -0,0 +1,23 @@
+/**
+ * A PlayerStrategy plays the Treasure Hunter game in place of a person at the console.<p>
+ * The same strategy object may be used by many games on many threads at once, so implementations should not keep any state between calls.
+ */
+
+public interface PlayerStrategy {
+    /**
+     * Picks what to do this turn.
+     *
+     * @param game The game being played.
+     * @return The menu choice.
+     */
+    Action chooseAction(GameEngine game);
+
+    /**
+     * Picks which item to buy or sell after choosing Action.BUY or Action.SELL.
+     *
+     * @param game The game being played.
+     * @param action Either Action.BUY or Action.SELL.
+     * @return The name of the item, in lower case.
+     */
+    String chooseItem(GameEngine game, Action action);
+}
@@ -0,0 +1,501 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * The PolicySolver class works out the best possible way to play Treasure Hunter in each mode.<p>
+ * The game is small enough to treat as a Markov decision process: a state is the hunter's gold, kit and treasures
+ * plus the current town's terrain, toughness, hidden treasure and searched/dug flags, and the chances of every
+ * outcome come straight from the constants in Town. Value iteration, run in parallel over flat float arrays,
+ * finds a policy that wins about as often as any can; the policy is then evaluated, without any discount, to get
+ * its win rate and the expected number of turns a win takes.<p>
+ * The result is approximate. Value iteration discounts a win by DISCOUNT every turn. Without that, a turn that
+ * changes nothing (like a brawl a sword can't lose) would be worth as much as real progress, and the policy could
+ * take it forever. The discount also makes the solver favour quick wins, so the policy can give up a sliver of
+ * win chance to win sooner. The win rate
+ * printed is what that policy really achieves, so the best possible play wins at least that often.<p>
+ * Gold above the cap is treated as the cap, so results are exact only while more gold wouldn't change the best move.<p>
+ * Usage: java PolicySolver [difficulty e/n/h/s/test or all] [gold cap] [--export file]
+ */
+
+public class PolicySolver {
+    // actions, as stored in the policy table
+    public static final int MOVE = 0;
+    public static final int TROUBLE = 1;
+    public static final int HUNT = 2;
+    public static final int DIG = 3;
+    public static final int BUY = 4; // BUY + item id
+    public static final int SELL = BUY + Items.ITEM_COUNT; // SELL + item id
+    public static final int ACTION_COUNT = SELL + Items.ITEM_COUNT;
+
+    // constants
+    public static final int MAGIC = 0x5448504c; // "THPL"
+    public static final int DEFAULT_GOLD_CAP = 40; // enough to buy a boat with gold to spare
+    private static final double DISCOUNT = 0.999; // a win one turn later is worth this much, so idling is never best
+    private static final double TOLERANCE = 1e-6;
+    private static final int MAX_SWEEPS = 20_000;
+    private static final int WIN = (int) Items.ALL_TREASURES;
+    private static final int TREASURE_SETS = WIN; // every set of treasures short of all three
+    private static final int SEARCHED = Town.TREASURE_KINDS; // the town's treasure state once searched
+    private static final int TREASURE_STATES = Town.TREASURE_KINDS + 1;
+    private static final int TOWN_STATES = Town.TERRAIN_KINDS * 2 * TREASURE_STATES * 2;
+    // the parts of each town state, looked up rather than worked out with divisions in the inner loop
+    private static final int[] TOWN_TERRAIN = new int[TOWN_STATES];
+    private static final int[] TOWN_TOUGH = new int[TOWN_STATES];
+    private static final int[] TOWN_TREASURE = new int[TOWN_STATES];
+
+    static {
+        for (int town = 0; town < TOWN_STATES; town++) {
+            TOWN_TREASURE[town] = (town >> 1) % TREASURE_STATES;
+            TOWN_TOUGH[town] = (town >> 1) / TREASURE_STATES % 2;
+            TOWN_TERRAIN[town] = (town >> 1) / TREASURE_STATES / 2;
+        }
+    }
+
+    // instance variables
+    private Difficulty difficulty;
+    private int goldCap;
+    private int kitMasks;
+    private int[] buyCost;
+    private int[] sellPrice;
+    private int[] neededItem; // indexed by terrain kind
+    private double breakChance;
+    private float[] value;
+    private float[] next;
+    private float[] newTown;
+    private double[] goldSums; // running totals of the values over gold, for the brawl and dig sums
+    private int golds;
+    private byte[] policy;
+    private int sweeps;
+
+    /**
+     * Sets up the state space for one mode.
+     *
+     * @param difficulty The mode.
+     * @param goldCap The most gold the solver keeps track of.
+     */
+    public PolicySolver(Difficulty difficulty, int goldCap) {
+        this.difficulty = difficulty;
+        this.goldCap = goldCap;
+        golds = goldCap + 1;
+
+        Shop shop = difficulty.newTown(new GameRandom(0)).getShop();
+        buyCost = new int[Items.ITEM_COUNT];
+        sellPrice = new int[Items.ITEM_COUNT];
+        int itemsSold = 0;
+        for (int id = 0; id < Items.ITEM_COUNT; id++) {
+            buyCost[id] = shop.getCostOfItem(id);
+            sellPrice[id] = shop.getBuyBackCost(id);
+            if (buyCost[id] >= 0) {
+                itemsSold = id + 1;
+            }
+        }
+        // only items a shop sells can ever be in the kit
+        kitMasks = 1 << itemsSold;
+        neededItem = new int[Town.TERRAIN_KINDS];
+        for (int kind = 0; kind < Town.TERRAIN_KINDS; kind++) {
+            neededItem[kind] = Town.neededItemId(kind);
+        }
+        breakChance = difficulty.itemsDoNotBreak() ? 0.0 : Town.ITEM_BREAK_CHANCE;
+
+        int states = stateCount();
+        value = new float[states];
+        next = new float[states];
+        newTown = new float[kitMasks * TREASURE_SETS * golds];
+        goldSums = new double[states];
+        policy = new byte[states];
+    }
+
+    // accessors
+    public int stateCount() {
+        return kitMasks * TREASURE_SETS * TOWN_STATES * golds;
+    }
+
+    public int getSweeps() {
+        return sweeps;
+    }
+
+    public byte[] getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Gold varies fastest, so the runs of gold a brawl or a dig can lead to sit next to each other in memory.
+     *
+     * @return The index of a state in the value and policy arrays.
+     */
+    public int index(int gold, int kit, int treasures, int town) {
+        return ((kit * TREASURE_SETS + treasures) * TOWN_STATES + town) * golds + gold;
+    }
+
+    /**
+     * @param terrain The terrain kind.
+     * @param tough 1 for a tough town, else 0.
+     * @param treasure The hidden treasure (0 to 3, as in Town), or SEARCHED.
+     * @param dug 1 if the town has been dug, else 0.
+     * @return The town part of a state.
+     */
+    public static int town(int terrain, int tough, int treasure, int dug) {
+        return ((terrain * 2 + tough) * TREASURE_STATES + treasure) * 2 + dug;
+    }
+
+    /**
+     * Runs value iteration until the values stop changing.
+     */
+    public void solve() {
+        sweeps = 0;
+        double delta = 1;
+        while (delta > TOLERANCE && sweeps < MAX_SWEEPS) {
+            prepare(value);
+            delta = IntStream.range(0, kitMasks).parallel().mapToDouble(this::improve).max().orElse(0);
+            float[] swap = value;
+            value = next;
+            next = swap;
+            sweeps++;
+        }
+    }
+
+    /**
+     * One sweep of value iteration over every state with the given kit.
+     *
+     * @return The biggest change in value.
+     */
+    private double improve(int kit) {
+        int candidates = candidateActions(kit);
+        double delta = 0;
+        for (int treasures = 0; treasures < TREASURE_SETS; treasures++) {
+            for (int town = 0; town < TOWN_STATES; town++) {
+                int column = index(0, kit, treasures, town);
+                for (int gold = 0; gold < golds; gold++) {
+                    double best = -1;
+                    int bestAction = TROUBLE;
+                    for (int rest = candidates; rest != 0; rest &= rest - 1) {
+                        int action = Integer.numberOfTrailingZeros(rest);
+                        double q = expectedValue(action, gold, kit, treasures, town, value, 1);
+                        if (q > best) {
+                            best = q;
+                            bestAction = action;
+                        }
+                    }
+                    float updated = (float) (DISCOUNT * best);
+                    delta = Math.max(delta, Math.abs(updated - value[column + gold]));
+                    next[column + gold] = updated;
+                    policy[column + gold] = (byte) bestAction;
+                }
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * @return A bit for every action that could be allowed with this kit, so improve() needn't try the rest.
+     */
+    private int candidateActions(int kit) {
+        int candidates = (1 << MOVE) | (1 << TROUBLE) | (1 << HUNT) | (1 << DIG);
+        for (int item = 0; item < Items.ITEM_COUNT; item++) {
+            if ((kit & (1 << item)) == 0 && buyCost[item] >= 0) {
+                candidates |= 1 << (BUY + item);
+            } else if ((kit & (1 << item)) != 0 && sellPrice[item] > 0) {
+                candidates |= 1 << (SELL + item);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Follows the solved policy (with no discount) to find how likely it is to win from each state,
+     * then how many turns the wins take.
+     *
+     * @return {chance of winning, expected turns to win} from the start of a game.
+     */
+    public double[] evaluate() {
+        float[] winChance = evaluate(null);
+        float[] turns = evaluate(winChance);
+
+        int startGold = GameRules.of(difficulty).getStartingGold();
+        int startKit = 0;
+        if (difficulty == Difficulty.TEST) {
+            Hunter hunter = new Hunter("", startGold + 80);
+            hunter.addTestKit();
+            startGold = hunter.getGold();
+            startKit = (int) hunter.getKit();
+        }
+        startGold = Math.min(startGold, goldCap);
+        computeNewTown(winChance);
+        double win = newTown[arrival(startGold, startKit, 0)];
+        computeNewTown(turns);
+        double winTurns = newTown[arrival(startGold, startKit, 0)];
+        return new double[]{win, win > 0 ? winTurns / win : Double.NaN};
+    }
+
+    /**
+     * Iterates the policy's equations until they settle.<p>
+     * With winChance null this finds W, the chance of winning from each state.
+     * Given W it finds M = E[turns x (1 if won)], which satisfies M = W + (the expected M of the next state).
+     */
+    private float[] evaluate(float[] winChance) {
+        float[] current = new float[stateCount()];
+        float[] updated = new float[stateCount()];
+        double winValue = winChance == null ? 1 : 0;
+        double delta = 1;
+        for (int sweep = 0; sweep < MAX_SWEEPS && delta > TOLERANCE; sweep++) {
+            float[] from = current;
+            float[] to = updated;
+            prepare(from);
+            delta = IntStream.range(0, kitMasks).parallel().mapToDouble(kit -> {
+                double biggest = 0;
+                for (int treasures = 0; treasures < TREASURE_SETS; treasures++) {
+                    for (int town = 0; town < TOWN_STATES; town++) {
+                        int column = index(0, kit, treasures, town);
+                        for (int gold = 0; gold < golds; gold++) {
+                            int i = column + gold;
+                            double v = expectedValue(policy[i], gold, kit, treasures, town, from, winValue);
+                            if (winChance != null) {
+                                v += winChance[i];
+                            }
+                            // turns can run into the hundreds, so measure the change relative to the value
+                            biggest = Math.max(biggest, Math.abs(v - from[i]) / Math.max(1, v));
+                            to[i] = (float) v;
+                        }
+                    }
+                }
+                return biggest;
+            }).max().orElse(0);
+            current = to;
+            updated = from;
+        }
+        return current;
+    }
+
+    /**
+     * Works out everything a sweep needs from the values that doesn't depend on the action:
+     * the value of arriving in a new town, and the totals over gold.
+     */
+    private void prepare(float[] values) {
+        computeNewTown(values);
+        IntStream.range(0, kitMasks).parallel().forEach(kit -> {
+            int start = index(0, kit, 0, 0);
+            int end = index(0, kit + 1, 0, 0);
+            for (int column = start; column < end; column += golds) {
+                double sum = 0;
+                for (int i = column; i < column + golds; i++) {
+                    sum += values[i];
+                    goldSums[i] = sum;
+                }
+            }
+        });
+    }
+
+    /**
+     * Works out, for every gold, kit and treasure set, the average value of arriving in a brand new town.
+     */
+    private void computeNewTown(float[] values) {
+        double toughness = difficulty.getToughness();
+        double perTown = 1.0 / (Town.TERRAIN_KINDS * Town.TREASURE_KINDS);
+        IntStream.range(0, kitMasks).parallel().forEach(kit -> {
+            for (int treasures = 0; treasures < TREASURE_SETS; treasures++) {
+                for (int gold = 0; gold < golds; gold++) {
+                    double sum = 0;
+                    for (int terrain = 0; terrain < Town.TERRAIN_KINDS; terrain++) {
+                        for (int treasure = 0; treasure < Town.TREASURE_KINDS; treasure++) {
+                            sum += (1 - toughness) * values[index(gold, kit, treasures, town(terrain, 0, treasure, 0))];
+                            sum += toughness * values[index(gold, kit, treasures, town(terrain, 1, treasure, 0))];
+                        }
+                    }
+                    newTown[arrival(gold, kit, treasures)] = (float) (sum * perTown);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The index in newTown of arriving somewhere new with this gold, kit and treasure set.
+     */
+    private int arrival(int gold, int kit, int treasures) {
+        return (kit * TREASURE_SETS + treasures) * golds + gold;
+    }
+
+    /**
+     * The expected value of taking an action in a state, before discounting.
+     *
+     * @param winValue What winning the game is worth.
+     * @return The value, or -1 if the action isn't allowed (or does nothing) in this state.
+     */
+    private double expectedValue(int action, int gold, int kit, int treasures, int town, float[] values, double winValue) {
+        if (action == MOVE) {
+            int needed = neededItem[TOWN_TERRAIN[town]];
+            if ((kit & (1 << needed)) == 0) {
+                return -1;
+            }
+            double arrive = newTown[arrival(gold, kit, treasures)];
+            double arriveBroken = newTown[arrival(gold, kit & ~(1 << needed), treasures)];
+            return (1 - breakChance) * arrive + breakChance * arriveBroken;
+        } else if (action == TROUBLE) {
+            double noTrouble = TOWN_TOUGH[town] == 1 ? Town.TOUGH_NO_TROUBLE_CHANCE : Town.NO_TROUBLE_CHANCE;
+            boolean sword = (kit & (1 << Items.SWORD)) != 0;
+            int column = index(0, kit, treasures, town);
+            double brawls = goldAbove(values, gold, column, Town.MAX_BRAWL_GOLD);
+            if (!sword) {
+                // going below zero gold ends the game, which is worth nothing
+                brawls = (1 - noTrouble) * brawls + noTrouble * goldBelow(gold, column, Town.MAX_BRAWL_GOLD);
+            }
+            return (1 - noTrouble) * values[column + gold] + noTrouble * brawls / Town.MAX_BRAWL_GOLD;
+        } else if (action == HUNT) {
+            int treasure = TOWN_TREASURE[town];
+            if (treasure == SEARCHED) {
+                return -1;
+            }
+            int found = treasures;
+            if (treasure < Items.TREASURE_COUNT) {
+                found |= 1 << treasure;
+            }
+            return after(values, winValue, gold, kit, found, town(TOWN_TERRAIN[town], TOWN_TOUGH[town], SEARCHED, town & 1));
+        } else if (action == DIG) {
+            if ((kit & (1 << Items.SHOVEL)) == 0 || (town & 1) == 1) {
+                return -1;
+            }
+            int column = index(0, kit, treasures, town | 1);
+            double found = goldAbove(values, gold, column, Town.MAX_GOLD_DUG);
+            return (1 - Town.DIG_CHANCE) * values[column + gold]
+                    + Town.DIG_CHANCE * found / Town.MAX_GOLD_DUG;
+        } else if (action < SELL) {
+            int item = action - BUY;
+            int bit = 1 << item;
+            if (buyCost[item] < 0 || (kit & bit) != 0 || kit >= kitMasks) {
+                return -1;
+            }
+            if ((kit & (1 << Items.SWORD)) != 0) {
+                // the sword gets everything for free
+                return after(values, winValue, gold, kit | bit, treasures, town);
+            }
+            if (gold < buyCost[item]) {
+                return -1;
+            }
+            return after(values, winValue, gold - buyCost[item], kit | bit, treasures, town);
+        } else {
+            int item = action - SELL;
+            int bit = 1 << item;
+            if (sellPrice[item] <= 0 || (kit & bit) == 0) {
+                return -1;
+            }
+            return after(values, winValue, gold + sellPrice[item], kit & ~bit, treasures, town);
+        }
+    }
+
+    /**
+     * @return The total of the values for gold + 1 to gold + n, in one column (kit, treasures and town) of the table.
+     */
+    private double goldAbove(float[] values, int gold, int column, int n) {
+        int top = Math.min(gold + n, goldCap);
+        double sum = goldSums[column + top] - goldSums[column + gold];
+        // gold above the cap counts as the cap
+        return sum + (gold + n - top) * values[column + goldCap];
+    }
+
+    /**
+     * @return The total of the values for gold - 1 down to gold - n, leaving out negative gold.
+     */
+    private double goldBelow(int gold, int column, int n) {
+        if (gold == 0) {
+            return 0;
+        }
+        double sum = goldSums[column + gold - 1];
+        int bottom = gold - n - 1;
+        if (bottom >= 0) {
+            sum -= goldSums[column + bottom];
+        }
+        return sum;
+    }
+
+    /**
+     * The value of the state after an action, counting a win or going broke as the end of the game.
+     */
+    private double after(float[] values, double winValue, int gold, int kit, int treasures, int town) {
+        if (treasures == WIN) {
+            return winValue;
+        }
+        if (gold < 0) {
+            return 0;
+        }
+        return values[index(Math.min(gold, goldCap), kit, treasures, town)];
+    }
+
+    /**
+     * Writes the policy table to a file: a header (int magic "THPL", byte difficulty, int gold cap, int kit masks,
+     * int treasure sets, int town states) followed by one action byte per state, in index() order.
+     *
+     * @param file Where to write it.
+     * @throws IOException If the file can't be written.
+     */
+    public void exportPolicy(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(21);
+        header.putInt(MAGIC).put((byte) difficulty.ordinal()).putInt(goldCap).putInt(kitMasks)
+                .putInt(TREASURE_SETS).putInt(TOWN_STATES).flip();
+        ByteBuffer body = ByteBuffer.wrap(policy);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            while (body.hasRemaining()) {
+                channel.write(body);
+            }
+        }
+    }
+
+    /**
+     * @return A readable name for an action in the policy table.
+     */
+    public static String actionName(int action) {
+        if (action == MOVE) {
+            return "move";
+        } else if (action == TROUBLE) {
+            return "look for trouble";
+        } else if (action == HUNT) {
+            return "hunt";
+        } else if (action == DIG) {
+            return "dig";
+        } else if (action < SELL) {
+            return "buy " + Items.itemName(action - BUY);
+        }
+        return "sell " + Items.itemName(action - SELL);
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<Difficulty> modes = new ArrayList<>(List.of(Difficulty.EASY, Difficulty.NORMAL, Difficulty.HARD, Difficulty.SECRET));
+        int goldCap = DEFAULT_GOLD_CAP;
+        Path export = null;
+        int positional = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--export") && i + 1 < args.length) {
+                export = Path.of(args[++i]);
+            } else if (positional++ == 0) {
+                if (!args[i].equals("all")) {
+                    modes = List.of(Difficulty.fromChoice(args[i].toLowerCase()));
+                }
+            } else {
+                goldCap = Integer.parseInt(args[i]);
+            }
+        }
+
+        for (Difficulty mode : modes) {
+            long start = System.nanoTime();
+            PolicySolver solver = new PolicySolver(mode, goldCap);
+            solver.solve();
+            double[] result = solver.evaluate();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-7s %,d states, %d sweeps, %.1f s: the solved policy wins %.2f%% of games, %.1f turns per win%n",
+                    mode, solver.stateCount(), solver.getSweeps(), seconds, result[0] * 100, result[1]);
+            if (export != null) {
+                Path file = modes.size() == 1 ? export : Path.of(export + "." + mode.name().toLowerCase());
+                solver.exportPolicy(file);
+                System.out.println("        policy written to " + file);
+            }
+        }
+    }
+}
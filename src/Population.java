@@ -0,0 +1,372 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The Population class simulates millions of hunters at once, each playing its own game the way
+ * TreasureSeekerStrategy plays a GameEngine.<p>
+ * Instead of a Hunter and a Town object per player, every hunter is one slot in a set of parallel primitive arrays
+ * (18 bytes a hunter: a generator state, gold, kit and treasure bitmasks, the current town packed the way World packs it,
+ * the turn the game ended on and how it ended), so 10 million hunters fit in under 200 MB.<p>
+ * The hunters are played in chunks small enough to stay in cache, spread across all cores. Within a chunk,
+ * every turn first sorts the hunters still playing by what they will do, then applies the rules of
+ * Town.huntForTreasure(), digForGold(), leaveTown() and lookForTrouble() (and Hunter.buyItem()) to each batch in turn.<p>
+ * Hunter number i draws exactly the random numbers GameEngine game number i of a SimulationRunner batch would,
+ * so the two give the same results for the same master seed.<p>
+ * Usage: java Population [hunters] [difficulty e/n/h/s] [master seed]
+ */
+
+public class Population {
+    // constants
+    public static final int CHUNK_SIZE = 4096;
+    private static final int PLAYING = 0; // outcome of a game that hasn't ended; otherwise Outcome.ordinal() + 1
+    private static final GameEngine.Outcome[] OUTCOMES = GameEngine.Outcome.values();
+
+    // instance variables
+    private final Difficulty difficulty;
+    private final int startingGold;
+    private final Shop shop;
+    private final long masterSeed;
+    private final int turnLimit;
+    private final long[] randomState;
+    private final int[] gold;
+    private final byte[] kit;
+    private final byte[] treasures;
+    private final byte[] town;
+    private final short[] turns;
+    private final byte[] outcome;
+
+    /**
+     * Allocates a population; nothing is played until play() is called.
+     *
+     * @param size How many hunters.
+     * @param difficulty The mode every hunter plays.
+     * @param turnLimit The number of turns after which a game is stopped; at most Short.MAX_VALUE.
+     * @param masterSeed The seed every hunter's own seed is made from, as in SimulationRunner.
+     */
+    public Population(int size, Difficulty difficulty, int turnLimit, long masterSeed) {
+        if (turnLimit > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("The turn limit can be at most " + Short.MAX_VALUE);
+        }
+        this.difficulty = difficulty;
+        startingGold = GameRules.of(difficulty).getStartingGold();
+        this.turnLimit = turnLimit;
+        this.masterSeed = masterSeed;
+        shop = difficulty.getShop();
+        randomState = new long[size];
+        gold = new int[size];
+        kit = new byte[size];
+        treasures = new byte[size];
+        town = new byte[size];
+        turns = new short[size];
+        outcome = new byte[size];
+    }
+
+    // accessors
+    public int size() {
+        return gold.length;
+    }
+
+    public int getGold(int hunter) {
+        return gold[hunter];
+    }
+
+    /**
+     * @return The hunter's kit as a bitmask of item ids, like Hunter.getKit().
+     */
+    public long getKit(int hunter) {
+        return kit[hunter] & 0xFF;
+    }
+
+    /**
+     * @return The hunter's treasures as a bitmask of treasure ids, like Hunter.getTreasures().
+     */
+    public long getTreasures(int hunter) {
+        return treasures[hunter];
+    }
+
+    /**
+     * @return The hunter's current town, packed as World.packTown() packs it.
+     */
+    public int getTownState(int hunter) {
+        return town[hunter] & 0xFF;
+    }
+
+    public int getTurns(int hunter) {
+        return turns[hunter];
+    }
+
+    /**
+     * @return How the hunter's game ended, or null if it hasn't been played yet.
+     */
+    public GameEngine.Outcome getOutcome(int hunter) {
+        if (outcome[hunter] == PLAYING) {
+            return null;
+        }
+        return OUTCOMES[outcome[hunter] - 1];
+    }
+
+    /**
+     * Plays every hunter's game to the end across all cores.
+     *
+     * @return The combined totals, as SimulationRunner reports them.
+     */
+    public SimulationRunner.Totals play() {
+        return ForkJoinPool.commonPool().invoke(new ChunkTask(0, size()));
+    }
+
+    /**
+     * Splits a range of hunters in half until it is one chunk.
+     */
+    private class ChunkTask extends RecursiveTask<SimulationRunner.Totals> {
+        private static final long serialVersionUID = 1L;
+        private final int first;
+        private final int last;
+
+        ChunkTask(int first, int last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected SimulationRunner.Totals compute() {
+            if (last - first <= CHUNK_SIZE) {
+                return playChunk(first, last);
+            }
+            int middle = (first + last) >>> 1;
+            ChunkTask left = new ChunkTask(first, middle);
+            left.fork();
+            SimulationRunner.Totals totals = new ChunkTask(middle, last).compute();
+            totals.add(left.join());
+            return totals;
+        }
+    }
+
+    /**
+     * Plays one chunk of hunters turn by turn until every game in it has ended.
+     */
+    private SimulationRunner.Totals playChunk(int first, int last) {
+        SimulationRunner.Totals totals = new SimulationRunner.Totals();
+        int size = last - first;
+        int[] playing = new int[size];
+        int[] hunts = new int[size];
+        int[] digs = new int[size];
+        int[] moves = new int[size];
+        int[] troubles = new int[size];
+        int[] buys = new int[size];
+        byte[] buyItems = new byte[size];
+
+        for (int i = first; i < last; i++) {
+            start(i);
+            playing[i - first] = i;
+        }
+        int stillPlaying = size;
+        for (int turn = 0; stillPlaying > 0; turn++) {
+            int huntCount = 0;
+            int digCount = 0;
+            int moveCount = 0;
+            int troubleCount = 0;
+            int buyCount = 0;
+            int kept = 0;
+            for (int p = 0; p < stillPlaying; p++) {
+                int i = playing[p];
+                GameEngine.Outcome ended = checkEnded(i, turn);
+                if (ended != null) {
+                    outcome[i] = (byte) (ended.ordinal() + 1);
+                    turns[i] = (short) turn;
+                    totals.record(ended, turn);
+                    continue;
+                }
+                playing[kept++] = i;
+
+                // the same choices as TreasureSeekerStrategy
+                int state = town[i] & 0xFF;
+                int neededItem = Town.neededItemId(World.terrainOf(state));
+                if (!World.isSearched(state)) {
+                    hunts[huntCount++] = i;
+                } else if (hasItem(i, Items.SHOVEL) && !World.isDug(state)) {
+                    digs[digCount++] = i;
+                } else if (shop.getCostOfItem(Items.SWORD) >= 0 && !hasItem(i, Items.SWORD)) {
+                    buyItems[buyCount] = Items.SWORD;
+                    buys[buyCount++] = i;
+                } else if (!hasItem(i, Items.SHOVEL) && gold[i] >= TreasureSeekerStrategy.SHOVEL_BUDGET) {
+                    buyItems[buyCount] = Items.SHOVEL;
+                    buys[buyCount++] = i;
+                } else if (hasItem(i, neededItem)) {
+                    moves[moveCount++] = i;
+                } else if (gold[i] >= shop.getCostOfItem(neededItem)) {
+                    buyItems[buyCount] = (byte) neededItem;
+                    buys[buyCount++] = i;
+                } else {
+                    troubles[troubleCount++] = i;
+                }
+            }
+            stillPlaying = kept;
+
+            huntForTreasure(hunts, huntCount);
+            digForGold(digs, digCount);
+            buyItem(buys, buyItems, buyCount);
+            leaveTown(moves, moveCount);
+            lookForTrouble(troubles, troubleCount);
+        }
+        return totals;
+    }
+
+    /**
+     * Sets up a hunter and its first town, the way GameEngine.start() does.
+     */
+    private void start(int i) {
+        randomState[i] = GameRandom.seedForGame(masterSeed, i);
+        gold[i] = startingGold;
+        kit[i] = 0;
+        treasures[i] = 0;
+        if (difficulty == Difficulty.TEST) {
+            gold[i] += 80;
+            kit[i] = (byte) (Items.bit(Items.WATER) | Items.bit(Items.ROPE) | Items.bit(Items.MACHETE)
+                    | Items.bit(Items.HORSE) | Items.bit(Items.BOAT) | Items.bit(Items.BOOTS));
+        }
+        outcome[i] = PLAYING;
+        enterTown(i);
+    }
+
+    /**
+     * @return How the hunter's game ends before this turn, the way GameEngine.play() checks, or null if it goes on.
+     */
+    private GameEngine.Outcome checkEnded(int i, int turn) {
+        if (gold[i] < 0) {
+            return GameEngine.Outcome.BROKE;
+        }
+        if (treasures[i] == Items.ALL_TREASURES) {
+            return GameEngine.Outcome.WON;
+        }
+        if (turn >= turnLimit) {
+            return GameEngine.Outcome.TURN_LIMIT;
+        }
+        return null;
+    }
+
+    /**
+     * Draws a new town for a hunter, the way Town.reset() does.
+     */
+    private void enterTown(int i) {
+        int terrainKind = Town.terrainKindFor(GameRandom.nextDouble(randomState, i));
+        boolean tough = GameRandom.nextDouble(randomState, i) < difficulty.getToughness();
+        int treasure = (int) (GameRandom.nextDouble(randomState, i) * Town.TREASURE_KINDS);
+        town[i] = (byte) World.packTown(terrainKind, tough, treasure, false, false);
+    }
+
+    private boolean hasItem(int i, int itemId) {
+        return (kit[i] & Items.bit(itemId)) != 0;
+    }
+
+    /**
+     * Town.huntForTreasure() for a batch of hunters whose towns haven't been searched.
+     */
+    private void huntForTreasure(int[] hunters, int count) {
+        for (int h = 0; h < count; h++) {
+            int i = hunters[h];
+            int treasure = World.treasureOf(town[i] & 0xFF);
+            if (treasure < Items.TREASURE_COUNT) {
+                // dust isn't a treasure, and finding one twice adds nothing
+                treasures[i] |= (byte) Items.bit(treasure);
+            }
+            town[i] |= World.SEARCHED_BIT;
+        }
+    }
+
+    /**
+     * Town.digForGold() for a batch of hunters with shovels in towns that haven't been dug.
+     */
+    private void digForGold(int[] hunters, int count) {
+        for (int h = 0; h < count; h++) {
+            int i = hunters[h];
+            if (GameRandom.nextDouble(randomState, i) < Town.DIG_CHANCE) {
+                gold[i] += (int) (GameRandom.nextDouble(randomState, i) * Town.MAX_GOLD_DUG) + 1;
+            }
+            town[i] |= World.DUG_BIT;
+        }
+    }
+
+    /**
+     * Hunter.buyItem() at the mode's shop for a batch of hunters, each buying its own item.
+     */
+    private void buyItem(int[] hunters, byte[] items, int count) {
+        for (int h = 0; h < count; h++) {
+            int i = hunters[h];
+            int item = items[h];
+            int cost = shop.getCostOfItem(item);
+            if (cost < 0 || hasItem(i, item)) {
+                continue;
+            }
+            if (hasItem(i, Items.SWORD)) {
+                // shopkeepers don't argue with a sword, so the item is free
+                kit[i] |= (byte) Items.bit(item);
+            } else if (gold[i] >= cost) {
+                gold[i] -= cost;
+                kit[i] |= (byte) Items.bit(item);
+            }
+        }
+    }
+
+    /**
+     * Town.leaveTown() for a batch of hunters who have the item to cross their town's terrain,
+     * followed by arriving in the next town.
+     */
+    private void leaveTown(int[] hunters, int count) {
+        boolean itemsDoNotBreak = difficulty.itemsDoNotBreak();
+        for (int h = 0; h < count; h++) {
+            int i = hunters[h];
+            int neededItem = Town.neededItemId(World.terrainOf(town[i] & 0xFF));
+            if (GameRandom.nextDouble(randomState, i) < Town.ITEM_BREAK_CHANCE && !itemsDoNotBreak) {
+                kit[i] &= (byte) ~Items.bit(neededItem);
+            }
+            enterTown(i);
+        }
+    }
+
+    /**
+     * Town.lookForTrouble() for a batch of hunters.
+     */
+    private void lookForTrouble(int[] hunters, int count) {
+        for (int h = 0; h < count; h++) {
+            int i = hunters[h];
+            double noTroubleChance = World.isTough(town[i] & 0xFF) ? Town.TOUGH_NO_TROUBLE_CHANCE : Town.NO_TROUBLE_CHANCE;
+            if (GameRandom.nextDouble(randomState, i) > noTroubleChance) {
+                continue;
+            }
+            int goldDiff = (int) (GameRandom.nextDouble(randomState, i) * Town.MAX_BRAWL_GOLD) + 1;
+            if (hasItem(i, Items.SWORD) || GameRandom.nextDouble(randomState, i) > noTroubleChance) {
+                gold[i] += goldDiff;
+            } else {
+                gold[i] -= goldDiff;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int hunters = 10_000_000;
+        Difficulty difficulty = Difficulty.NORMAL;
+        long masterSeed = System.nanoTime();
+        if (args.length > 0) {
+            hunters = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            difficulty = Difficulty.fromChoice(args[1].toLowerCase());
+        }
+        if (args.length > 2) {
+            masterSeed = Long.parseLong(args[2]);
+        }
+
+        // one small warm-up population so the timing isn't mostly the JIT compiler
+        new Population(Math.min(hunters, 100_000), difficulty, GameEngine.DEFAULT_TURN_LIMIT, masterSeed + 1).play();
+
+        Population population = new Population(hunters, difficulty, GameEngine.DEFAULT_TURN_LIMIT, masterSeed);
+        long start = System.nanoTime();
+        SimulationRunner.Totals totals = population.play();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Runtime runtime = Runtime.getRuntime();
+        System.out.println(difficulty + " mode, master seed " + masterSeed + ", " + ForkJoinPool.commonPool().getParallelism() + " worker threads");
+        System.out.println(totals.infoString());
+        System.out.printf("%.2f seconds, %.0f hunters/sec, %d MB heap used%n", seconds, hunters / seconds,
+                (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024));
+    }
+}
@@ -0,0 +1,19 @@
+/**
+ * A PlayerStrategy that mashes the menu: every choice and every item is picked at random.<p>
+ * Useful as a worst case when checking how forgiving a difficulty is.
+ * It draws from the game's own GameRandom, so a replayed game makes the same choices.
+ */
+
+public class RandomStrategy implements PlayerStrategy {
+    // constants
+    private static final Action[] ACTIONS = {Action.BUY, Action.SELL, Action.MOVE, Action.TROUBLE, Action.HUNT, Action.DIG};
+    private static final String[] ITEMS = {"water", "rope", "machete", "horse", "boat", "boots", "shovel", "sword"};
+
+    public Action chooseAction(GameEngine game) {
+        return ACTIONS[game.getRandom().nextInt(ACTIONS.length)];
+    }
+
+    public String chooseItem(GameEngine game, Action action) {
+        return ITEMS[game.getRandom().nextInt(ITEMS.length)];
+    }
+}
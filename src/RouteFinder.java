@@ -0,0 +1,382 @@
+import java.util.Arrays;
+
+/**
+ * The RouteFinder class answers "what is the cheapest way from here to that town, with the kit I have?"<p>
+ * It runs Dijkstra's algorithm over (town, terrain items held) states: crossing a road whose item the hunter
+ * has costs nothing, and crossing one they don't have means buying its item first. Routes are ranked by the
+ * gold spent and then by the number of moves. Items are assumed not to break on the way; when one does,
+ * the kit changes and the next question is answered afresh.<p>
+ * One search serves every question with the same starting town and kit: it stops as soon as the town asked
+ * about is reached and picks up where it left off for the next one. Asking from another town or with another kit
+ * starts a new search, without clearing the old one's arrays, so the cache costs nothing to invalidate.<p>
+ * Usage (to time it on a big world): java RouteFinder [towns] [questions]
+ */
+
+public class RouteFinder {
+    // constants
+    private static final long GOLD = 1L << 32; // the cost of one gold, next to the cost of one move
+
+    /**
+     * A route found by the RouteFinder.
+     */
+    public static class Route {
+        private final int[] towns;
+        private final int[] roadTerrains;
+        private final int[] buys;
+        private final int gold;
+
+        Route(int[] towns, int[] roadTerrains, int[] buys, int gold) {
+            this.towns = towns;
+            this.roadTerrains = roadTerrains;
+            this.buys = buys;
+            this.gold = gold;
+        }
+
+        /**
+         * @return Every town on the route, starting with the town it starts from.
+         */
+        public int[] getTowns() {
+            return towns;
+        }
+
+        public int getMoves() {
+            return towns.length - 1;
+        }
+
+        public int getGold() {
+            return gold;
+        }
+
+        /**
+         * @param move From 0 to getMoves() - 1.
+         * @return The terrain kind whose item has to be bought before that move, or -1 if none.
+         */
+        public int getBuy(int move) {
+            return buys[move];
+        }
+
+        /**
+         * @param move From 0 to getMoves() - 1.
+         * @return The terrain kind that move crosses.
+         */
+        public int getRoadTerrain(int move) {
+            return roadTerrains[move];
+        }
+
+        /**
+         * @return A string representation of the route.
+         */
+        public String infoString() {
+            StringBuilder info = new StringBuilder();
+            info.append(getMoves()).append(" moves, ").append(gold).append(" gold: town ").append(towns[0]);
+            for (int move = 0; move < getMoves(); move++) {
+                info.append(" -> ");
+                if (buys[move] >= 0) {
+                    info.append("(buy ").append(Terrain.of(buys[move]).getNeededItem()).append(") ");
+                }
+                info.append(Terrain.of(roadTerrains[move]).getTerrainName()).append(" -> town ").append(towns[move + 1]);
+            }
+            return info.toString();
+        }
+    }
+
+    // instance variables
+    private World world;
+    private int[] prices; // the price of each terrain kind's item
+    private long searches;
+    private long answersFromCache;
+
+    // the search in progress
+    private int source;
+    private int kit;
+    private int missingKinds; // a bit for each terrain kind whose item isn't in the kit
+    private int masks; // how many subsets of missingKinds there are
+    private int[] compress; // a set of bought kinds -> its number among the subsets
+    private int[] expand; // and back again
+    private long[] cost; // indexed by state = town * masks + subset number
+    private int[] previous;
+    private int[] stamp; // cost and previous are only valid where stamp == generation
+    private int[] townStamp;
+    private int[] townBest; // the first state of each town settled; valid where townStamp == generation
+    private int generation;
+    private long[] heapCost;
+    private int[] heapState;
+    private int heapSize;
+
+    /**
+     * @param world The world to find routes in.
+     * @param shop Where the items are bought, for their prices.
+     */
+    public RouteFinder(World world, Shop shop) {
+        this.world = world;
+        prices = new int[Terrain.KIND_COUNT];
+        for (int kind = 0; kind < Terrain.KIND_COUNT; kind++) {
+            prices[kind] = shop.getCostOfItem(Town.neededItemId(kind));
+        }
+        source = -1;
+        kit = -1;
+        compress = new int[1 << Terrain.KIND_COUNT];
+        expand = new int[1 << Terrain.KIND_COUNT];
+        cost = new long[0];
+        previous = new int[0];
+        stamp = new int[0];
+        townStamp = new int[world.townCount()];
+        townBest = new int[world.townCount()];
+        generation = 0;
+        heapCost = new long[64];
+        heapState = new int[64];
+        heapSize = 0;
+    }
+
+    /**
+     * @param hunter A hunter.
+     * @return A bit for each terrain kind whose item is in the hunter's kit.
+     */
+    public static int terrainKit(Hunter hunter) {
+        int mask = 0;
+        for (int kind = 0; kind < Terrain.KIND_COUNT; kind++) {
+            if (hunter.hasItem(Town.neededItemId(kind))) {
+                mask |= 1 << kind;
+            }
+        }
+        return mask;
+    }
+
+    // accessors
+    public long getSearches() {
+        return searches;
+    }
+
+    public long getAnswersFromCache() {
+        return answersFromCache;
+    }
+
+    /**
+     * Finds the cheapest route between two towns.
+     *
+     * @param from The town to start from.
+     * @param to The town to get to.
+     * @param kitMask The terrain items the hunter has, from terrainKit().
+     * @return The route, or null if there is none.
+     */
+    public Route find(int from, int to, int kitMask) {
+        if (from != source || kitMask != kit) {
+            startSearch(from, kitMask);
+        } else if (townStamp[to] == generation) {
+            answersFromCache++;
+        }
+        while (townStamp[to] != generation && heapSize > 0) {
+            settleNext();
+        }
+        if (townStamp[to] != generation) {
+            return null;
+        }
+        return buildRoute(townBest[to]);
+    }
+
+    /**
+     * Forgets the search in progress and starts a new one.
+     */
+    private void startSearch(int from, int kitMask) {
+        searches++;
+        source = from;
+        kit = kitMask;
+        missingKinds = ~kitMask & ((1 << Terrain.KIND_COUNT) - 1);
+        masks = 0;
+        for (int subset = 0; subset < compress.length; subset++) {
+            if ((subset & ~missingKinds) == 0) {
+                compress[subset] = masks;
+                expand[masks] = subset;
+                masks++;
+            }
+        }
+        long states = (long) world.townCount() * masks;
+        if (states > cost.length) {
+            cost = new long[(int) states];
+            previous = new int[(int) states];
+            stamp = new int[(int) states];
+        }
+        generation++;
+        if (generation == 0) {
+            // after four billion searches the stamps wrap around, so clear them once
+            Arrays.fill(stamp, 0);
+            Arrays.fill(townStamp, 0);
+            generation = 1;
+        }
+        heapSize = 0;
+        int start = from * masks;
+        cost[start] = 0;
+        previous[start] = -1;
+        stamp[start] = generation;
+        push(0, start);
+    }
+
+    /**
+     * Takes the cheapest state off the heap and relaxes its roads.
+     */
+    private void settleNext() {
+        long here = heapCost[0];
+        int state = heapState[0];
+        pop();
+        if (here != cost[state]) {
+            return; // a cheaper way here was already settled
+        }
+        int town = state / masks;
+        int bought = expand[state % masks];
+        if (townStamp[town] != generation) {
+            townStamp[town] = generation;
+            townBest[town] = state;
+        }
+        int roads = world.roadCount(town);
+        for (int road = 0; road < roads; road++) {
+            int kind = world.roadTerrain(town, road);
+            int next = world.roadTarget(town, road);
+            int nextBought = bought;
+            long step = 1;
+            if ((missingKinds & (1 << kind)) != 0 && (bought & (1 << kind)) == 0) {
+                nextBought |= 1 << kind;
+                step += prices[kind] * GOLD;
+            }
+            int nextState = next * masks + compress[nextBought];
+            long nextCost = here + step;
+            if (stamp[nextState] != generation || nextCost < cost[nextState]) {
+                stamp[nextState] = generation;
+                cost[nextState] = nextCost;
+                previous[nextState] = state;
+                push(nextCost, nextState);
+            }
+        }
+    }
+
+    /**
+     * Walks back from a settled state to the start.
+     */
+    private Route buildRoute(int end) {
+        int moves = 0;
+        for (int state = end; previous[state] >= 0; state = previous[state]) {
+            moves++;
+        }
+        int[] towns = new int[moves + 1];
+        int[] roadTerrains = new int[moves];
+        int[] buys = new int[moves];
+        int state = end;
+        for (int move = moves - 1; move >= 0; move--) {
+            int before = previous[state];
+            int town = state / masks;
+            int fromTown = before / masks;
+            towns[move + 1] = town;
+            int newlyBought = expand[state % masks] & ~expand[before % masks];
+            buys[move] = newlyBought == 0 ? -1 : Integer.numberOfTrailingZeros(newlyBought);
+            roadTerrains[move] = roadTaken(fromTown, town, buys[move], kit | expand[before % masks]);
+            state = before;
+        }
+        towns[0] = source;
+        return new Route(towns, roadTerrains, buys, (int) (cost[end] / GOLD));
+    }
+
+    /**
+     * @param bought The terrain kind whose item was bought for the move, or -1.
+     * @param held The terrain kinds whose items were held before the move.
+     * @return The terrain of a road between two towns that the route could have taken.
+     */
+    private int roadTaken(int from, int to, int bought, int held) {
+        int fallback = -1;
+        for (int road = 0; road < world.roadCount(from); road++) {
+            if (world.roadTarget(from, road) == to) {
+                int kind = world.roadTerrain(from, road);
+                if (kind == bought || bought < 0 && (held & (1 << kind)) != 0) {
+                    return kind;
+                }
+                fallback = kind;
+            }
+        }
+        return fallback;
+    }
+
+    public static void main(String[] args) {
+        int towns = 100_000;
+        int questions = 1000;
+        if (args.length > 0) {
+            towns = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            questions = Integer.parseInt(args[1]);
+        }
+        GameRandom random = new GameRandom(42);
+        long start = System.nanoTime();
+        World world = new WorldMap(towns, 1, Difficulty.NORMAL, random);
+        System.out.printf("built a world of %,d towns in %.2f s%n", towns, (System.nanoTime() - start) / 1e9);
+
+        RouteFinder finder = new RouteFinder(world, Difficulty.NORMAL.getShop());
+        int[] kits = {0, 0b000011, 0b101010, 0b111111};
+        for (int kitMask : kits) {
+            // many questions from the same town and kit, as a player planning from one town asks
+            int from = random.nextInt(towns);
+            long moves = 0;
+            long gold = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < questions; i++) {
+                Route route = finder.find(from, random.nextInt(towns), kitMask);
+                moves += route.getMoves();
+                gold += route.getGold();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("kit %6s: %,d routes in %.3f s (%.1f us each), %.1f moves and %.1f gold on average%n",
+                    Integer.toBinaryString(kitMask), questions, seconds, seconds * 1e6 / questions,
+                    (double) moves / questions, (double) gold / questions);
+        }
+        // and a new search for every question, as when the hunter moves between questions
+        start = System.nanoTime();
+        int fresh = Math.max(1, questions / 100);
+        for (int i = 0; i < fresh; i++) {
+            finder.find(random.nextInt(towns), random.nextInt(towns), i & 0b111111);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d fresh searches: %.1f ms each; %d searches, %d answers straight from the cache%n",
+                fresh, seconds * 1e3 / fresh, finder.getSearches(), finder.getAnswersFromCache());
+    }
+
+    // a binary min-heap of (cost, state) pairs, kept in two arrays so it never allocates per entry
+    private void push(long key, int state) {
+        if (heapSize == heapCost.length) {
+            heapCost = Arrays.copyOf(heapCost, heapSize * 2);
+            heapState = Arrays.copyOf(heapState, heapSize * 2);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapCost[parent] <= key) {
+                break;
+            }
+            heapCost[i] = heapCost[parent];
+            heapState[i] = heapState[parent];
+            i = parent;
+        }
+        heapCost[i] = key;
+        heapState[i] = state;
+    }
+
+    private void pop() {
+        heapSize--;
+        long key = heapCost[heapSize];
+        int state = heapState[heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heapCost[child + 1] < heapCost[child]) {
+                child++;
+            }
+            if (heapCost[child] >= key) {
+                break;
+            }
+            heapCost[i] = heapCost[child];
+            heapState[i] = heapState[child];
+            i = child;
+        }
+        heapCost[i] = key;
+        heapState[i] = state;
+    }
+}
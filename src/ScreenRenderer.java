@@ -0,0 +1,557 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * The ScreenRenderer class is a TurnRenderer for players on slow remote terminals.<p>
+ * In screen mode it keeps a model of what is on the terminal. Each new screen (the news, status and menu, see
+ * TurnRenderer.startScreen()) is drawn in place from the top instead of below the last one, sending only the lines
+ * that changed (with cursor movement to reach them, and only the part of each that differs) and erasing whatever is
+ * left below. When the news is longer or
+ * shorter than last turn's, lines are inserted or deleted at the top first so the menu below it stays where it is. The rest of a conversation,
+ * like a shop's questions, carries on below the player's answer as usual. Color codes are worked out again from
+ * the colors the text actually needs, so a run of text in one color gets one code however many the game printed,
+ * and nothing is sent for a color the terminal is already in.<p>
+ * Whatever the player types is echoed by their terminal after the prompt, so only the prompt itself is assumed to be
+ * still there; the answer is erased along with everything below the new screen.
+ * A frame that runs past the bottom of the terminal (scrolling it) or has a line as wide as the terminal (wrapping it)
+ * leaves the screen unknown, and the next screen is drawn whole after clearing it. The terminal's size comes from
+ * whoever creates the renderer, and can change while it runs (see setSize()).<p>
+ * In plain mode, for output that isn't a terminal, every escape code is left out.
+ */
+
+public class ScreenRenderer extends TurnRenderer {
+    // constants
+    public static final int DEFAULT_ROWS = 24;
+    public static final int DEFAULT_COLUMNS = 80;
+    private static final byte ESC = 0x1b;
+    private static final int BOLD = 0x10; // styles are a foreground color (0 for the default, 1 to 8 for 30 to 37) and this
+    private static final byte[] HOME = encode("\033[H");
+    private static final byte[] CLEAR = encode("\033[2J");
+    private static final byte[] ERASE_LINE = encode("\033[K");
+    private static final byte[] ERASE_BELOW = encode("\033[J");
+    private static final byte[] NEXT_LINE = encode("\r\n");
+    private static final int MIN_SKIP = 8; // columns a line must share with the one on the terminal to be drawn from the middle
+
+    // instance variables
+    private final boolean plain;
+    private int rows;
+    private int columns;
+    private byte[][] screen; // each row's line, as parse() makes it; null where the row's contents aren't known
+    private boolean screenKnown; // false until the first screen is drawn and after the text scrolls or wraps
+    private int promptRow; // the row the last frame ended on, where the player types their answer
+    private byte[] prompt; // that row's line, before the player's answer; null when it isn't known
+    private boolean newScreen;
+    private byte[] line; // the line being parsed
+    private int lineLength;
+    private int terminalStyle;
+    private byte[] output; // what this frame sends
+    private int outputLength;
+    private long bytesIn;
+    private long bytesOut;
+
+    /**
+     * @param out Where each turn is written when flushed.
+     * @param plain true to leave out every escape code (for output that isn't a terminal),
+     *              false to redraw the screen in place.
+     * @param rows How many rows the terminal has.
+     * @param columns How many columns the terminal has.
+     */
+    public ScreenRenderer(OutputStream out, boolean plain, int rows, int columns) {
+        super(out);
+        this.plain = plain;
+        this.rows = rows;
+        this.columns = columns;
+        screen = new byte[rows][];
+        screenKnown = false;
+        promptRow = 0;
+        newScreen = false;
+        line = new byte[256];
+        terminalStyle = 0;
+        output = new byte[4096];
+    }
+
+    // accessors
+    public boolean isPlain() {
+        return plain;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Tells the renderer the terminal has been resized. Nothing on it can be trusted to be where it was,
+     * so the next screen is drawn whole.
+     *
+     * @param rows How many rows the terminal has now.
+     * @param columns How many columns the terminal has now.
+     */
+    public void setSize(int rows, int columns) {
+        if (rows == this.rows && columns == this.columns) {
+            return;
+        }
+        this.rows = rows;
+        this.columns = columns;
+        screen = new byte[rows][];
+        screenKnown = false;
+    }
+
+    /**
+     * @return How many bytes the game has printed.
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * @return How many bytes were actually sent to the terminal.
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    @Override
+    public void startScreen() {
+        newScreen = true;
+    }
+
+    @Override
+    protected void writeFrame(OutputStream out, byte[] frame, int length) throws IOException {
+        bytesIn += length;
+        outputLength = 0;
+        byte[][] lines = parse(frame, length);
+        if (plain) {
+            for (int i = 0; i < lines.length; i++) {
+                if (i > 0) {
+                    append((byte) '\n');
+                }
+                appendText(lines[i], false);
+            }
+        } else if (newScreen && screenKnown && fits(lines, lines.length)) {
+            drawChanged(lines);
+        } else if (newScreen || !screenKnown) {
+            draw(lines, 0, true);
+        } else {
+            draw(lines, promptRow + 1, false);
+        }
+        newScreen = false;
+        out.write(output, 0, outputLength);
+        bytesOut += outputLength;
+    }
+
+    /**
+     * Draws every line, starting either at the top of a cleared screen or on the row below the player's last answer,
+     * where their terminal left the cursor.
+     */
+    private void draw(byte[][] lines, int firstRow, boolean clear) {
+        if (clear) {
+            append(HOME);
+            append(CLEAR);
+        }
+        for (int i = 0; i < lines.length; i++) {
+            if (i > 0) {
+                append(ERASE_LINE);
+                append(NEXT_LINE);
+            }
+            appendText(lines[i], true);
+        }
+        finishFrame();
+        append(ERASE_BELOW);
+        screenKnown = fits(lines, firstRow + lines.length);
+        if (screenKnown) {
+            for (int i = 0; i < lines.length; i++) {
+                screen[firstRow + i] = lines[i];
+            }
+            endFrame(firstRow + lines.length - 1);
+        }
+    }
+
+    /**
+     * @return Whether a frame's lines can be drawn without scrolling or wrapping the terminal, if the last of them
+     * lands on row bottom - 1. The row after that has to be on the screen too, for the player's answer, and no line
+     * may fill a whole row, since many terminals wrap as soon as the last column is written.
+     */
+    private boolean fits(byte[][] lines, int bottom) {
+        if (bottom >= rows) {
+            return false;
+        }
+        for (byte[] text : lines) {
+            if (columnAt(text, text.length) >= columns) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Draws only the lines of a new screen that differ from what is on the terminal. The last line (usually the prompt)
+     * is always drawn last, so the cursor ends up after it, and everything below it is erased.
+     */
+    private void drawChanged(byte[][] lines) {
+        int last = lines.length - 1;
+        int shift = last - promptRow;
+        boolean promptInPlace = shift == 0;
+        if (shift != 0 && rowsUnchanged(lines, shift) > rowsUnchanged(lines, 0)) {
+            scroll(shift);
+            promptInPlace = true;
+        }
+        int cursorRow = -1; // the row whose end the cursor is at, or -1 if it's somewhere else
+        for (int row = 0; row < last; row++) {
+            if (Arrays.equals(lines[row], screen[row])) {
+                continue;
+            }
+            byte[] text = lines[row];
+            int from = samePrefix(text, screen[row]);
+            int to = sameSuffix(text, screen[row], from);
+            int column = columnAt(text, from);
+            if (to < text.length) {
+                // the same length, with only some plain characters in the middle changed: overwrite just those
+                moveTo(row, column, -1);
+                int style = styleAt(text, from);
+                if (style != terminalStyle) {
+                    appendStyle(style);
+                }
+                for (int i = from; i < to; i++) {
+                    append(text[i]);
+                }
+                cursorRow = -1;
+            } else {
+                if (column >= MIN_SKIP) {
+                    moveTo(row, column, cursorRow);
+                    appendText(text, from, styleAt(text, from), true);
+                } else {
+                    moveTo(row, 0, cursorRow);
+                    appendText(text, true);
+                }
+                append(ERASE_LINE);
+                cursorRow = row;
+            }
+            screen[row] = text;
+        }
+        int from = promptInPlace ? samePrefix(lines[last], prompt) : 1;
+        moveTo(last, columnAt(lines[last], from), cursorRow);
+        appendText(lines[last], from, styleAt(lines[last], from), true);
+        finishFrame();
+        append(ERASE_BELOW);
+        screen[last] = lines[last];
+        endFrame(last);
+    }
+
+    /**
+     * @return How many of a new screen's lines (not counting the last) are already on the terminal
+     * if what is there is moved down by shift rows (up, if negative).
+     */
+    private int rowsUnchanged(byte[][] lines, int shift) {
+        int unchanged = 0;
+        for (int row = Math.max(0, shift); row < lines.length - 1 && row - shift < rows; row++) {
+            if (Arrays.equals(lines[row], screen[row - shift])) {
+                unchanged++;
+            }
+        }
+        return unchanged;
+    }
+
+    /**
+     * Moves everything on the terminal down by shift rows (up, if negative) by inserting (or deleting) lines at the top.
+     */
+    private void scroll(int shift) {
+        int count = Math.abs(shift);
+        append(HOME);
+        append(ESC);
+        append((byte) '[');
+        appendNumber(count);
+        append((byte) (shift > 0 ? 'L' : 'M'));
+        if (shift > 0) {
+            System.arraycopy(screen, 0, screen, count, rows - count);
+            Arrays.fill(screen, 0, count, null);
+        } else {
+            System.arraycopy(screen, count, screen, 0, rows - count);
+            Arrays.fill(screen, rows - count, rows, null);
+        }
+    }
+
+    /**
+     * Records that the frame ended on the given row: the player's typing will change it, and everything below is blank.
+     */
+    private void endFrame(int row) {
+        promptRow = row;
+        prompt = screen[row];
+        for (int i = row; i < rows; i++) {
+            screen[i] = null;
+        }
+    }
+
+    /**
+     * Moves the cursor to a row and column; to the start of the next row that is just a new line.
+     */
+    private void moveTo(int row, int column, int cursorRow) {
+        if (column == 0 && row == cursorRow + 1 && cursorRow >= 0) {
+            append(NEXT_LINE);
+        } else if (column == 0 && row == 0) {
+            append(HOME);
+        } else {
+            append(ESC);
+            append((byte) '[');
+            appendNumber(row + 1);
+            if (column > 0) {
+                append((byte) ';');
+                appendNumber(column + 1);
+            }
+            append((byte) 'H');
+        }
+    }
+
+    /**
+     * @return Where in a line (as parse() makes it) it starts to differ from the old one, always at the start of a
+     * character or of a style change; 1 (the start of the text) if there is no old line, it starts in another style,
+     * or it holds anything but plain ASCII, whose width on the screen isn't certain.
+     */
+    private static int samePrefix(byte[] text, byte[] old) {
+        if (old == null || old[0] != text[0]) {
+            return 1;
+        }
+        int i = 1;
+        while (i < text.length && i < old.length && text[i] == old[i]) {
+            if (text[i] < 0) {
+                return 1;
+            }
+            i++;
+        }
+        if (text[i - 1] == ESC) {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * @return Where the part of a line that differs from the old one ends, if the two are the same length and differ
+     * only in plain characters between from and there; otherwise the end of the line.
+     */
+    private static int sameSuffix(byte[] text, byte[] old, int from) {
+        if (old == null || old.length != text.length) {
+            return text.length;
+        }
+        int to = text.length;
+        while (to > from && text[to - 1] == old[to - 1]) {
+            to--;
+        }
+        for (int i = from; i < to; i++) {
+            if (text[i] < 0x20 || old[i] < 0x20) {
+                return text.length; // a style changed, or a style byte moved
+            }
+        }
+        return to;
+    }
+
+    /**
+     * @return The screen column a position in a line (as parse() makes it) is drawn at.
+     */
+    private static int columnAt(byte[] text, int index) {
+        int column = 0;
+        for (int i = 1; i < index; i++) {
+            if (text[i] == ESC) {
+                i++;
+            } else {
+                column++;
+            }
+        }
+        return column;
+    }
+
+    /**
+     * @return The style in effect at a position in a line (as parse() makes it).
+     */
+    private static int styleAt(byte[] text, int index) {
+        int style = text[0];
+        for (int i = 1; i < index; i++) {
+            if (text[i] == ESC) {
+                style = text[++i];
+            }
+        }
+        return style;
+    }
+
+    /**
+     * Leaves the terminal in its default color, so the player's typing isn't colored.
+     * It comes just before the erase that ends every frame in screen mode, which is how LoadGenerator tells a turn is over.
+     */
+    private void finishFrame() {
+        if (terminalStyle != 0) {
+            appendStyle(0);
+        }
+    }
+
+    /**
+     * Splits a frame into lines, working out which colors the text really needs on the way.
+     * Each line starts with the style of its first character, and after that holds the text with an ESC byte
+     * followed by the new style wherever the style changes; colors that no text is printed in are left out.
+     */
+    private byte[][] parse(byte[] frame, int length) {
+        byte[][] lines = new byte[countLines(frame, length)][];
+        int lineCount = 0;
+        int style = 0;
+        int lineStyle = -1; // the style of the last character in the line, or -1 before the first
+        lineLength = 1;
+        line[0] = 0;
+        int i = 0;
+        while (i < length) {
+            byte b = frame[i];
+            if (b == ESC && i + 1 < length && frame[i + 1] == '[') {
+                int end = i + 2;
+                while (end < length && (frame[end] < 0x40 || frame[end] > 0x7e)) {
+                    end++;
+                }
+                if (end < length && frame[end] == 'm') {
+                    style = applySgr(style, frame, i + 2, end);
+                }
+                i = end + 1;
+                continue;
+            }
+            if (b == '\n') {
+                lines[lineCount++] = Arrays.copyOf(line, lineLength);
+                lineStyle = -1;
+                lineLength = 1;
+                line[0] = 0;
+            } else if (b != ESC && b != '\r') {
+                if (lineStyle < 0) {
+                    line[0] = (byte) style;
+                } else if (style != lineStyle) {
+                    addToLine(ESC);
+                    addToLine((byte) style);
+                }
+                lineStyle = style;
+                addToLine(b);
+            }
+            i++;
+        }
+        lines[lineCount] = Arrays.copyOf(line, lineLength);
+        return lines;
+    }
+
+    private static int countLines(byte[] frame, int length) {
+        int count = 1;
+        for (int i = 0; i < length; i++) {
+            if (frame[i] == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Applies the parameters of one "select graphic rendition" code (the part between ESC [ and m) to a style.
+     */
+    private static int applySgr(int style, byte[] frame, int start, int end) {
+        int value = 0;
+        for (int i = start; i <= end; i++) {
+            if (i < end && frame[i] >= '0' && frame[i] <= '9') {
+                value = value * 10 + (frame[i] - '0');
+                continue;
+            }
+            // a ';' or the final 'm' ends a parameter; an empty one means 0
+            if (value == 0) {
+                style = 0;
+            } else if (value == 1) {
+                style |= BOLD;
+            } else if (value == 22) {
+                style &= ~BOLD;
+            } else if (value >= 30 && value <= 37) {
+                style = (style & BOLD) | (value - 29);
+            } else if (value == 39) {
+                style &= BOLD;
+            }
+            value = 0;
+        }
+        return style;
+    }
+
+    /**
+     * Adds one parsed line to the output, with the color codes it needs (unless plain).
+     */
+    private void appendText(byte[] text, boolean styled) {
+        appendText(text, 1, text[0], styled);
+    }
+
+    /**
+     * Adds the rest of a parsed line to the output, from a position where the given style is in effect.
+     */
+    private void appendText(byte[] text, int from, int style, boolean styled) {
+        if (styled && from < text.length && text[from] != ESC && style != terminalStyle) {
+            appendStyle(style);
+        }
+        for (int i = from; i < text.length; i++) {
+            if (text[i] == ESC) {
+                i++;
+                if (styled && text[i] != terminalStyle) {
+                    appendStyle(text[i]);
+                }
+            } else {
+                append(text[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds the shortest code that takes the terminal from its current style to a new one.
+     */
+    private void appendStyle(int style) {
+        append(ESC);
+        append((byte) '[');
+        int from = terminalStyle;
+        boolean loseBold = (from & BOLD) != 0 && (style & BOLD) == 0;
+        boolean loseColor = (from & ~BOLD) != 0 && (style & ~BOLD) == 0;
+        boolean first = true;
+        if (style == 0 || loseBold || loseColor) {
+            append((byte) '0');
+            first = false;
+            from = 0;
+        }
+        if ((style & BOLD) != 0 && (from & BOLD) == 0) {
+            if (!first) {
+                append((byte) ';');
+            }
+            append((byte) '1');
+            first = false;
+        }
+        if ((style & ~BOLD) != 0 && (style & ~BOLD) != (from & ~BOLD)) {
+            if (!first) {
+                append((byte) ';');
+            }
+            appendNumber((style & ~BOLD) + 29);
+        }
+        append((byte) 'm');
+        terminalStyle = style;
+    }
+
+    private void appendNumber(int number) {
+        if (number >= 10) {
+            appendNumber(number / 10);
+        }
+        append((byte) ('0' + number % 10));
+    }
+
+    private void append(byte[] bytes) {
+        for (byte b : bytes) {
+            append(b);
+        }
+    }
+
+    private void append(byte b) {
+        if (outputLength == output.length) {
+            output = Arrays.copyOf(output, output.length * 2);
+        }
+        output[outputLength++] = b;
+    }
+
+    private void addToLine(byte b) {
+        if (lineLength == line.length) {
+            line = Arrays.copyOf(line, line.length * 2);
+        }
+        line[lineLength++] = b;
+    }
+}
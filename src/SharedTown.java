@@ -0,0 +1,235 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The SharedTown class is a town that many hunters can be in at once, each playing on their own thread.<p>
+ * The town's state is one int, packed the way World packs it, and the treasure and the gold pile are claimed by
+ * setting its searched and dug bits with compare-and-set: the first hunter to search gets the treasure and the first
+ * to dig gets the gold, and everyone after them is told they were beaten to it. No locks are taken.<p>
+ * Each hunter in the town has their own Visit, which holds their news and their own source of random numbers,
+ * so nothing a hunter is told is shared with anyone else. Once a hunter has left, their Visit refuses everything.<p>
+ * Nothing in the game uses it yet: the server's world mode still gives every player a Town of their own.
+ * Once a hunter has claimed something, what happens to them is worked out by the same rules Town uses
+ * (Town.findTreasure(), dig(), brawl() and leave()), so the two play alike and say the same things.
+ */
+
+public class SharedTown {
+    /**
+     * One hunter's stay in the town. Only the hunter's own thread may use it.
+     */
+    public class Visit {
+        private final Hunter hunter;
+        private final GameRandom random;
+        private final StringBuilder news;
+        private boolean left;
+
+        private Visit(Hunter hunter, GameRandom random) {
+            this.hunter = hunter;
+            this.random = random;
+            news = new StringBuilder();
+            left = false;
+            Town.welcome(news, hunter, isToughTown());
+        }
+
+        public Hunter getHunter() {
+            return hunter;
+        }
+
+        public SharedTown getTown() {
+            return SharedTown.this;
+        }
+
+        /**
+         * @return This hunter's latest news; it is overwritten by their next action.
+         */
+        public CharSequence getLatestNews() {
+            return news;
+        }
+
+        /**
+         * Searches the town, if nobody has yet.
+         *
+         * @return true if this hunter was the one to search it (even if all they found was dust); false if they have left.
+         */
+        public boolean huntForTreasure() {
+            long start = GameMetrics.start();
+            try {
+                if (left) {
+                    news("You have already left.");
+                    return false;
+                }
+                if (!claim(World.SEARCHED_BIT)) {
+                    news("Someone has already searched this town.");
+                    return false;
+                }
+                Town.findTreasure(news, hunter, treasure);
+                return true;
+            } finally {
+                GameMetrics.stop(GameMetrics.Timer.HUNT_FOR_TREASURE, start);
+            }
+        }
+
+        /**
+         * Digs for the town's gold, if this hunter has a shovel and nobody has dug yet.
+         *
+         * @return The gold dug up (0 for dirt), or -1 if this hunter didn't get to dig (or has left).
+         */
+        public int digForGold() {
+            long start = GameMetrics.start();
+            try {
+                if (left) {
+                    news("You have already left.");
+                } else if (!hunter.hasItem(Items.SHOVEL)) {
+                    news("You can't dig for gold without a shovel.");
+                } else if (!claim(World.DUG_BIT)) {
+                    news("Someone has already dug for gold in this town.");
+                } else {
+                    return Town.dig(news, hunter, random);
+                }
+                return -1;
+            } finally {
+                GameMetrics.stop(GameMetrics.Timer.DIG_FOR_GOLD, start);
+            }
+        }
+
+        /**
+         * Town.lookForTrouble() for this hunter; brawls don't change the town, so any number can happen at once.
+         *
+         * @return The gold won (or lost, if negative); 0 if the hunter has left.
+         */
+        public int lookForTrouble() {
+            long start = GameMetrics.start();
+            try {
+                if (left) {
+                    news("You have already left.");
+                    return 0;
+                }
+                return Town.brawl(news, hunter, random, isToughTown());
+            } finally {
+                GameMetrics.stop(GameMetrics.Timer.LOOK_FOR_TROUBLE, start);
+            }
+        }
+
+        /**
+         * Town.leaveTown() for this hunter; if they can cross the terrain they are no longer in the town.
+         *
+         * @return true if the hunter left.
+         */
+        public boolean leaveTown() {
+            long start = GameMetrics.start();
+            try {
+                if (left) {
+                    news("You have already left.");
+                    return false;
+                }
+                if (Town.leave(news, hunter, terrain, random, itemBreakChance) == Town.STAYED) {
+                    return false;
+                }
+                left = true;
+                hunterCount.decrementAndGet();
+                return true;
+            } finally {
+                GameMetrics.stop(GameMetrics.Timer.LEAVE_TOWN, start);
+            }
+        }
+
+        private StringBuilder news(String text) {
+            news.setLength(0);
+            return news.append(text);
+        }
+    }
+
+    // instance variables
+    private final Terrain terrain;
+    private final String treasure;
+    private final double itemBreakChance;
+    private final AtomicInteger state; // packed as World.packTown() packs it; only the searched and dug bits change
+    private final AtomicInteger hunterCount;
+
+    /**
+     * Opens a town that hasn't been searched or dug.
+     *
+     * @param terrainKind Which terrain surrounds the town, from 0 to Terrain.KIND_COUNT - 1.
+     * @param toughTown Whether the town is a tough town.
+     * @param treasure The treasure hidden in the town, from 0 to Town.TREASURE_KINDS - 1 (the last is dust).
+     * @param difficulty The mode, for whether items break.
+     */
+    public SharedTown(int terrainKind, boolean toughTown, int treasure, Difficulty difficulty) {
+        this(World.packTown(terrainKind, toughTown, treasure, false, false), difficulty);
+    }
+
+    /**
+     * Opens a town in the state a World has it in.
+     *
+     * @param state The town's state, packed as World.packTown() packs it.
+     * @param difficulty The mode, for whether items break.
+     */
+    public SharedTown(int state, Difficulty difficulty) {
+        terrain = Terrain.of(World.terrainOf(state));
+        int treasureId = World.treasureOf(state);
+        treasure = treasureId < Items.TREASURE_COUNT ? Items.treasureName(treasureId) : "dust";
+        itemBreakChance = difficulty.itemsDoNotBreak() ? 0.0 : Town.ITEM_BREAK_CHANCE;
+        this.state = new AtomicInteger(state);
+        hunterCount = new AtomicInteger();
+    }
+
+    /**
+     * Adds a hunter to the town.
+     *
+     * @param hunter The arriving hunter.
+     * @param random The hunter's own source of random numbers.
+     * @return The hunter's visit, through which they do everything in the town.
+     */
+    public Visit arrive(Hunter hunter, GameRandom random) {
+        hunterCount.incrementAndGet();
+        return new Visit(hunter, random);
+    }
+
+    // accessors
+    public Terrain getTerrain() {
+        return terrain;
+    }
+
+    public boolean isToughTown() {
+        return World.isTough(state.get());
+    }
+
+    public boolean isTreasureSearched() {
+        return World.isSearched(state.get());
+    }
+
+    public boolean isGoldDug() {
+        return World.isDug(state.get());
+    }
+
+    /**
+     * @return The town's state, packed as World.packTown() packs it, for writing back to a World.
+     */
+    public int getState() {
+        return state.get();
+    }
+
+    /**
+     * @return How many hunters are in the town right now.
+     */
+    public int getHunterCount() {
+        return hunterCount.get();
+    }
+
+    /**
+     * Sets one of the town's one-time bits, unless another hunter already has.
+     *
+     * @param bit World.SEARCHED_BIT or World.DUG_BIT.
+     * @return true if this call was the one that set it.
+     */
+    private boolean claim(int bit) {
+        while (true) {
+            int current = state.get();
+            if ((current & bit) != 0) {
+                return false;
+            }
+            if (state.compareAndSet(current, current | bit)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The SharedTownStress class sends hundreds of hunters, each on its own thread, through a few SharedTowns together.
+ * In each town every hunter arrives and then waits at a barrier until all of them are there, so the whole crowd is in
+ * the town at once, and then they are all let go at the same moment to race for the treasure and the gold.
+ * Afterwards it checks that the crowd really was everyone, and that nothing was lost:
+ * every town was searched and dug exactly once, every gold piece dug up ended up with a hunter,
+ * and every hunter who arrived also left.<p>
+ * It also reports how many times the hunters' threads blocked on a lock, which should be none.<p>
+ * Usage: java SharedTownStress [hunters] [towns]
+ */
+
+public class SharedTownStress {
+    // constants
+    private static final int STARTING_GOLD = 100;
+
+    public static void main(String[] args) throws InterruptedException {
+        int hunters = 400;
+        int townCount = 20;
+        if (args.length > 0) {
+            hunters = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            townCount = Integer.parseInt(args[1]);
+        }
+
+        // easy mode, so nobody's rope breaks and strands them
+        GameRandom townRandom = new GameRandom(21);
+        SharedTown[] towns = new SharedTown[townCount];
+        for (int i = 0; i < townCount; i++) {
+            towns[i] = new SharedTown(townRandom.nextInt(Terrain.KIND_COUNT), townRandom.nextDouble() < 0.5,
+                    townRandom.nextInt(Town.TREASURE_KINDS), Difficulty.EASY);
+        }
+
+        // one visit first, so no hunter blocks on another loading and initializing the classes
+        Hunter firstHunter = new Hunter("first", STARTING_GOLD);
+        SharedTown.Visit firstVisit = new SharedTown(0, false, 0, Difficulty.EASY).arrive(firstHunter, new GameRandom(0));
+        firstVisit.huntForTreasure();
+        firstVisit.digForGold();
+        firstVisit.lookForTrouble();
+        firstVisit.leaveTown();
+
+        // a hunter who has left a town can't search, dig or brawl there any more
+        SharedTown leftTown = new SharedTown(0, false, 0, Difficulty.EASY);
+        Hunter leaver = new Hunter("leaver", STARTING_GOLD);
+        leaver.addTestKit();
+        leaver.buyItem("shovel", 0);
+        SharedTown.Visit leftVisit = leftTown.arrive(leaver, new GameRandom(0));
+        boolean refusedAfterLeaving = leftVisit.leaveTown() && !leftVisit.huntForTreasure() && leftVisit.digForGold() < 0
+                && leftVisit.lookForTrouble() == 0 && !leftTown.isTreasureSearched() && !leftTown.isGoldDug()
+                && leaver.getGold() == STARTING_GOLD;
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean.isThreadContentionMonitoringSupported()) {
+            threadBean.setThreadContentionMonitoringEnabled(true);
+        }
+        LongAdder searches = new LongAdder();
+        LongAdder digs = new LongAdder();
+        LongAdder goldDug = new LongAdder();
+        LongAdder lostUpdates = new LongAdder(); // hunters whose gold doesn't add up
+        LongAdder blocked = new LongAdder();
+        AtomicInteger crowd = new AtomicInteger(Integer.MAX_VALUE); // the fewest hunters seen together in a town
+        AtomicInteger round = new AtomicInteger(); // which town the barrier is holding everyone in
+        // the last hunter to reach the barrier counts the crowd, while every other one is still waiting in the town
+        CyclicBarrier together = new CyclicBarrier(hunters,
+                () -> crowd.accumulateAndGet(towns[round.getAndIncrement()].getHunterCount(), Math::min));
+        CountDownLatch ready = new CountDownLatch(hunters);
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] threads = new Thread[hunters];
+        for (int h = 0; h < hunters; h++) {
+            Hunter hunter = new Hunter("hunter " + h, STARTING_GOLD);
+            hunter.addTestKit();
+            hunter.buyItem("shovel", 0);
+            GameRandom random = GameRandom.forGame(21, h);
+            threads[h] = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long blockedBefore = blockedCount(threadBean);
+                long myGold = 0;
+                int mySearches = 0;
+                int myDigs = 0;
+                for (SharedTown town : towns) {
+                    SharedTown.Visit visit = town.arrive(hunter, random);
+                    try {
+                        together.await();
+                    } catch (InterruptedException | BrokenBarrierException e) {
+                        return;
+                    }
+                    if (visit.huntForTreasure()) {
+                        mySearches++;
+                    }
+                    int dug = visit.digForGold();
+                    if (dug >= 0) {
+                        myDigs++;
+                        myGold += dug;
+                        goldDug.add(dug);
+                    }
+                    myGold += visit.lookForTrouble();
+                    visit.leaveTown();
+                }
+                blocked.add(blockedCount(threadBean) - blockedBefore);
+                searches.add(mySearches);
+                digs.add(myDigs);
+                if (hunter.getGold() != STARTING_GOLD + myGold) {
+                    lostUpdates.increment();
+                }
+            });
+            threads[h].start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int unsearched = 0;
+        int undug = 0;
+        int stillThere = 0;
+        for (SharedTown town : towns) {
+            unsearched += town.isTreasureSearched() ? 0 : 1;
+            undug += town.isGoldDug() ? 0 : 1;
+            stillThere += town.getHunterCount();
+        }
+        long visits = (long) hunters * townCount;
+        System.out.printf("%d hunters through %d towns (at least %d in each town at once): %,d visits in %.2f seconds, %,.0f visits/sec%n",
+                hunters, townCount, crowd.get(), visits, seconds, visits / seconds);
+        System.out.printf("treasure claims: %d (expected %d), towns left unsearched: %d%n", searches.sum(), townCount, unsearched);
+        System.out.printf("gold claims: %d (expected %d), towns left undug: %d, %d gold dug%n", digs.sum(), townCount, undug, goldDug.sum());
+        System.out.printf("hunters whose gold doesn't add up: %d, hunters never counted out: %d%n", lostUpdates.sum(), stillThere);
+        System.out.printf("times a hunter's thread blocked on a lock while in the towns: %d%n", blocked.sum());
+        System.out.println("a hunter who has left is refused: " + refusedAfterLeaving);
+        boolean ok = searches.sum() == townCount && digs.sum() == townCount && unsearched == 0 && undug == 0
+                && lostUpdates.sum() == 0 && stillThere == 0 && refusedAfterLeaving && crowd.get() == hunters;
+        System.out.println(ok ? "PASSED" : "FAILED");
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return How many times the calling thread has blocked waiting to enter a synchronized block.
+     */
+    private static long blockedCount(ThreadMXBean threadBean) {
+        ThreadInfo info = threadBean.getThreadInfo(Thread.currentThread().getId());
+        return info == null ? 0 : info.getBlockedCount();
+    }
+}
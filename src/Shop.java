@@ -1,40 +1,56 @@
-import java.awt.*;
-import java.util.Scanner;
-
 /**
  * The Shop class controls the cost of the items in the Treasure Hunt game. <p>
  * The Shop class also acts as a go between for the Hunter's buyItem() method. <p>
+ * A Shop never changes after it is built (the customer and where to talk to them are passed in on every visit),
+ * so each Difficulty shares one Shop between all of its towns and games. <p>
+ * A Shop built with a Market sells from the market's shared, limited stock at the market's current prices instead
+ * of its fixed ones, for games played together on a server. <p>
  * This code has been adapted from Ivan Turner's original program -- thank you Mr. Turner!
  */
 
 public class Shop {
-    // constants
-    private static final int WATER_COST = 2;
-    private static final int ROPE_COST = 4;
-    private static final int MACHETE_COST = 6;
-    private static final int HORSE_COST = 12;
-    private static final int BOAT_COST = 20;
-    private static final int BOOTS_COST = 5;
-    private static final int SHOVEL_COST = 8;
-    private static final int SWORD_COST = 0;
-    private boolean secretMode;
-
-    // static variables
-    private static final Scanner SCANNER = new Scanner(System.in);
-
     // instance variables
-    private double markdown;
-    private Hunter customer;
+    private final double markdown;
+    private final boolean secretMode;
+    private final int[] buyPrices; // indexed by item id; -1 if this shop doesn't sell the item
+    private final int[] sellPrices; // indexed by item id, with the markdown already applied
+    private final int unknownSellPrice;
+    private final Market market; // null for unlimited stock at fixed prices
 
     /**
-     * The Shop constructor takes in a markdown value and leaves customer null until one enters the shop.
+     * The Shop constructor takes in a markdown value and works out every buy and sell price from the ItemCatalog up front.
      *
      * @param markdown Percentage of markdown for selling items in decimal format.
+     * @param secretMode true if this shop also sells the secret items.
      */
     public Shop(double markdown, boolean secretMode) {
+        this(markdown, secretMode, null);
+    }
+
+    /**
+     * Builds a shop that sells from a market's stock at the market's prices.
+     *
+     * @param markdown Percentage of markdown for selling items in decimal format.
+     * @param secretMode true if this shop also sells the secret items.
+     * @param market Where the stock and current prices come from, or null for unlimited stock at fixed prices.
+     */
+    public Shop(double markdown, boolean secretMode, Market market) {
+        this.market = market;
         this.markdown = markdown;
-        customer = null; // customer is set in the enter method
         this.secretMode = secretMode;
+
+        ItemCatalog catalog = ItemCatalog.get();
+        buyPrices = new int[Items.ITEM_COUNT];
+        sellPrices = new int[Items.ITEM_COUNT];
+        for (int id = 0; id < Items.ITEM_COUNT; id++) {
+            if (catalog.isSecretOnly(id) && !secretMode) {
+                buyPrices[id] = -1;
+            } else {
+                buyPrices[id] = catalog.getCost(id);
+            }
+            sellPrices[id] = (int) (buyPrices[id] * markdown);
+        }
+        unknownSellPrice = (int) (-1 * markdown);
     }
 
     /**
@@ -42,40 +58,83 @@ public class Shop {
      *
      * @param hunter the Hunter entering the shop
      * @param buyOrSell String that determines if hunter is "B"uying or "S"elling
+     * @param in where the player's answers are read from
+     * @param out where the shop's questions and answers are printed
+     * @param log where each purchase or sale is recorded, or null
      * @return a String to be used for printing in the latest news
      */
-    public String enter(Hunter hunter, String buyOrSell) {
-        customer = hunter;
+    public String enter(Hunter customer, String buyOrSell, CommandSource in, TurnRenderer out, EventLog log) {
         if (buyOrSell.equals("b")) {
-            System.out.println("Welcome to the shop! We have the finest wares in town.");
-            System.out.println("Currently we have the following items:");
-            System.out.println(inventory());
-            System.out.print("What're you lookin' to buy? ");
-            String item = SCANNER.nextLine().toLowerCase();
+            out.println("Welcome to the shop! We have the finest wares in town.");
+            out.println("Currently we have the following items:");
+            out.println(inventory());
+            out.print("What're you lookin' to buy? ");
+            String item = ask(in, out);
             int cost = checkMarketPrice(item, true);
-                System.out.print("It'll cost you " + cost + " gold. Buy it (y/n)? ");
-                String option = SCANNER.nextLine().toLowerCase();
-                if (option.equals("y")) {
-                    buyItem(item);
+            out.print("It'll cost you ");
+            out.print(cost);
+            out.print(" gold. Buy it (y/n)? ");
+            String option = ask(in, out);
+            if (option.equals("y")) {
+                buyItem(customer, item, out);
+                if (log != null) {
+                    log.record(Action.BUY, Items.itemId(item), customer);
+                }
             }
         } else {
-            System.out.println("What're you lookin' to sell? ");
-            System.out.print("You currently have the following items: " + customer.getInventory());
-            String item = SCANNER.nextLine().toLowerCase();
+            out.println("What're you lookin' to sell? ");
+            out.print("You currently have the following items: ");
+            out.print(customer.getInventory());
+            String item = ask(in, out);
             int cost = checkMarketPrice(item, false);
             if (cost == 0) {
-                System.out.println("We don't want none of those.");
+                out.println("We don't want none of those.");
             } else {
-                System.out.print("It'll get you " + cost + " gold. Sell it (y/n)? ");
-                String option = SCANNER.nextLine().toLowerCase();
+                out.print("It'll get you ");
+                out.print(cost);
+                out.print(" gold. Sell it (y/n)? ");
+                String option = ask(in, out);
                 if (option.equals("y")) {
-                    sellItem(item);
+                    sellItem(customer, item, out);
+                    if (log != null) {
+                        log.record(Action.SELL, Items.itemId(item), customer);
+                    }
                 }
             }
         }
         return "You left the shop";
     }
 
+    /**
+     * Shows the player everything printed so far and waits for their answer.
+     *
+     * @param in Where the answer is read from.
+     * @param out Where everything printed so far is waiting.
+     * @return The answer, in lower case; blank if the input has run out.
+     */
+    private static String ask(CommandSource in, TurnRenderer out) {
+        if (!in.hasQueuedInput()) {
+            out.flush();
+        }
+        String line = in.nextLine();
+        if (line == null) {
+            return "";
+        }
+        return line.toLowerCase();
+    }
+
+    /**
+     * Prints the shopkeeper's answer, unless nobody is listening.
+     *
+     * @param out Where the answer is printed, or null.
+     * @param text The answer.
+     */
+    private static void say(TurnRenderer out, String text) {
+        if (out != null) {
+            out.println(text);
+        }
+    }
+
     /**
      * A method that returns a string showing the items available in the shop
      * (all shops sell the same items).
@@ -83,44 +142,148 @@ public class Shop {
      * @return the string representing the shop's items available for purchase and their prices.
      */
     public String inventory() {
-        String str = "Water: " + WATER_COST + " gold\n";
-        str += "Rope: " + ROPE_COST + " gold\n";
-        str += "Machete: " + MACHETE_COST + " gold\n";
-        str += "Horse: " + HORSE_COST + " gold\n";
-        str += "Boat: " + BOAT_COST + " gold\n";
-        str += "Boots: " + BOOTS_COST + " gold\n";
-        str += "Shovel: " + SHOVEL_COST + " gold\n";
-        if (secretMode){
-            str += Colors.RED + "S" + Colors.GREEN + "W" + Colors.YELLOW + "O" + Colors.BLUE + "R" + Colors.PURPLE + "D" + Colors.RESET + ": " + SWORD_COST + " gold\n";
+        if (market != null) {
+            return market.inventory();
         }
-        return str;
+        return ItemCatalog.get().inventory(secretMode);
+    }
+
+    /**
+     * @return The market this shop sells from, or null if it has unlimited stock at fixed prices.
+     */
+    public Market getMarket() {
+        return market;
     }
 
     /**
      * A method that lets the customer (a Hunter) buy an item.
      *
+     * @param customer The Hunter buying.
      * @param item The item being bought.
+     * @param out Where the shopkeeper's answer is printed.
      */
-    public void buyItem(String item) {
-        int costOfItem = checkMarketPrice(item, true);
-        if (customer.buyItem(item, costOfItem)) {
-            System.out.println("Ye' got yerself a " + item + ". Come again soon.");
-        } else {
-            System.out.println("Hmm, either you don't have enough gold or you've already got one of those!");
+    public void buyItem(Hunter customer, String item, TurnRenderer out) {
+        buy(customer, item, out);
+    }
+
+    /**
+     * Lets the customer buy an item without the shopkeeper saying a word, for games played without a console
+     * (see GameEngine). The item comes off a market's shelf the same way it does in buyItem(Hunter, String, TurnRenderer).
+     *
+     * @param customer The Hunter buying.
+     * @param item The item being bought.
+     * @return true if the customer got the item.
+     */
+    public boolean buyItem(Hunter customer, String item) {
+        return buy(customer, item, null);
+    }
+
+    /**
+     * Does the buying for both buyItem() methods.
+     *
+     * @param customer The Hunter selling.
+     * @param item The item being sold.
+     * @param out Where the shopkeeper's answer is printed, or null to say nothing.
+     * @return true if the customer got the item.
+     */
+    private boolean buy(Hunter customer, String item, TurnRenderer out) {
+        long start = GameMetrics.start();
+        try {
+            int costOfItem = checkMarketPrice(item, true);
+            boolean hasSword = customer.hasItemInKit("sword");
+            boolean taken = false;
+            if (market != null && costOfItem >= 0 && !customer.hasItemInKit(item)) {
+                // the unit comes off the shared shelf first, and its price is whatever it costs by then
+                int price = market.take(Items.itemId(item), hasSword ? Integer.MAX_VALUE : customer.getGold());
+                if (price == Market.SOLD_OUT) {
+                    say(out, "Sorry, we're all out of those. Come back later.");
+                    return false;
+                }
+                if (price == Market.TOO_DEAR) {
+                    // someone else's purchase may have raised the price since it was quoted, so never sell at the quote
+                    if (out != null) {
+                        out.println("Hmm, that costs " + market.getPrice(Items.itemId(item)) + " gold now, more than you've got.");
+                    }
+                    return false;
+                }
+                costOfItem = price;
+                taken = true;
+            }
+            if (hasSword && item.equals("sword")) {
+                say(out, "SO greedy... YOU ALREADY HAVE ONE");
+            } else if (costOfItem < 0) {
+                say(out, "We don't sell that here!");
+            } else if (hasSword && customer.getGold() < costOfItem) {
+                say(out, Colors.YELLOW + "0_0. You know, you don't have enough, but don't sweat it haha... it's on the house" + Colors.RESET);
+            } else if (hasSword) {
+                say(out, Colors.YELLOW + "0_0. Is that a sword. You know what, you can just have it" + Colors.RESET);
+            }
+            // with a market, an item is only handed over once its unit is off the shelf
+            if ((market == null || taken) && customer.buyItem(item, costOfItem)) {
+                if (!hasSword) {
+                    // Hunter.buyItem() has already recorded a sword holder's free item as a grant
+                    AuditLog.bought(customer, item, costOfItem);
+                }
+                say(out, "Ye' got yerself a " + item + ". Come again soon.");
+                return true;
+            }
+            if (taken) {
+                market.putBack(Items.itemId(item));
+            }
+            say(out, "Hmm, either you don't have enough gold or you've already got one of those!");
+            return false;
+        } finally {
+            GameMetrics.stop(GameMetrics.Timer.BUY_ITEM, start);
         }
     }
 
     /**
      * A pathway method that lets the Hunter sell an item.
      *
+     * @param customer The Hunter selling.
      * @param item The item being sold.
+     * @param out Where the shopkeeper's answer is printed.
      */
-    public void sellItem(String item) {
-        int buyBackPrice = checkMarketPrice(item, false);
-        if (customer.sellItem(item, buyBackPrice)) {
-            System.out.println("Pleasure doin' business with you.");
-        } else {
-            System.out.println("Stop stringin' me along!");
+    public void sellItem(Hunter customer, String item, TurnRenderer out) {
+        sell(customer, item, out);
+    }
+
+    /**
+     * Lets the Hunter sell an item without the shopkeeper saying a word, for games played without a console
+     * (see GameEngine). The item goes back on a market's shelf the same way it does in sellItem(Hunter, String, TurnRenderer).
+     *
+     * @param customer The Hunter selling.
+     * @param item The item being sold.
+     * @return true if the item was sold.
+     */
+    public boolean sellItem(Hunter customer, String item) {
+        return sell(customer, item, null);
+    }
+
+    /**
+     * Does the selling for both sellItem() methods.
+     *
+     * @param customer The Hunter selling.
+     * @param item The item being sold.
+     * @param out Where the shopkeeper's answer is printed, or null to say nothing.
+     * @return true if the item was sold.
+     */
+    private boolean sell(Hunter customer, String item, TurnRenderer out) {
+        long start = GameMetrics.start();
+        try {
+            int buyBackPrice = checkMarketPrice(item, false);
+            if (market != null && customer.hasItemInKit(item)) {
+                buyBackPrice = market.give(Items.itemId(item));
+            }
+            if (customer.sellItem(item, buyBackPrice)) {
+                AuditLog.sold(customer, item, buyBackPrice);
+                say(out, "Pleasure doin' business with you.");
+                return true;
+            }
+            say(out, "Stop stringin' me along!");
+            return false;
+        } finally {
+            GameMetrics.stop(GameMetrics.Timer.SELL_ITEM, start);
         }
     }
 
@@ -132,6 +295,10 @@ public class Shop {
      * @return The cost of buying or selling the item based on the isBuying parameter.
      */
     public int checkMarketPrice(String item, boolean isBuying) {
+        int id = Items.itemId(item);
+        if (market != null && id >= 0) {
+            return isBuying ? market.getPrice(id) : market.getBuyBackPrice(id);
+        }
         if (isBuying) {
             return getCostOfItem(item);
         } else {
@@ -140,44 +307,46 @@ public class Shop {
     }
 
     /**
-     * Checks the item entered against the costs listed in the static variables.
+     * Looks up the price of the item entered.
      *
      * @param item The item being checked for cost.
-     * @return The cost of the item or 0 if the item is not found.
+     * @return The cost of the item or -1 if this shop doesn't sell it.
      */
     public int getCostOfItem(String item) {
-        if (item.equals("water")) {
-            return WATER_COST;
-        } else if (item.equals("rope")) {
-            return ROPE_COST;
-        } else if (item.equals("machete")) {
-            return MACHETE_COST;
-        } else if (item.equals("horse")) {
-            return HORSE_COST;
-        } else if (item.equals("boat")) {
-            return BOAT_COST;
-        } else if (item.equals("boots")) {
-            return BOOTS_COST;
-        } else if (item.equals("shovel")) {
-            return SHOVEL_COST;
-        } else if (item.equals("sword")) {
-            if(secretMode == true){
-                return SWORD_COST;
-            }
-            return -1;
-        } else {
+        int id = Items.itemId(item);
+        if (id < 0) {
             return -1;
         }
+        return buyPrices[id];
     }
 
     /**
-     * Checks the cost of an item and applies the markdown.
+     * @param itemId An id from Items.
+     * @return The cost of the item or -1 if this shop doesn't sell it.
+     */
+    public int getCostOfItem(int itemId) {
+        return buyPrices[itemId];
+    }
+
+    /**
+     * Looks up the price the shop pays for an item, with the markdown applied.
      *
      * @param item The item being sold.
      * @return The sell price of the item.
      */
     public int getBuyBackCost(String item) {
-        int cost = (int) (getCostOfItem(item) * markdown);
-        return cost;
+        int id = Items.itemId(item);
+        if (id < 0) {
+            return unknownSellPrice;
+        }
+        return sellPrices[id];
+    }
+
+    /**
+     * @param itemId An id from Items.
+     * @return The sell price of the item.
+     */
+    public int getBuyBackCost(int itemId) {
+        return sellPrices[itemId];
     }
 }
\ No newline at end of file
@@ -0,0 +1,219 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The SimulationRunner class plays a large batch of headless games on every core and reports how fast they ran.<p>
+ * Every game gets its own GameRandom made from the master seed and the game's number, so any single game can be replayed.<p>
+ * The distributions (turns to win, final gold, items broken) are collected in a SimulationStats as the games finish,
+ * and a snapshot is printed every second while the batch runs.<p>
+ * Usage: java SimulationRunner [games] [difficulty e/n/h/s] [strategy seeker/random] [master seed]
+ */
+
+public class SimulationRunner {
+    // constants
+    private static final int GAMES_PER_TASK = 2048;
+    private static final long PROGRESS_MILLIS = 1000;
+
+    /**
+     * Running totals for a batch of games. Each task fills in its own and they are added together as tasks finish.
+     */
+    public static class Totals {
+        private long games;
+        private long wins;
+        private long broke;
+        private long quits;
+        private long turnLimits;
+        private long turns;
+
+        public long getGames() {
+            return games;
+        }
+
+        public long getWins() {
+            return wins;
+        }
+
+        public long getBroke() {
+            return broke;
+        }
+
+        public long getTurns() {
+            return turns;
+        }
+
+        /**
+         * Adds the result of one game.
+         *
+         * @param outcome How the game ended.
+         * @param gameTurns How many turns it took.
+         */
+        public void record(GameEngine.Outcome outcome, int gameTurns) {
+            games++;
+            turns += gameTurns;
+            if (outcome == GameEngine.Outcome.WON) {
+                wins++;
+            } else if (outcome == GameEngine.Outcome.BROKE) {
+                broke++;
+            } else if (outcome == GameEngine.Outcome.QUIT) {
+                quits++;
+            } else {
+                turnLimits++;
+            }
+        }
+
+        /**
+         * Adds another set of totals into this one.
+         *
+         * @param other The totals to add.
+         */
+        public void add(Totals other) {
+            games += other.games;
+            wins += other.wins;
+            broke += other.broke;
+            quits += other.quits;
+            turnLimits += other.turnLimits;
+            turns += other.turns;
+        }
+
+        /**
+         * @return A string representation of the totals.
+         */
+        public String infoString() {
+            return games + " games: " + wins + " won, " + broke + " went broke, " + quits + " quit, "
+                    + turnLimits + " hit the turn limit, " + String.format("%.1f", (double) turns / Math.max(1, games)) + " turns per game";
+        }
+    }
+
+    /**
+     * Splits a range of games in half until it is small enough to play on one thread.
+     */
+    private static class SimulationTask extends RecursiveTask<Totals> {
+        private static final long serialVersionUID = 1L; // ForkJoinTask is Serializable, though these never are serialized
+        private final Difficulty difficulty;
+        private final PlayerStrategy strategy;
+        private final long masterSeed;
+        private final SimulationStats stats;
+        private final long first;
+        private final long last;
+
+        SimulationTask(Difficulty difficulty, PlayerStrategy strategy, long masterSeed, SimulationStats stats, long first, long last) {
+            this.difficulty = difficulty;
+            this.strategy = strategy;
+            this.masterSeed = masterSeed;
+            this.stats = stats;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (last - first <= GAMES_PER_TASK) {
+                Totals totals = new Totals();
+                for (long i = first; i < last; i++) {
+                    GameRandom random = GameRandom.forGame(masterSeed, i);
+                    GameEngine game = new GameEngine(difficulty, GameEngine.DEFAULT_TURN_LIMIT, random);
+                    game.setStats(stats);
+                    GameEngine.Outcome outcome = game.play(strategy);
+                    totals.record(outcome, game.getTurns());
+                    if (stats != null) {
+                        stats.recordGame(outcome, game.getTurns(), game.getHunter().getGold());
+                    }
+                }
+                return totals;
+            }
+            long middle = (first + last) >>> 1;
+            SimulationTask left = new SimulationTask(difficulty, strategy, masterSeed, stats, first, middle);
+            left.fork();
+            Totals totals = new SimulationTask(difficulty, strategy, masterSeed, stats, middle, last).compute();
+            totals.add(left.join());
+            return totals;
+        }
+    }
+
+    /**
+     * Plays a batch of games across all cores.
+     *
+     * @param games How many games to play.
+     * @param difficulty The mode to play.
+     * @param strategy Who makes the choices in every game.
+     * @param masterSeed The seed every game's own seed is made from.
+     * @return The combined totals.
+     */
+    public static Totals run(long games, Difficulty difficulty, PlayerStrategy strategy, long masterSeed) {
+        return run(games, difficulty, strategy, masterSeed, null);
+    }
+
+    /**
+     * Plays a batch of games across all cores, collecting their distributions as they finish.
+     *
+     * @param games How many games to play.
+     * @param difficulty The mode to play.
+     * @param strategy Who makes the choices in every game.
+     * @param masterSeed The seed every game's own seed is made from.
+     * @param stats Where every game and every broken item is recorded, or null.
+     * @return The combined totals.
+     */
+    public static Totals run(long games, Difficulty difficulty, PlayerStrategy strategy, long masterSeed, SimulationStats stats) {
+        return ForkJoinPool.commonPool().invoke(new SimulationTask(difficulty, strategy, masterSeed, stats, 0, games));
+    }
+
+    /**
+     * Picks a strategy by name.
+     *
+     * @param name "random" or "seeker".
+     * @return The matching strategy; anything unrecognized gets the seeker.
+     */
+    public static PlayerStrategy strategyFor(String name) {
+        if (name.equals("random")) {
+            return new RandomStrategy();
+        }
+        return new TreasureSeekerStrategy();
+    }
+
+    public static void main(String[] args) {
+        long games = 1_000_000;
+        Difficulty difficulty = Difficulty.NORMAL;
+        PlayerStrategy strategy = new TreasureSeekerStrategy();
+        long masterSeed = System.nanoTime();
+        if (args.length > 0) {
+            games = Long.parseLong(args[0]);
+        }
+        if (args.length > 1) {
+            difficulty = Difficulty.fromChoice(args[1].toLowerCase());
+        }
+        if (args.length > 2) {
+            strategy = strategyFor(args[2].toLowerCase());
+        }
+        if (args.length > 3) {
+            masterSeed = Long.parseLong(args[3]);
+        }
+
+        // one small warm-up batch so the timing isn't mostly the JIT compiler
+        run(Math.min(games, 20_000), difficulty, strategy, masterSeed + 1);
+
+        SimulationStats stats = new SimulationStats();
+        Thread progress = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(PROGRESS_MILLIS);
+                    SimulationStats.Snapshot turnsToWin = stats.turnsToWin();
+                    System.out.printf("... %d games, turns to win p50=%d p99=%d%n", stats.getGames(),
+                            turnsToWin.percentile(50), turnsToWin.percentile(99));
+                }
+            } catch (InterruptedException e) {
+                // the batch is done
+            }
+        });
+        progress.setDaemon(true);
+
+        long start = System.nanoTime();
+        progress.start();
+        Totals totals = run(games, difficulty, strategy, masterSeed, stats);
+        progress.interrupt();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(difficulty + " mode, master seed " + masterSeed + ", " + ForkJoinPool.commonPool().getParallelism() + " worker threads");
+        System.out.println(totals.infoString());
+        System.out.println(stats.infoString());
+        System.out.printf("%.2f seconds, %.0f games/sec (%.0f games/min)%n", seconds, games / seconds, games / seconds * 60);
+    }
+}
@@ -0,0 +1,280 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The SimulationStats class collects the distributions of a batch of simulated games while they are being played.<p>
+ * Every thread records into its own histograms, which only that thread writes, so recording a game never waits on
+ * another thread; counters that every thread bumps are LongAdders. Snapshots add the histograms up on demand,
+ * so percentiles can be read while the games are still running, and two collectors can be merged into one.
+ */
+
+public class SimulationStats {
+    // constants
+    public static final int MAX_GOLD_TRACKED = 1000;
+
+    /**
+     * A histogram with one bucket per whole number between a minimum and a maximum;
+     * values outside the range go in the end buckets. Only one thread may record into it, but any thread may read it.
+     */
+    public static class Histogram {
+        private final long min;
+        private final AtomicLongArray counts;
+
+        public Histogram(long min, long max) {
+            this.min = min;
+            counts = new AtomicLongArray((int) (max - min + 1));
+        }
+
+        /**
+         * Adds one value. Only the owning thread calls this, so a plain read and an ordered write are enough.
+         *
+         * @param value The value to count.
+         */
+        public void record(long value) {
+            int bucket = (int) Math.max(0, Math.min(counts.length() - 1, value - min));
+            counts.lazySet(bucket, counts.get(bucket) + 1);
+        }
+    }
+
+    /**
+     * The sum of some histograms at one moment, for working out counts, means and percentiles.
+     */
+    public static class Snapshot {
+        private final long min;
+        private final long[] counts;
+        private long count;
+
+        public Snapshot(long min, int buckets) {
+            this.min = min;
+            counts = new long[buckets];
+            count = 0;
+        }
+
+        /**
+         * Adds a histogram's counts, as they are right now, into this snapshot.
+         *
+         * @param histogram A histogram with the same range.
+         */
+        public void add(Histogram histogram) {
+            for (int i = 0; i < counts.length; i++) {
+                long bucket = histogram.counts.get(i);
+                counts[i] += bucket;
+                count += bucket;
+            }
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @param percentile From 0 to 100.
+         * @return The smallest value with at least that percentage of the values at or below it, or 0 if there are none.
+         */
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return min + i;
+                }
+            }
+            return min + counts.length - 1;
+        }
+
+        /**
+         * @return The mean of the values, counting each clamped value as its end of the range.
+         */
+        public double mean() {
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                sum += (double) counts[i] * (min + i);
+            }
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * @return A string representation of the distribution.
+         */
+        public String infoString() {
+            return String.format("n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d", count, mean(), percentile(50),
+                    percentile(90), percentile(99), percentile(100));
+        }
+    }
+
+    /**
+     * One thread's histograms.
+     */
+    private static class Recorder {
+        private final Histogram turnsToWin = new Histogram(0, GameEngine.DEFAULT_TURN_LIMIT);
+        private final Histogram gameTurns = new Histogram(0, GameEngine.DEFAULT_TURN_LIMIT);
+        private final Histogram finalGold = new Histogram(-Town.MAX_BRAWL_GOLD, MAX_GOLD_TRACKED);
+    }
+
+    // instance variables
+    private final Queue<Recorder> recorders;
+    private final ThreadLocal<Recorder> recorder;
+    private final LongAdder games;
+    private final LongAdder wins;
+    private final LongAdder broke;
+    private final LongAdder quits;
+    private final LongAdder turnLimits;
+    private final LongAdder[] itemBreaks; // indexed by item id
+
+    public SimulationStats() {
+        recorders = new ConcurrentLinkedQueue<>();
+        recorder = ThreadLocal.withInitial(() -> {
+            Recorder mine = new Recorder();
+            recorders.add(mine);
+            return mine;
+        });
+        games = new LongAdder();
+        wins = new LongAdder();
+        broke = new LongAdder();
+        quits = new LongAdder();
+        turnLimits = new LongAdder();
+        itemBreaks = new LongAdder[Items.ITEM_COUNT];
+        for (int id = 0; id < Items.ITEM_COUNT; id++) {
+            itemBreaks[id] = new LongAdder();
+        }
+    }
+
+    /**
+     * Adds the result of one game.
+     *
+     * @param outcome How the game ended.
+     * @param turns How many turns it took.
+     * @param finalGold The hunter's gold at the end; below zero when the hunter went broke.
+     */
+    public void recordGame(GameEngine.Outcome outcome, int turns, int finalGold) {
+        Recorder mine = recorder.get();
+        mine.gameTurns.record(turns);
+        mine.finalGold.record(finalGold);
+        games.increment();
+        if (outcome == GameEngine.Outcome.WON) {
+            mine.turnsToWin.record(turns);
+            wins.increment();
+        } else if (outcome == GameEngine.Outcome.BROKE) {
+            broke.increment();
+        } else if (outcome == GameEngine.Outcome.QUIT) {
+            quits.increment();
+        } else {
+            turnLimits.increment();
+        }
+    }
+
+    /**
+     * Counts an item breaking as the hunter left town.
+     *
+     * @param itemId The id (from Items) of the item that broke.
+     */
+    public void recordItemBreak(int itemId) {
+        itemBreaks[itemId].increment();
+    }
+
+    /**
+     * Adds everything another collector has recorded so far into this one.
+     *
+     * @param other The statistics to add; it should have finished recording.
+     */
+    public void merge(SimulationStats other) {
+        for (Recorder theirs : other.recorders) {
+            Recorder copy = new Recorder();
+            addAll(copy.turnsToWin, theirs.turnsToWin);
+            addAll(copy.gameTurns, theirs.gameTurns);
+            addAll(copy.finalGold, theirs.finalGold);
+            recorders.add(copy);
+        }
+        games.add(other.games.sum());
+        wins.add(other.wins.sum());
+        broke.add(other.broke.sum());
+        quits.add(other.quits.sum());
+        turnLimits.add(other.turnLimits.sum());
+        for (int id = 0; id < Items.ITEM_COUNT; id++) {
+            itemBreaks[id].add(other.itemBreaks[id].sum());
+        }
+    }
+
+    private static void addAll(Histogram into, Histogram from) {
+        for (int i = 0; i < into.counts.length(); i++) {
+            into.counts.lazySet(i, from.counts.get(i));
+        }
+    }
+
+    // accessors
+    public long getGames() {
+        return games.sum();
+    }
+
+    public long getWins() {
+        return wins.sum();
+    }
+
+    public long getBroke() {
+        return broke.sum();
+    }
+
+    public long getItemBreaks(int itemId) {
+        return itemBreaks[itemId].sum();
+    }
+
+    /**
+     * @return The turns taken by the games that were won, so far.
+     */
+    public Snapshot turnsToWin() {
+        Snapshot snapshot = new Snapshot(0, GameEngine.DEFAULT_TURN_LIMIT + 1);
+        for (Recorder each : recorders) {
+            snapshot.add(each.turnsToWin);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return The turns taken by every game, so far.
+     */
+    public Snapshot gameTurns() {
+        Snapshot snapshot = new Snapshot(0, GameEngine.DEFAULT_TURN_LIMIT + 1);
+        for (Recorder each : recorders) {
+            snapshot.add(each.gameTurns);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return The gold every game ended with, so far.
+     */
+    public Snapshot finalGold() {
+        Snapshot snapshot = new Snapshot(-Town.MAX_BRAWL_GOLD, MAX_GOLD_TRACKED + Town.MAX_BRAWL_GOLD + 1);
+        for (Recorder each : recorders) {
+            snapshot.add(each.finalGold);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return A string representation of the statistics so far.
+     */
+    public String infoString() {
+        long total = Math.max(1, getGames());
+        StringBuilder info = new StringBuilder();
+        info.append(String.format("%d games: %.2f%% won, %.2f%% went broke (gold below zero), %d quit, %d hit the turn limit%n",
+                getGames(), 100.0 * getWins() / total, 100.0 * getBroke() / total, quits.sum(), turnLimits.sum()));
+        info.append("turns to win: ").append(turnsToWin().infoString()).append('\n');
+        info.append("turns played: ").append(gameTurns().infoString()).append('\n');
+        info.append("final gold:   ").append(finalGold().infoString()).append('\n');
+        info.append("items broken per game:");
+        for (int id = 0; id < Items.ITEM_COUNT; id++) {
+            long breaks = getItemBreaks(id);
+            if (breaks > 0) {
+                info.append(String.format(" %s %.3f", Items.itemName(id), (double) breaks / total));
+            }
+        }
+        return info.toString();
+    }
+}
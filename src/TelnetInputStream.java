@@ -0,0 +1,162 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.BiConsumer;
+
+/**
+ * The TelnetInputStream class is what a telnet client types, with the telnet protocol's commands taken out.<p>
+ * A server asks the client to report its window size by sending DO_NAWS ("negotiate about window size", RFC 1073).
+ * Every size the client reports, at the start and whenever its window is resized, is passed on to a listener.
+ * Every other command and option is dropped without an answer, which telnet takes as a refusal.
+ * Clients that don't speak telnet, like nc, never send a command, so their input passes through unchanged.
+ */
+
+public class TelnetInputStream extends FilterInputStream {
+    // constants
+    private static final int IAC = 255; // "interpret as command": the byte every command starts with
+    private static final int SE = 240; // end of a subnegotiation
+    private static final int SB = 250; // start of a subnegotiation
+    private static final int WILL = 251;
+    private static final int DONT = 254;
+    private static final int NAWS = 31;
+    public static final byte[] DO_NAWS = {(byte) IAC, (byte) 253, (byte) NAWS};
+    private static final int MAX_SUBNEGOTIATION = 16; // longer ones (none we want are) are cut short
+
+    // the states of the command parser
+    private static final int DATA = 0;
+    private static final int COMMAND = 1; // after an IAC
+    private static final int OPTION = 2; // after IAC and WILL, WONT, DO or DONT
+    private static final int SUBNEGOTIATION = 3; // between IAC SB and IAC SE
+    private static final int SUBNEGOTIATION_COMMAND = 4; // after an IAC in a subnegotiation
+
+    // instance variables
+    private final BiConsumer<Integer, Integer> resized;
+    private int state;
+    private byte[] subnegotiation;
+    private int subnegotiationLength;
+
+    /**
+     * @param in The connection's input.
+     * @param resized Called with the rows and columns of the client's window each time it reports them.
+     */
+    public TelnetInputStream(InputStream in, BiConsumer<Integer, Integer> resized) {
+        super(in);
+        this.resized = resized;
+        state = DATA;
+        subnegotiation = new byte[MAX_SUBNEGOTIATION];
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int count = read(one, 0, 1);
+        return count < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        // a read that was all commands has nothing to return, so keep reading until some text comes
+        while (true) {
+            int count = in.read(buffer, offset, length);
+            if (count < 0) {
+                return -1;
+            }
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                int b = buffer[offset + i] & 0xff;
+                if (accept(b)) {
+                    buffer[offset + kept++] = (byte) b;
+                }
+            }
+            if (kept > 0) {
+                return kept;
+            }
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] skipped = new byte[(int) Math.min(n, 512)];
+        int count = read(skipped, 0, skipped.length);
+        return Math.max(count, 0);
+    }
+
+    @Override
+    public int available() {
+        return 0; // what is waiting may all be commands
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Runs one byte from the client through the command parser.
+     *
+     * @return true if it is text the player typed.
+     */
+    private boolean accept(int b) {
+        switch (state) {
+            case COMMAND:
+                if (b == IAC) {
+                    state = DATA;
+                    return true; // IAC IAC is a 255 in the text
+                }
+                if (b == SB) {
+                    subnegotiationLength = 0;
+                    state = SUBNEGOTIATION;
+                } else if (b >= WILL && b <= DONT) {
+                    state = OPTION;
+                } else {
+                    state = DATA;
+                }
+                return false;
+            case OPTION:
+                state = DATA;
+                return false;
+            case SUBNEGOTIATION:
+                if (b == IAC) {
+                    state = SUBNEGOTIATION_COMMAND;
+                } else if (subnegotiationLength < subnegotiation.length) {
+                    subnegotiation[subnegotiationLength++] = (byte) b;
+                }
+                return false;
+            case SUBNEGOTIATION_COMMAND:
+                if (b == SE) {
+                    endSubnegotiation();
+                    state = DATA;
+                } else {
+                    if (subnegotiationLength < subnegotiation.length) {
+                        subnegotiation[subnegotiationLength++] = (byte) b;
+                    }
+                    state = SUBNEGOTIATION;
+                }
+                return false;
+            default:
+                if (b == IAC) {
+                    state = COMMAND;
+                    return false;
+                }
+                return true;
+        }
+    }
+
+    /**
+     * Passes on a window size report: NAWS, then the width and height as 16-bit numbers.
+     * A 0 means the client doesn't know that size, so the report is ignored.
+     */
+    private void endSubnegotiation() {
+        if (subnegotiationLength != 5 || subnegotiation[0] != NAWS) {
+            return;
+        }
+        int columns = (subnegotiation[1] & 0xff) << 8 | subnegotiation[2] & 0xff;
+        int rows = (subnegotiation[3] & 0xff) << 8 | subnegotiation[4] & 0xff;
+        if (rows > 0 && columns > 0) {
+            resized.accept(rows, columns);
+        }
+    }
+}
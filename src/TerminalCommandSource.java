@@ -0,0 +1,39 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A CommandSource for a person typing at a terminal. Each line is read as soon as it is entered.
+ */
+
+public class TerminalCommandSource implements CommandSource {
+    // instance variables
+    private BufferedReader reader;
+
+    /**
+     * Reads from the console.
+     */
+    public TerminalCommandSource() {
+        this(System.in);
+    }
+
+    /**
+     * Reads from any stream a person is typing into.
+     *
+     * @param in The stream.
+     */
+    public TerminalCommandSource(InputStream in) {
+        reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    public String nextLine() {
+        try {
+            return reader.readLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,12 +1,25 @@
 /**
  * The Terrain class is designed to represent the zones between the towns in the Treasure Hunter game.
+ * There are only six kinds of terrain and a Terrain never changes, so every town shares the six from of().
  * This code has been adapted from Ivan Turner's original program -- thank you Mr. Turner!
  */
 
 public class Terrain {
+    // constants
+    private static final Terrain[] KINDS = {
+            new Terrain("Mountains", "Rope"),
+            new Terrain("Ocean", "Boat"),
+            new Terrain("Plains", "Horse"),
+            new Terrain("Desert", "Water"),
+            new Terrain("Jungle", "Machete"),
+            new Terrain("Marsh", "Boots")
+    };
+    public static final int KIND_COUNT = KINDS.length;
+
     // instance variables
-    private String terrainName;
-    private String neededItem;
+    private final String terrainName;
+    private final String neededItem;
+    private final String infoString;
 
     /**
      * Sets the class member variables
@@ -17,6 +30,15 @@ public class Terrain {
     public Terrain(String name, String item) {
         terrainName = name;
         neededItem = item.toLowerCase();
+        infoString = "You are surrounded by " +Colors.CYAN+ terrainName +Colors.RESET + " which needs a(n) " + neededItem + " to cross.";
+    }
+
+    /**
+     * @param kind A terrain kind, from 0 to KIND_COUNT - 1.
+     * @return The shared Terrain of that kind.
+     */
+    public static Terrain of(int kind) {
+        return KINDS[kind];
     }
 
     // accessors
@@ -46,6 +68,6 @@ public class Terrain {
      * @return A string representation of the terrain and item to cross it.
      */
     public String infoString() {
-        return "You are surrounded by " +Colors.CYAN+ terrainName +Colors.RESET + " which needs a(n) " + neededItem + " to cross.";
+        return infoString;
     }
 }
\ No newline at end of file
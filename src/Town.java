@@ -5,42 +5,93 @@
  */
 
 public class Town {
+    // constants (PolicySolver uses these too, so they must match what the methods below do)
+    public static final int TERRAIN_KINDS = Terrain.KIND_COUNT;
+    public static final int TREASURE_KINDS = 4; // crown, trophy, gem and dust
+    public static final double DIG_CHANCE = 0.5;
+    public static final int MAX_GOLD_DUG = 20;
+    public static final double TOUGH_NO_TROUBLE_CHANCE = 0.66;
+    public static final double NO_TROUBLE_CHANCE = 0.33;
+    public static final int MAX_BRAWL_GOLD = 10;
+    public static final double ITEM_BREAK_CHANCE = 0.5;
+    static final int STAYED = -2; // what leave() returns when the hunter couldn't cross
+    static final int NOTHING_BROKE = -1; // what leave() returns when the hunter crossed without breaking anything
+    private static final String[] INFO_STRINGS = new String[TERRAIN_KINDS]; // indexed by terrain kind
+
+    static {
+        for (int kind = 0; kind < TERRAIN_KINDS; kind++) {
+            INFO_STRINGS[kind] = "This nice little town is surrounded by " + Colors.CYAN + Terrain.of(kind).getTerrainName() + Colors.RESET + ".";
+        }
+    }
+
     // instance variables
     private Hunter hunter;
     private Shop shop;
     private Terrain terrain;
-    private String printMessage;
+    private int terrainKind;
+    private StringBuilder printMessage; // reused for every message so news doesn't allocate
+    private String infoString;
+    private double toughness;
     private boolean toughTown;
     private String treasure;
     private boolean treasureSearched;
     private boolean goldDug;
+    private int lastBrokenItem;
     private boolean mode;
-    private boolean itemsDoNotBreak;
+    private double itemBreakChance;
     private boolean secretMode;
+    private GameRandom random;
     /**
      * The Town Constructor takes in a shop and the surrounding terrain, but leaves the hunter as null until one arrives.
      *
      * @param shop The town's shoppe.
      * @param toughness The surrounding terrain.
+     * @param random The game's source of random numbers.
      */
-    public Town(Shop shop, double toughness, boolean itemsDoNotBreak, boolean secretMode) {
+    public Town(Shop shop, double toughness, boolean itemsDoNotBreak, boolean secretMode, GameRandom random) {
+        this(shop, toughness, itemsDoNotBreak ? 0.0 : ITEM_BREAK_CHANCE, secretMode, random);
+    }
+
+    /**
+     * Builds a town with its own chance of items breaking, for trying out new rules (see GameRules).
+     *
+     * @param shop The town's shoppe.
+     * @param toughness The chance of the town being a tough town.
+     * @param itemBreakChance The chance an item breaks when it is used to leave town.
+     * @param secretMode true in secret mode.
+     * @param random The game's source of random numbers.
+     */
+    public Town(Shop shop, double toughness, double itemBreakChance, boolean secretMode, GameRandom random) {
         this.shop = shop;
-        this.terrain = getNewTerrain();
-        this.itemsDoNotBreak = itemsDoNotBreak;
+        this.random = random;
+        this.toughness = toughness;
+        this.itemBreakChance = itemBreakChance;
         // the hunter gets set using the hunterArrives method, which
         // gets called from a client class
         hunter = null;
-        printMessage = "";
+        printMessage = new StringBuilder();
         this.secretMode = secretMode;
+        reset();
+    }
+
+    /**
+     * Turns this town into the next town along, keeping the mode's settings, so moving doesn't allocate a new one.
+     * The random numbers are drawn in the same order as a new Town would draw them. Call hunterArrives() afterwards.
+     */
+    public void reset() {
+        terrainKind = getNewTerrainKind();
+        terrain = Terrain.of(terrainKind);
+        infoString = INFO_STRINGS[terrainKind];
 
         // higher toughness = more likely to be a tough town
-        toughTown = (Math.random() < toughness);
+        toughTown = (random.nextDouble() < toughness);
 
         goldDug = false;
         treasureSearched = false;
+        lastBrokenItem = -1;
 
         // 25% chance for a given treasure to be chosen.
-        int treasureNum = ((int) (Math.random() * 4));
+        int treasureNum = ((int) (random.nextDouble() * TREASURE_KINDS));
         if (treasureNum == 0) {
             treasure = "crown";
         } else if (treasureNum == 1) {
@@ -56,10 +107,72 @@ public class Town {
         return terrain;
     }
 
-    public String getLatestNews() {
+    public Shop getShop() {
+        return shop;
+    }
+
+    /**
+     * @param terrainKind A terrain kind, from 0 to TERRAIN_KINDS - 1.
+     * @return The id (from Items) of the item needed to cross that terrain.
+     */
+    public static int neededItemId(int terrainKind) {
+        return Items.itemId(Terrain.of(terrainKind).getNeededItem());
+    }
+
+    public int getTerrainKind() {
+        return terrainKind;
+    }
+
+    public boolean isToughTown() {
+        return toughTown;
+    }
+
+    public String getTreasure() {
+        return treasure;
+    }
+
+    public boolean isTreasureSearched() {
+        return treasureSearched;
+    }
+
+    public boolean isGoldDug() {
+        return goldDug;
+    }
+
+    /**
+     * @return The id (from Items) of the item that broke the last time the hunter left, or -1 if nothing broke.
+     */
+    public int getLastBrokenItem() {
+        return lastBrokenItem;
+    }
+
+    /**
+     * @return The latest news; it is overwritten by the next action, so copy it if it needs to be kept.
+     */
+    public CharSequence getLatestNews() {
         return printMessage;
     }
 
+    /**
+     * Puts the town back the way it was when a game was saved.
+     * Used by GameSnapshot; call hunterArrives() afterwards.
+     *
+     * @param terrainKind Which terrain surrounds the town, from 0 to TERRAIN_KINDS - 1.
+     * @param toughTown Whether the town is a tough town.
+     * @param treasure The treasure hidden in the town ("crown", "trophy", "gem" or "dust").
+     * @param treasureSearched Whether the town has been searched already.
+     * @param goldDug Whether the town has been dug already.
+     */
+    void restoreState(int terrainKind, boolean toughTown, String treasure, boolean treasureSearched, boolean goldDug) {
+        this.terrainKind = terrainKind;
+        terrain = Terrain.of(terrainKind);
+        infoString = INFO_STRINGS[terrainKind];
+        this.toughTown = toughTown;
+        this.treasure = treasure;
+        this.treasureSearched = treasureSearched;
+        this.goldDug = goldDug;
+    }
+
     /**
      * Assigns an object to the Hunter in town.
      *
@@ -67,48 +180,37 @@ public class Town {
      */
     public void hunterArrives(Hunter hunter) {
         this.hunter = hunter;
-        printMessage = "Welcome to town, " + hunter.getHunterName() + ".";
-        if (toughTown) {
-            printMessage += "\nIt's pretty rough around here, so watch yourself.";
-        } else {
-            printMessage += "\nWe're just a sleepy little town with mild mannered folk.";
-        }
+        welcome(printMessage, hunter, toughTown);
     }
 
     public void huntForTreasure() {
-        if (treasureSearched) {
-            printMessage = "You have already searched this town.";
-        } else {
-            if (treasure.equals("dust")) {
-                printMessage = "You found dust. It was not added to your treasures.";
+        long start = GameMetrics.start();
+        try {
+            if (treasureSearched) {
+                news("You have already searched this town.");
             } else {
-                if (hunter.addTreasure(treasure)) {
-                    printMessage = "You found " + treasure + " and it was added to your treasures!";
-                } else {
-                    printMessage = "You found " + treasure + " but it was already in your inventory of treasures.";
-                }
+                findTreasure(printMessage, hunter, treasure);
+                treasureSearched = true;
             }
-            treasureSearched = true;
+        } finally {
+            GameMetrics.stop(GameMetrics.Timer.HUNT_FOR_TREASURE, start);
         }
     }
 
     public void digForGold() {
-        if (!hunter.hasItemInKit("shovel")) {
-            printMessage = "You can't dig for gold without a shovel.";
-        } else if (goldDug) {
-            printMessage = "You already dug for gold in this town.";
-        } else {
-            double chance = Math.random();
-            if (chance < 0.5) {
-                int goldFound = (int) (Math.random() * 20) + 1;
-                printMessage = "You dug up " + goldFound + " gold!";
-                hunter.changeGold(goldFound);
+        long start = GameMetrics.start();
+        try {
+            if (!hunter.hasItemInKit("shovel")) {
+                news("You can't dig for gold without a shovel.");
+            } else if (goldDug) {
+                news("You already dug for gold in this town.");
             } else {
-                printMessage = "You dug but only found dirt.";
+                dig(printMessage, hunter, random);
+                goldDug = true;
             }
-            goldDug = true;
+        } finally {
+            GameMetrics.stop(GameMetrics.Timer.DIG_FOR_GOLD, start);
         }
-
     }
 
     /**
@@ -117,28 +219,36 @@ public class Town {
      * @return true if the Hunter was able to leave town.
      */
     public boolean leaveTown() {
-        boolean canLeaveTown = terrain.canCrossTerrain(hunter);
-        if (canLeaveTown) {
-            String item = terrain.getNeededItem();
-            printMessage = "You used your " + item + " to cross the " + terrain.getTerrainName() + ".";
-            if (checkItemBreak() && !itemsDoNotBreak) {
-                hunter.removeItemFromKit(item);
-                printMessage += "\nUnfortunately, you lost your " + item + ".";
-            }
-            return true;
-        }
+        return leaveTown(terrain);
+    }
 
-        printMessage = "You can't leave town, " + hunter.getHunterName() + ". You don't have a " + terrain.getNeededItem() + ".";
-        return false;
+    /**
+     * Handles the action of the Hunter leaving the town along a road, in a World.
+     *
+     * @param road The terrain the road crosses.
+     * @return true if the Hunter was able to leave town.
+     */
+    public boolean leaveTown(Terrain road) {
+        long start = GameMetrics.start();
+        try {
+            int result = leave(printMessage, hunter, road, random, itemBreakChance);
+            lastBrokenItem = result == STAYED ? NOTHING_BROKE : result;
+            return result != STAYED;
+        } finally {
+            GameMetrics.stop(GameMetrics.Timer.LEAVE_TOWN, start);
+        }
     }
 
     /**
      * Handles calling the enter method on shop whenever the user wants to access the shop.
      *
      * @param choice If the user wants to buy or sell items at the shop.
+     * @param in Where the shop reads the player's answers from.
+     * @param out Where the shop prints its questions and answers.
+     * @param log Where purchases and sales are recorded, or null.
      */
-    public void enterShop(String choice) {
-        printMessage = shop.enter(hunter, choice);
+    public void enterShop(String choice, CommandSource in, TurnRenderer out, EventLog log) {
+        news(shop.enter(hunter, choice, in, out, log));
     }
 
     /**
@@ -147,68 +257,155 @@ public class Town {
      * The tougher the town, the easier it is to find a fight, and the harder it is to win one.
      */
     public void lookForTrouble() {
-        double noTroubleChance;
+        long start = GameMetrics.start();
+        try {
+            brawl(printMessage, hunter, random, toughTown);
+        } finally {
+            GameMetrics.stop(GameMetrics.Timer.LOOK_FOR_TROUBLE, start);
+        }
+    }
+
+    public String infoString() {
+        return infoString;
+    }
+
+    // The rules below are shared with SharedTown, so a hunter gets the same chances and the same messages in either.
+    // Each one starts the news over and draws its random numbers in the same order every time.
+
+    /**
+     * Greets a hunter arriving in a town.
+     */
+    static void welcome(StringBuilder news, Hunter hunter, boolean toughTown) {
+        news.setLength(0);
+        news.append("Welcome to town, ").append(hunter.getHunterName()).append('.');
         if (toughTown) {
-            noTroubleChance = 0.66;
+            news.append("\nIt's pretty rough around here, so watch yourself.");
         } else {
-            noTroubleChance = 0.33;
+            news.append("\nWe're just a sleepy little town with mild mannered folk.");
         }
-        if (Math.random() > noTroubleChance) {
-            printMessage = "You couldn't find any trouble";
+    }
+
+    /**
+     * Gives the hunter a town's treasure, once they are the one to search it.
+     *
+     * @param treasure "crown", "trophy", "gem" or "dust".
+     */
+    static void findTreasure(StringBuilder news, Hunter hunter, String treasure) {
+        news.setLength(0);
+        if (treasure.equals("dust")) {
+            news.append("You found dust. It was not added to your treasures.");
+        } else if (hunter.addTreasure(treasure)) {
+            GameMetrics.treasureFound();
+            news.append("You found ").append(treasure).append(" and it was added to your treasures!");
         } else {
-            printMessage =Colors.RED+ "You want trouble, stranger!  You got it!\nOof! Umph! Ow!\n";
-            int goldDiff = (int) (Math.random() * 10) + 1;
-            if (hunter.hasItemInKit("sword")){
-                printMessage += Colors.CYAN + "IS THAT A SWORD. Never bring fists to a sword fight 😭" + Colors.RESET;
-                printMessage += Colors.RED + "\nYou won the brawl and receive " +Colors.YELLOW + goldDiff + " gold." +Colors.RESET;
-                hunter.changeGold(goldDiff);
-            } else {
-                if (Math.random() > noTroubleChance) {
-                    printMessage += Colors.RED + "Okay, stranger! You proved yer mettle. Here, take my gold.";
-                    printMessage += "\nYou won the brawl and receive " + Colors.YELLOW + goldDiff + " gold." + Colors.RESET;
-                    hunter.changeGold(goldDiff);
-                } else {
-                    printMessage += Colors.RED + "That'll teach you to go lookin' fer trouble in MY town! Now pay up!";
-                    printMessage += "\nYou lost the brawl and pay " + Colors.YELLOW + goldDiff + " gold." + Colors.RESET;
-                    hunter.changeGold(-goldDiff);
-                }
-            }
+            news.append("You found ").append(treasure).append(" but it was already in your inventory of treasures.");
         }
     }
 
-    public String infoString() {
-        return "This nice little town is surrounded by " + Colors.CYAN + terrain.getTerrainName() + Colors.RESET + ".";
+    /**
+     * Digs up a town's gold, once the hunter (who has a shovel) is the one to dig it.
+     *
+     * @return The gold dug up, or 0 for dirt.
+     */
+    static int dig(StringBuilder news, Hunter hunter, GameRandom random) {
+        news.setLength(0);
+        if (random.nextDouble() < DIG_CHANCE) {
+            int goldFound = (int) (random.nextDouble() * MAX_GOLD_DUG) + 1;
+            news.append("You dug up ").append(goldFound).append(" gold!");
+            hunter.changeGold(goldFound);
+            return goldFound;
+        }
+        news.append("You dug but only found dirt.");
+        return 0;
     }
 
     /**
-     * Determines the surrounding terrain for a town, and the item needed in order to cross that terrain.
+     * Looks for a fight and settles it.
      *
-     * @return A Terrain object.
-     */
-    private Terrain getNewTerrain() {
-        double rnd = Math.random();
-        if (rnd < (1.0/6)) {
-            return new Terrain("Mountains", "Rope");
-        } else if (rnd < (2.0/6)) {
-            return new Terrain("Ocean", "Boat");
-        } else if (rnd < (3.0/6)) {
-            return new Terrain( "Plains", "Horse");
-        } else if (rnd < (4.0/6)) {
-            return new Terrain("Desert", "Water");
-        } else if (rnd < 5.0/6){
-            return new Terrain("Jungle", "Machete");
+     * @return The gold won, or lost if negative; 0 if no trouble was found.
+     */
+    static int brawl(StringBuilder news, Hunter hunter, GameRandom random, boolean toughTown) {
+        news.setLength(0);
+        double noTroubleChance;
+        if (toughTown) {
+            noTroubleChance = TOUGH_NO_TROUBLE_CHANCE;
+        } else {
+            noTroubleChance = NO_TROUBLE_CHANCE;
+        }
+        if (random.nextDouble() > noTroubleChance) {
+            news.append("You couldn't find any trouble");
+            return 0;
+        }
+        news.append(Colors.RED).append("You want trouble, stranger!  You got it!\nOof! Umph! Ow!\n");
+        int goldDiff = (int) (random.nextDouble() * MAX_BRAWL_GOLD) + 1;
+        if (hunter.hasItemInKit("sword")){
+            news.append(Colors.CYAN).append("IS THAT A SWORD. Never bring fists to a sword fight 😭").append(Colors.RESET);
+            news.append(Colors.RED).append("\nYou won the brawl and receive ").append(Colors.YELLOW).append(goldDiff).append(" gold.").append(Colors.RESET);
+        } else if (random.nextDouble() > noTroubleChance) {
+            news.append(Colors.RED).append("Okay, stranger! You proved yer mettle. Here, take my gold.");
+            news.append("\nYou won the brawl and receive ").append(Colors.YELLOW).append(goldDiff).append(" gold.").append(Colors.RESET);
         } else {
-            return new Terrain("Marsh", "Boots");
+            news.append(Colors.RED).append("That'll teach you to go lookin' fer trouble in MY town! Now pay up!");
+            news.append("\nYou lost the brawl and pay ").append(Colors.YELLOW).append(goldDiff).append(" gold.").append(Colors.RESET);
+            goldDiff = -goldDiff;
         }
+        hunter.changeGold(goldDiff);
+        return goldDiff;
     }
 
     /**
-     * Determines whether a used item has broken.
+     * Takes the hunter across a road's terrain, if they have what it takes, and maybe breaks what they used.
      *
-     * @return true if the item broke.
+     * @param itemBreakChance The chance the item used breaks.
+     * @return The id (from Items) of the item that broke, NOTHING_BROKE, or STAYED if the hunter couldn't cross.
      */
-    private boolean checkItemBreak() {
-        double rand = Math.random();
-        return (rand < 0.5);
+    static int leave(StringBuilder news, Hunter hunter, Terrain road, GameRandom random, double itemBreakChance) {
+        news.setLength(0);
+        String item = road.getNeededItem();
+        if (!road.canCrossTerrain(hunter)) {
+            news.append("You can't leave town, ").append(hunter.getHunterName()).append(". You don't have a ").append(item).append('.');
+            return STAYED;
+        }
+        news.append("You used your ").append(item).append(" to cross the ").append(road.getTerrainName()).append('.');
+        if (random.nextDouble() < itemBreakChance) {
+            hunter.removeItemFromKit(item);
+            news.append("\nUnfortunately, you lost your ").append(item).append('.');
+            return Items.itemId(item);
+        }
+        return NOTHING_BROKE;
+    }
+
+    /**
+     * Clears the latest news and starts it over with the given text.
+     *
+     * @param text The start of the new message.
+     * @return The message, so more can be appended to it.
+     */
+    private StringBuilder news(String text) {
+        printMessage.setLength(0);
+        return printMessage.append(text);
+    }
+
+    /**
+     * Determines the surrounding terrain for a town; each kind is equally likely.
+     *
+     * @return A terrain kind, for Terrain.of().
+     */
+    private int getNewTerrainKind() {
+        return terrainKindFor(random.nextDouble());
+    }
+
+    /**
+     * Turns a random number into a terrain kind, the way every town picks its terrain.
+     *
+     * @param rnd A random number from 0.0 (inclusive) to 1.0 (exclusive).
+     * @return A terrain kind, for Terrain.of().
+     */
+    static int terrainKindFor(double rnd) {
+        int kind = 0;
+        while (kind < TERRAIN_KINDS - 1 && rnd >= (kind + 1.0) / TERRAIN_KINDS) {
+            kind++;
+        }
+        return kind;
     }
 }
\ No newline at end of file
@@ -1,47 +1,195 @@
-import java.util.Scanner;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
 
 /**
  * This class is responsible for controlling the Treasure Hunter game.<p>
  * It handles the display of the menu and the processing of the player's choices.<p>
  * It handles all the display based on the messages it receives from the Town object. <p>
+ * Menu commands are looked up in a table built once, and one line can hold several commands
+ * (see PipelinedCommandSource). <p>
+ * Optionally the game is played on a persistent World of towns joined by roads instead of a fresh random town
+ * after every move; then the player picks a road when moving and can ask a RouteFinder the way to any town.
+ * Worlds too big to build are a LazyWorld, worked out a town at a time, and have no route planning. <p>
  *
  * This code has been adapted from Ivan Turner's original program -- thank you Mr. Turner!
  */
 
 public class TreasureHunter {
     // static variables
-    private static final Scanner SCANNER = new Scanner(System.in);
+    private static final Path SAVE_DIRECTORY = Path.of("saves");
+    private static final String ACTIONS_MENU = "(B)uy something at the shop.\n"
+            + "(S)ell something at the shop.\n"
+            + "(E)xplore surrounding terrain.\n"
+            + "(M)ove on to a different town.\n"
+            + "(L)ook for trouble!\n"
+            + "(H)unt for treasure\n"
+            + "(D)ig for gold\n";
+    private static final String SAVES_MENU = "Sa(V)e the game.\n"
+            + "(R)estore a saved game.\n";
+    private static final String EXIT_MENU = "Give up the hunt and e(X)it.\n"
+            + "\n"
+            + "What's your next move? ";
+    private static final byte[] MENU = TurnRenderer.encode(ACTIONS_MENU + SAVES_MENU + EXIT_MENU);
+    private static final byte[] MENU_WITHOUT_SAVES = TurnRenderer.encode(ACTIONS_MENU + EXIT_MENU);
+    private static final byte[] WORLD_MENU = TurnRenderer.encode(
+            "(W)hich way to another town?\n");
+    private static final int EXTRA_ROADS = 1; // roads to random towns per town, on top of the ring
+    private static final int LARGEST_BUILT_WORLD = 200_000; // bigger worlds are lazy; RouteFinder needs 64 states a town
+
+    /**
+     * What a menu command does.
+     */
+    private interface Command {
+        void run(TreasureHunter game, String choice);
+    }
+
+    // indexed by the command's letter; null for letters that aren't commands
+    private static final Command[] COMMANDS = new Command[128];
+
+    static {
+        COMMANDS['b'] = TreasureHunter::visitShop;
+        COMMANDS['s'] = TreasureHunter::visitShop;
+        COMMANDS['e'] = (game, choice) -> game.explore();
+        COMMANDS['m'] = (game, choice) -> game.move();
+        COMMANDS['l'] = (game, choice) -> game.lookForTrouble();
+        COMMANDS['x'] = (game, choice) -> game.exit();
+        COMMANDS['h'] = (game, choice) -> game.huntForTreasure();
+        COMMANDS['d'] = (game, choice) -> game.digForGold();
+        COMMANDS['v'] = (game, choice) -> game.saveGame();
+        COMMANDS['r'] = (game, choice) -> game.restoreGame();
+        COMMANDS['w'] = (game, choice) -> game.showRoute();
+    }
+
+    // commands that ask the player something before they finish; see processChoice()
+    private static final String ASKING_COMMANDS = "bsvrw";
 
     // instance variables
     private Town currentTown;
     private Hunter hunter;
-    private boolean hardMode;
-    private boolean normalMode;
-    private boolean easyMode;
-    private boolean secretMode;
+    private Difficulty difficulty;
+    private GameRandom random;
+    private PipelinedCommandSource in;
+    private TurnRenderer out;
+    private EventLog log;
+    private int worldSize;
+    private World world;
+    private int townIndex;
+    private RouteFinder routes;
+    private Map<Difficulty, Shop> shops; // null to use each mode's own shop
+    private boolean savesAllowed;
 
     /**
-     * Constructs the Treasure Hunter game.
+     * Constructs the Treasure Hunter game with a different seed every time.
      */
     public TreasureHunter() {
+        this(System.nanoTime());
+    }
+
+    /**
+     * Constructs the Treasure Hunter game; the same seed and the same choices always play out the same way.
+     *
+     * @param seed The seed for the game's random numbers.
+     */
+    public TreasureHunter(long seed) {
+        this(seed, new TerminalCommandSource(), new TurnRenderer(System.out));
+    }
+
+    /**
+     * Constructs the Treasure Hunter game, playing somewhere other than the console.
+     *
+     * @param seed The seed for the game's random numbers.
+     * @param in Where the player's choices are read from; the game passes it on to every shop.
+     *           Lines from it may hold several commands.
+     * @param out Where the game prints.
+     */
+    public TreasureHunter(long seed, CommandSource in, TurnRenderer out) {
         // these will be initialized in the play method
         currentTown = null;
         hunter = null;
-        hardMode = false;
-        normalMode = false;
-        easyMode = false;
-        secretMode = false;
+        difficulty = Difficulty.NORMAL;
+        random = new GameRandom(seed);
+        this.in = new PipelinedCommandSource(in);
+        this.out = out;
+        log = null;
+        worldSize = 0;
+        world = null;
+        routes = null;
+        shops = null;
+        savesAllowed = true;
+    }
+
+    /**
+     * Records every action of the game in an event log from now on. Must be called before play().
+     * Games in a world (see setWorldSize()) can't be logged, since EventReplay can't replay moves along roads.
+     *
+     * @param log The log, or null to stop recording.
+     */
+    public void setEventLog(EventLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Plays on a persistent world of towns joined by roads, built when the game starts. Must be called before play().
+     *
+     * @param towns How many towns the world has (at least 2), or 0 for the usual fresh random town after every move.
+     * @throws IllegalArgumentException If there would be only one town, or fewer.
+     */
+    public void setWorldSize(int towns) {
+        if (towns < 0 || towns == 1) {
+            throw new IllegalArgumentException("A world needs at least 2 towns");
+        }
+        worldSize = towns;
+    }
+
+    /**
+     * Shops in the towns of each mode from the given shops instead of the mode's own, so games on a server
+     * can share a Market. Must be called before play().
+     *
+     * @param shops The shop for each mode (see Market.openShops()), or null for each mode's own shop.
+     */
+    public void setShops(Map<Difficulty, Shop> shops) {
+        this.shops = shops;
+    }
+
+    /**
+     * Turns saving and restoring games on or off. They use the saves directory of whoever runs the game,
+     * so they are off for players connected to a server. Must be called before play().
+     *
+     * @param allowed false to leave them off the menu and refuse them.
+     */
+    public void setSavesAllowed(boolean allowed) {
+        savesAllowed = allowed;
+    }
+
+    // accessors for tools that drive the game without a console
+    Hunter getHunter() {
+        return hunter;
+    }
+
+    Town getCurrentTown() {
+        return currentTown;
     }
 
     /**
      * Starts the game; this is the only public method
      */
     public void play() {
-        welcomePlayer();
-        enterTown();
-        showMenu();
-        if (hunter.allTreasuresCollected()) {
-            System.out.println("Congratulations, you have found the last of the three treasures, you win!");
+        if (log != null && worldSize > 0) {
+            throw new IllegalStateException("Games in a world can't be recorded in an event log");
+        }
+        try {
+            welcomePlayer();
+            showMenu();
+            if (hunter.allTreasuresCollected()) {
+                out.println("Congratulations, you have found the last of the three treasures, you win!");
+            }
+            out.flush();
+            if (log != null) {
+                log.flush();
+            }
+        } finally {
+            GameMetrics.hunterLeft(hunter);
         }
     }
 
@@ -49,58 +197,70 @@ public class TreasureHunter {
      * Creates a hunter object at the beginning of the game and populates the class member variable with it.
      */
     private void welcomePlayer() {
-        System.out.println("Welcome to TREASURE HUNTER!");
-        System.out.println("Going hunting for the big treasure, eh?");
-        System.out.print("What's your name, Hunter? ");
-        String name = SCANNER.nextLine().toLowerCase();
+        out.println("Welcome to TREASURE HUNTER!");
+        out.println("Going hunting for the big treasure, eh?");
+        out.print("What's your name, Hunter? ");
+        String name = ask();
+
+        out.print("What difficulty? (e/n/h): ");
+        String hard = ask();
+        startGame(name, Difficulty.fromChoice(hard));
+    }
+
+    /**
+     * Creates the hunter and the first town without asking any questions.
+     * Used by welcomePlayer() and by tools that drive the game without a console.
+     *
+     * @param name The hunter's name; one too long to save or log is cut short (see Hunter.fitName()).
+     * @param difficulty The mode to play.
+     */
+    void startGame(String name, Difficulty difficulty) {
+        this.difficulty = difficulty;
+        name = Hunter.fitName(name);
+
+        if (log != null) {
+            log.start(difficulty, name, random);
+        }
 
         // set hunter instance variable
-        hunter = new Hunter(name, 20);
-
-        System.out.print("What difficulty? (e/n/h): ");
-        String hard = SCANNER.nextLine().toLowerCase();
-        if (hard.equals("e")) {
-            easyMode = true;
-        } else if (hard.equals("n")) {
-            normalMode = true;
-        } else if (hard.equals("h")) {
-            hardMode = true;
-        } else if (hard.equals("test")) {
+        GameMetrics.hunterLeft(hunter);
+        hunter = new Hunter(name, GameRules.of(difficulty).getStartingGold());
+        if (difficulty == Difficulty.TEST) {
             hunter.changeGold(80);
             hunter.addTestKit();
-        } else if (hard.equals("s")){
-            secretMode = true;
         }
+        GameMetrics.hunterStarted(hunter);
+        if (worldSize > 0) {
+            if (worldSize > LARGEST_BUILT_WORLD) {
+                world = new LazyWorld(worldSize, random.nextLong(), difficulty, LazyWorld.DEFAULT_CACHE_SIZE);
+                routes = null;
+            } else {
+                world = new WorldMap(worldSize, EXTRA_ROADS, difficulty, random.split());
+                routes = new RouteFinder(world, difficulty.getShop());
+            }
+            townIndex = 0;
+        }
+        currentTown = null;
+        enterTown();
     }
 
     /**
-     * Creates a new town and adds the Hunter to it.
+     * Moves on to a new town (reusing the old one, if there is one) and adds the Hunter to it.
+     * In a world, the town is the one at townIndex.
      */
     private void enterTown() {
-        double markdown = 0.5;
-        double toughness = 0.4;
-        if (hardMode) {
-            markdown = 0.25;
-            toughness = 0.75;
-        }
-        if (easyMode) {
-            hunter.setGold(hunter.getGold());
-            toughness = 0.2;
-            markdown = 1.0;
-        }
-        Shop shop = new Shop(markdown, false);
-        if(easyMode){
-            currentTown = new Town(shop, toughness, true, false);
-        } else {
-            currentTown = new Town(shop, toughness, false, false);
+        if (currentTown == null) {
+            currentTown = shops == null ? difficulty.newTown(random) : difficulty.newTown(random, shops.get(difficulty));
+        } else if (world == null) {
+            currentTown.reset();
         }
-
-        if (secretMode){
-            shop = new Shop(markdown, true);
-            markdown = 1.0;
-            toughness = 0.0;
-            currentTown = new Town(shop, toughness, true, true);
-            System.out.println(Colors.RED + "shhhhh!" + Colors.RESET);
+        if (world != null) {
+            int state = world.townState(townIndex);
+            String treasure = World.treasureOf(state) < Items.TREASURE_COUNT ? Items.treasureName(World.treasureOf(state)) : "dust";
+            currentTown.restoreState(World.terrainOf(state), World.isTough(state), treasure, World.isSearched(state), World.isDug(state));
+        }
+        if (difficulty.isSecret()) {
+            out.println(Colors.RED + "shhhhh!" + Colors.RESET);
         }
 
         // calling the hunterArrives method, which takes the Hunter
@@ -117,7 +277,7 @@ public class TreasureHunter {
      */
 
     public void done(){
-        System.out.println("Game Over!!!");
+        out.println("Game Over!!!");
     }
 
     public void showMenu() {
@@ -128,53 +288,300 @@ public class TreasureHunter {
                 done();
                 break;
             }
-            System.out.println();
-            System.out.println(currentTown.getLatestNews());
-            System.out.println("***");
-            System.out.println(hunter.infoString());
-            System.out.println(hunter.treasuresInfoString());
-            System.out.println(currentTown.infoString());
-            System.out.println("(B)uy something at the shop.");
-            System.out.println("(S)ell something at the shop.");
-            System.out.println("(E)xplore surrounding terrain.");
-            System.out.println("(M)ove on to a different town.");
-            System.out.println("(L)ook for trouble!");
-            System.out.println("(H)unt for treasure");
-            System.out.println("(D)ig for gold");
-            System.out.println("Give up the hunt and e(X)it.");
-            System.out.println();
-            System.out.print("What's your next move? ");
-            choice = SCANNER.nextLine().toLowerCase();
+            printMenu();
+            choice = askForCommand();
             processChoice(choice);
 
         }
     }
 
+    /**
+     * Prints the latest news, the hunter's status and the menu, ending with the prompt for the next move.
+     */
+    void printMenu() {
+        out.startScreen();
+        out.println();
+        out.println(currentTown.getLatestNews());
+        out.println("***");
+        out.println(hunter.infoString());
+        out.println(hunter.treasuresInfoString());
+        out.println(currentTown.infoString());
+        if (world != null) {
+            out.print("You are in town ");
+            out.print(townIndex);
+            out.print(" of ");
+            out.print(world.townCount());
+            out.println(".");
+            out.write(WORLD_MENU);
+        }
+        out.write(savesAllowed ? MENU : MENU_WITHOUT_SAVES);
+    }
+
+    /**
+     * Shows the player everything printed this turn, in one write, and waits for their answer.
+     *
+     * @return The answer, in lower case; once the input runs out this is "x", so the game ends.
+     */
+    private String ask() {
+        if (!in.hasQueuedInput()) {
+            flushTurn();
+        }
+        String line = in.nextLine();
+        if (line == null) {
+            return "x";
+        }
+        return line.toLowerCase();
+    }
+
+    /**
+     * Gets the next menu command: the next one on the line already read, or else the first on a new line,
+     * which is when everything printed so far is shown.
+     *
+     * @return The command, in lower case; once the input runs out this is "x", so the game ends.
+     */
+    private String askForCommand() {
+        if (!in.hasQueuedCommands()) {
+            flushTurn();
+        }
+        String command = in.nextCommand();
+        if (command == null) {
+            return "x";
+        }
+        return command.toLowerCase();
+    }
+
+    /**
+     * Shows the player everything printed this turn and writes the turn's records to the event log, if there is one,
+     * before the game waits for the player, so a crash while waiting loses nothing that was already played.
+     */
+    private void flushTurn() {
+        out.flush();
+        if (log != null) {
+            log.flush();
+        }
+    }
+
     /**
      * Takes the choice received from the menu and calls the appropriate method to carry out the instructions.
      * @param choice The action to process.
      */
-    private void processChoice(String choice) {
-        if (choice.equals("b") || choice.equals("s")) {
-            currentTown.enterShop(choice);
-        } else if (choice.equals("e")) {
-            System.out.println(currentTown.getTerrain().infoString());
-        } else if (choice.equals("m")) {
-            if (currentTown.leaveTown()) {
-                // This town is going away so print its news ahead of time.
-                System.out.println(currentTown.getLatestNews());
-                enterTown();
+    void processChoice(String choice) {
+        // a command that waits for the player's answer would be timing the player, not the game
+        boolean asks = (choice.length() == 1 && ASKING_COMMANDS.indexOf(choice.charAt(0)) >= 0)
+                || (world != null && choice.equals("m"));
+        long start = asks ? GameMetrics.NOT_TIMED : GameMetrics.start();
+        try {
+            Command command = null;
+            if (choice.length() == 1 && choice.charAt(0) < COMMANDS.length) {
+                command = COMMANDS[choice.charAt(0)];
+            }
+            if (command != null) {
+                command.run(this, choice);
+            } else {
+                out.println("Yikes! That's an invalid option! Try again.");
             }
-        } else if (choice.equals("l")) {
-            currentTown.lookForTrouble();
-        } else if (choice.equals("x")) {
-            System.out.println("Fare thee well, " + hunter.getHunterName() + "!");
-        } else if (choice.equals("h")) {
-            currentTown.huntForTreasure();
-        } else if (choice.equals("d")) {
-            currentTown.digForGold();
+        } finally {
+            GameMetrics.stop(GameMetrics.Timer.PROCESS_CHOICE, start);
+        }
+    }
+
+    // the menu commands
+    private void visitShop(String choice) {
+        GameMetrics.countAction(choice.equals("b") ? Action.BUY : Action.SELL);
+        currentTown.enterShop(choice, in, out, log);
+    }
+
+    private void explore() {
+        GameMetrics.countAction(Action.EXPLORE);
+        out.println(currentTown.getTerrain().infoString());
+    }
+
+    private void move() {
+        if (world != null) {
+            moveAlongRoad();
+        } else if (currentTown.leaveTown()) {
+            // This town is going away so print its news ahead of time.
+            out.println(currentTown.getLatestNews());
+            enterTown();
+        }
+        record(Action.MOVE);
+    }
+
+    private void lookForTrouble() {
+        currentTown.lookForTrouble();
+        record(Action.TROUBLE);
+    }
+
+    private void exit() {
+        GameMetrics.countAction(Action.EXIT);
+        out.println("Fare thee well, " + hunter.getHunterName() + "!");
+    }
+
+    private void huntForTreasure() {
+        currentTown.huntForTreasure();
+        record(Action.HUNT);
+    }
+
+    private void digForGold() {
+        currentTown.digForGold();
+        record(Action.DIG);
+    }
+
+    /**
+     * Adds an action that doesn't involve an item to the event log, if there is one.
+     *
+     * @param action The action just carried out.
+     */
+    private void record(Action action) {
+        GameMetrics.countAction(action);
+        if (log != null) {
+            log.record(action, -1, hunter);
+        }
+    }
+
+    /**
+     * Lists the roads out of the current town and takes the one the player picks.
+     */
+    private void moveAlongRoad() {
+        int roads = world.roadCount(townIndex);
+        out.println("Roads out of this town:");
+        for (int road = 0; road < roads; road++) {
+            out.print("(");
+            out.print(road + 1);
+            out.print(") ");
+            Terrain terrain = Terrain.of(world.roadTerrain(townIndex, road));
+            out.print(terrain.getTerrainName());
+            out.print(" (needs a(n) ");
+            out.print(terrain.getNeededItem());
+            out.print(") to town ");
+            out.print(world.roadTarget(townIndex, road));
+            out.println();
+        }
+        out.print("Which road? ");
+        int road = askForNumber() - 1;
+        if (road < 0 || road >= roads) {
+            out.println("There's no road like that.");
+            return;
+        }
+        if (currentTown.leaveTown(Terrain.of(world.roadTerrain(townIndex, road)))) {
+            out.println(currentTown.getLatestNews());
+            // the world remembers that this town has been searched or dug
+            int state = World.packTown(currentTown.getTerrainKind(), currentTown.isToughTown(),
+                    World.treasureOf(world.townState(townIndex)), currentTown.isTreasureSearched(), currentTown.isGoldDug());
+            world.setTownState(townIndex, state);
+            townIndex = world.roadTarget(townIndex, road);
+            enterTown();
+        }
+    }
+
+    /**
+     * Asks which town the player wants to get to and shows the cheapest way there.
+     */
+    private void showRoute() {
+        if (world == null) {
+            out.println("Yikes! That's an invalid option! Try again.");
+            return;
+        }
+        if (routes == null) {
+            out.println("This world is too big to plan a route across.");
+            return;
+        }
+        out.print("Which town do you want to get to? ");
+        int target = askForNumber();
+        if (target < 0 || target >= world.townCount()) {
+            out.println("There's no town like that.");
+            return;
+        }
+        RouteFinder.Route route = routes.find(townIndex, target, RouteFinder.terrainKit(hunter));
+        if (route == null) {
+            out.println("There's no way to get there from here.");
         } else {
-            System.out.println("Yikes! That's an invalid option! Try again.");
+            out.println(route.infoString());
+        }
+    }
+
+    /**
+     * @return The number the player enters, or -1 if it isn't a number.
+     */
+    private int askForNumber() {
+        try {
+            return Integer.parseInt(ask().strip());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Asks for a save name and saves the game in the saves directory.
+     */
+    private void saveGame() {
+        if (!savesAllowed) {
+            out.println("Yikes! That's an invalid option! Try again.");
+            return;
+        }
+        if (world != null) {
+            out.println("Games played in a world can't be saved yet.");
+            return;
+        }
+        Path file = askForSaveFile();
+        if (file == null) {
+            return;
+        }
+        try {
+            GameSnapshot.capture(difficulty, random, hunter, currentTown).save(file);
+            if (log != null) {
+                // a save is a checkpoint, so make sure the log has caught up to it
+                log.flush();
+            }
+            out.println("Game saved to " + file + ".");
+        } catch (IOException e) {
+            out.println("Couldn't save the game: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Asks for a save name and picks the saved game back up, replacing the one being played.
+     */
+    private void restoreGame() {
+        if (!savesAllowed) {
+            out.println("Yikes! That's an invalid option! Try again.");
+            return;
+        }
+        if (world != null) {
+            out.println("Saved games can't be restored into a world.");
+            return;
+        }
+        Path file = askForSaveFile();
+        if (file == null) {
+            return;
+        }
+        try {
+            GameSnapshot snapshot = GameSnapshot.load(file);
+            difficulty = snapshot.getDifficulty();
+            GameMetrics.hunterLeft(hunter);
+            hunter = snapshot.createHunter();
+            GameMetrics.hunterStarted(hunter);
+            currentTown = snapshot.createTown(random);
+            currentTown.hunterArrives(hunter);
+            if (log != null) {
+                log.recordRestore(snapshot);
+            }
+            out.println("Game restored from " + file + ".");
+        } catch (IOException e) {
+            out.println("Couldn't restore the game: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The file for the save name the player enters, or null if the name isn't allowed.
+     */
+    private Path askForSaveFile() {
+        out.print("Name of the save? ");
+        String name = ask();
+        if (!name.matches("[a-z0-9_-]+")) {
+            out.println("Save names can only use letters, numbers, - and _.");
+            return null;
         }
+        return SAVE_DIRECTORY.resolve(name + GameSnapshot.EXTENSION);
     }
 }
\ No newline at end of file
@@ -1,6 +1,117 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Usage: java TreasureHunterRunner [--log file] [--world towns] [--render screen/plain/color] [--rows rows]
+ * [--columns columns] [seed] [script]<p>
+ * Giving a seed replays a game exactly. Giving a script file (or - for standard input) plays its commands
+ * instead of waiting for typing. Without one, each line is read as it is typed, even when the input isn't a terminal,
+ * so another program can play the game a turn at a time.
+ * With --log, every action is added to an EventLog file that EventReplay can play back.
+ * With --world, the game is played on a persistent world of that many towns. It can't be used with --log,
+ * since EventReplay can't replay moves along a world's roads.
+ * With --render, the output is a ScreenRenderer redrawing the screen in place (screen), text without escape codes
+ * (plain), or every turn printed below the last in color (color). By default it is screen on a terminal and plain
+ * otherwise. The screen is taken to be as big as --rows and --columns say, or else the LINES and COLUMNS environment
+ * variables, or else 24 rows of 80 columns.
+ * With -Dtreasurehunter.metrics=true, GameMetrics are published over JMX while the game runs.
+ * With -Dtreasurehunter.audit=file, every trade is added to an AuditLog in that file.
+ */
 public class TreasureHunterRunner {
-    public static void main(String[] args) {
-        TreasureHunter game = new TreasureHunter();
-        game.play();
+    // constants
+    private static final String USAGE = "Usage: java TreasureHunterRunner [--log file] [--world towns] "
+            + "[--render screen/plain/color] [--rows rows] [--columns columns] [seed] [script]";
+
+    public static void main(String[] args) throws IOException {
+        List<String> positional = new ArrayList<>();
+        Path logFile = null;
+        int worldSize = 0;
+        String render = System.console() != null ? "screen" : "plain";
+        int rows = sizeFromEnvironment("LINES", ScreenRenderer.DEFAULT_ROWS);
+        int columns = sizeFromEnvironment("COLUMNS", ScreenRenderer.DEFAULT_COLUMNS);
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--log") && i + 1 < args.length) {
+                logFile = Path.of(args[++i]);
+            } else if (args[i].equals("--world") && i + 1 < args.length) {
+                worldSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--render") && i + 1 < args.length) {
+                render = args[++i].toLowerCase();
+            } else if (args[i].equals("--rows") && i + 1 < args.length) {
+                rows = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--columns") && i + 1 < args.length) {
+                columns = Integer.parseInt(args[++i]);
+            } else {
+                positional.add(args[i]);
+            }
+        }
+
+        if (worldSize < 0 || worldSize == 1) {
+            System.out.println("A world needs at least 2 towns (or leave out --world to play without one).");
+            System.out.println(USAGE);
+            return;
+        }
+        if (logFile != null && worldSize > 0) {
+            System.out.println("--log and --world can't be used together: EventReplay can't replay moves along a world's roads.");
+            return;
+        }
+
+        long seed = System.nanoTime();
+        if (positional.size() > 0) {
+            // replay a game from its seed
+            seed = Long.parseLong(positional.get(0));
+        }
+
+        CommandSource in;
+        if (positional.size() > 1 && !positional.get(1).equals("-")) {
+            in = BatchCommandSource.fromFile(Path.of(positional.get(1)));
+        } else if (positional.size() > 1) {
+            in = BatchCommandSource.fromStream(System.in);
+        } else {
+            in = new TerminalCommandSource();
+        }
+
+        if (GameMetrics.get().isEnabled()) {
+            GameMetrics.register();
+        }
+        AuditLog audit = AuditLog.openIfConfigured();
+
+        TurnRenderer out;
+        if (render.equals("color")) {
+            out = new TurnRenderer(System.out);
+        } else {
+            out = new ScreenRenderer(System.out, render.equals("plain"), rows, columns);
+        }
+
+        TreasureHunter game = new TreasureHunter(seed, in, out);
+        game.setWorldSize(worldSize);
+        try {
+            if (logFile == null) {
+                game.play();
+                return;
+            }
+            try (EventLog log = new EventLog(logFile)) {
+                game.setEventLog(log);
+                game.play();
+            }
+        } finally {
+            if (audit != null) {
+                audit.close();
+            }
+        }
     }
-}
\ No newline at end of file
+
+    /**
+     * @return The size in an environment variable, or the default if it isn't set to a positive number.
+     */
+    private static int sizeFromEnvironment(String name, int defaultSize) {
+        String value = System.getenv(name);
+        try {
+            int size = value == null ? 0 : Integer.parseInt(value.trim());
+            return size > 0 ? size : defaultSize;
+        } catch (NumberFormatException e) {
+            return defaultSize;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * A PlayerStrategy that plays the way a sensible person would.<p>
+ * It searches every town, digs when it has a shovel, buys what it needs to cross the terrain,
+ * and looks for trouble only when it is too poor to buy anything.
+ */
+
+public class TreasureSeekerStrategy implements PlayerStrategy {
+    // constants
+    static final int SHOVEL_BUDGET = 14; // Population plays the same way
+
+    public Action chooseAction(GameEngine game) {
+        Hunter hunter = game.getHunter();
+        Town town = game.getCurrentTown();
+        Shop shop = town.getShop();
+        String neededItem = town.getTerrain().getNeededItem();
+
+        if (!town.isTreasureSearched()) {
+            return Action.HUNT;
+        }
+        if (hunter.hasItemInKit("shovel") && !town.isGoldDug()) {
+            return Action.DIG;
+        }
+        if (shop.getCostOfItem("sword") >= 0 && !hunter.hasItemInKit("sword")) {
+            return Action.BUY;
+        }
+        if (!hunter.hasItemInKit("shovel") && hunter.getGold() >= SHOVEL_BUDGET) {
+            return Action.BUY;
+        }
+        if (hunter.hasItemInKit(neededItem)) {
+            return Action.MOVE;
+        }
+        if (hunter.getGold() >= shop.getCostOfItem(neededItem)) {
+            return Action.BUY;
+        }
+        return Action.TROUBLE;
+    }
+
+    public String chooseItem(GameEngine game, Action action) {
+        Hunter hunter = game.getHunter();
+        Shop shop = game.getCurrentTown().getShop();
+        if (shop.getCostOfItem("sword") >= 0 && !hunter.hasItemInKit("sword")) {
+            return "sword";
+        }
+        if (!hunter.hasItemInKit("shovel") && hunter.getGold() >= SHOVEL_BUDGET) {
+            return "shovel";
+        }
+        return game.getCurrentTown().getTerrain().getNeededItem();
+    }
+}
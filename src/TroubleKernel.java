@@ -0,0 +1,241 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The TroubleKernel class resolves brawls and digs for a whole batch of hunters at once.<p>
+ * Town.lookForTrouble() and Town.digForGold() are only threshold compares and a little arithmetic on random draws,
+ * so given the draws up front (one array per draw, one slot per hunter) every hunter's change in gold can be worked out
+ * in one pass. This class does it one hunter at a time; VectorTroubleKernel (in src/vector, built separately because
+ * it needs the incubating jdk.incubator.vector module) does it a whole vector of hunters at a time,
+ * and gives exactly the same results. fastest() picks the vector one when it is there and usable.<p>
+ * To build and run the benchmark with the vector kernel (from src, after compiling the rest into the same directory):<br>
+ * javac --add-modules jdk.incubator.vector -cp . -d . vector/VectorTroubleKernel.java<br>
+ * java --add-modules jdk.incubator.vector TroubleKernel [hunters] [seconds]
+ */
+
+public class TroubleKernel {
+    // constants
+    private static final String VECTOR_KERNEL = "VectorTroubleKernel";
+    private static final double MIN_WARM_UP_SECONDS = 2.0; // long enough for the vector kernel to be compiled, even on small batches
+
+    /**
+     * @return The vector kernel if it has been built and this JVM was started with jdk.incubator.vector,
+     * otherwise this scalar one.
+     */
+    public static TroubleKernel fastest() {
+        try {
+            Class<?> vectorKernel = Class.forName(VECTOR_KERNEL);
+            return (TroubleKernel) vectorKernel.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new TroubleKernel();
+        }
+    }
+
+    /**
+     * @return A short description of how this kernel works, for reports.
+     */
+    public String getName() {
+        return "scalar";
+    }
+
+    /**
+     * Town.lookForTrouble() for a batch of hunters. A hunter who doesn't find trouble gets 0;
+     * one who does gets 1 to MAX_BRAWL_GOLD gold if they win (always, with a sword) or loses that much if they don't.
+     *
+     * @param trouble The first draw: finding trouble.
+     * @param amount The second draw: how much gold is at stake.
+     * @param win The third draw: winning without a sword.
+     * @param tough Whether each hunter's town is a tough town.
+     * @param sword Whether each hunter has a sword.
+     * @param goldDelta Where each hunter's change in gold is written.
+     * @param count How many hunters, from the start of every array.
+     */
+    public void lookForTrouble(double[] trouble, double[] amount, double[] win, boolean[] tough, boolean[] sword,
+                               int[] goldDelta, int count) {
+        lookForTrouble(trouble, amount, win, tough, sword, goldDelta, 0, count);
+    }
+
+    /**
+     * Town.digForGold() for a batch of hunters with shovels in towns that haven't been dug.
+     *
+     * @param dig The first draw: finding gold.
+     * @param amount The second draw: how much gold.
+     * @param goldDelta Where each hunter's change in gold is written.
+     * @param count How many hunters, from the start of every array.
+     */
+    public void digForGold(double[] dig, double[] amount, int[] goldDelta, int count) {
+        digForGold(dig, amount, goldDelta, 0, count);
+    }
+
+    /**
+     * The scalar brawl rules for hunters first to last - 1; the vector kernel uses it for the lanes left over.
+     */
+    protected final void lookForTrouble(double[] trouble, double[] amount, double[] win, boolean[] tough, boolean[] sword,
+                                        int[] goldDelta, int first, int last) {
+        for (int i = first; i < last; i++) {
+            double noTroubleChance = tough[i] ? Town.TOUGH_NO_TROUBLE_CHANCE : Town.NO_TROUBLE_CHANCE;
+            if (trouble[i] > noTroubleChance) {
+                goldDelta[i] = 0;
+            } else {
+                int goldDiff = (int) (amount[i] * Town.MAX_BRAWL_GOLD) + 1;
+                goldDelta[i] = (sword[i] || win[i] > noTroubleChance) ? goldDiff : -goldDiff;
+            }
+        }
+    }
+
+    /**
+     * The scalar digging rules for hunters first to last - 1; the vector kernel uses it for the lanes left over.
+     */
+    protected final void digForGold(double[] dig, double[] amount, int[] goldDelta, int first, int last) {
+        for (int i = first; i < last; i++) {
+            if (dig[i] < Town.DIG_CHANCE) {
+                goldDelta[i] = (int) (amount[i] * Town.MAX_GOLD_DUG) + 1;
+            } else {
+                goldDelta[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Checks the fastest kernel against the scalar one on the same draws, then times both.
+     * The check also runs every draw exactly on (and just either side of) each threshold and each point where the gold
+     * amount steps up, in every combination of tough town and sword, since that is where a kernel is most likely to round
+     * or compare differently; those hunters come first, so they land in the vector lanes rather than the leftovers.
+     * Usage: java [--add-modules jdk.incubator.vector] TroubleKernel [hunters] [seconds per kernel]
+     */
+    public static void main(String[] args) {
+        int hunters = 4096;
+        double seconds = 2.0;
+        if (args.length > 0) {
+            hunters = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            seconds = Double.parseDouble(args[1]);
+        }
+
+        double[] edges = boundaryDraws();
+        int checked = edges.length * 4 + hunters;
+        GameRandom random = new GameRandom(19);
+        double[] first = new double[checked];
+        double[] second = new double[checked];
+        double[] third = new double[checked];
+        boolean[] tough = new boolean[checked];
+        boolean[] sword = new boolean[checked];
+        int i = 0;
+        for (double edge : edges) {
+            for (int combination = 0; combination < 4; combination++) {
+                first[i] = edge;
+                second[i] = edge;
+                third[i] = edge;
+                tough[i] = (combination & 1) != 0;
+                sword[i] = (combination & 2) != 0;
+                i++;
+            }
+        }
+        for (; i < checked; i++) {
+            first[i] = random.nextDouble();
+            second[i] = random.nextDouble();
+            third[i] = random.nextDouble();
+            tough[i] = random.nextDouble() < Difficulty.NORMAL.getToughness();
+            sword[i] = random.nextInt(8) == 0;
+        }
+
+        TroubleKernel scalar = new TroubleKernel();
+        TroubleKernel fastest = fastest();
+        int[] expected = new int[checked];
+        int[] actual = new int[checked];
+        scalar.lookForTrouble(first, second, third, tough, sword, expected, checked);
+        fastest.lookForTrouble(first, second, third, tough, sword, actual, checked);
+        int brawlMismatches = countMismatches(expected, actual);
+        scalar.digForGold(first, second, expected, checked);
+        fastest.digForGold(first, second, actual, checked);
+        int digMismatches = countMismatches(expected, actual);
+        System.out.println(fastest.getName() + " kernel against scalar: " + brawlMismatches + " brawl and "
+                + digMismatches + " dig mismatches in " + hunters + " hunters and " + (checked - hunters) + " boundary cases");
+
+        // time the random hunters only
+        first = Arrays.copyOfRange(first, checked - hunters, checked);
+        second = Arrays.copyOfRange(second, checked - hunters, checked);
+        third = Arrays.copyOfRange(third, checked - hunters, checked);
+        tough = Arrays.copyOfRange(tough, checked - hunters, checked);
+        sword = Arrays.copyOfRange(sword, checked - hunters, checked);
+        if (brawlMismatches + digMismatches > 0) {
+            System.exit(1);
+        }
+
+        double scalarRate = 0;
+        TroubleKernel[] kernels = fastest.getClass() == TroubleKernel.class ? new TroubleKernel[]{scalar} : new TroubleKernel[]{scalar, fastest};
+        for (TroubleKernel kernel : kernels) {
+            timeKernel(kernel, first, second, third, tough, sword, actual, hunters, Math.max(MIN_WARM_UP_SECONDS, seconds / 4));
+            double rate = timeKernel(kernel, first, second, third, tough, sword, actual, hunters, seconds);
+            if (kernel == scalar) {
+                scalarRate = rate;
+            }
+            System.out.printf("%-20s %,16.0f hunters/sec (brawl + dig)  %.2fx%n", kernel.getName(), rate, rate / scalarRate);
+        }
+    }
+
+    /**
+     * @return Draws on and just either side of each chance threshold and each k/MAX_BRAWL_GOLD and k/MAX_GOLD_DUG,
+     * where the gold amount steps up, plus the smallest and largest draws there can be.
+     */
+    private static double[] boundaryDraws() {
+        List<Double> edges = new ArrayList<>();
+        List<Double> points = new ArrayList<>(List.of(Town.NO_TROUBLE_CHANCE, Town.TOUGH_NO_TROUBLE_CHANCE, Town.DIG_CHANCE));
+        for (int k = 1; k < Town.MAX_BRAWL_GOLD; k++) {
+            points.add((double) k / Town.MAX_BRAWL_GOLD);
+        }
+        for (int k = 1; k < Town.MAX_GOLD_DUG; k++) {
+            points.add((double) k / Town.MAX_GOLD_DUG);
+        }
+        for (double point : points) {
+            edges.add(Math.nextDown(point));
+            edges.add(point);
+            edges.add(Math.nextUp(point));
+        }
+        edges.add(0.0);
+        edges.add(Math.nextDown(1.0));
+        double[] draws = new double[edges.size()];
+        for (int i = 0; i < draws.length; i++) {
+            draws[i] = edges.get(i);
+        }
+        return draws;
+    }
+
+    private static int countMismatches(int[] expected, int[] actual) {
+        int mismatches = 0;
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual[i]) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    /**
+     * @return How many hunters a second the kernel resolves a brawl and a dig for.
+     */
+    private static double timeKernel(TroubleKernel kernel, double[] first, double[] second, double[] third, boolean[] tough,
+                                     boolean[] sword, int[] goldDelta, int hunters, double seconds) {
+        long passes = 0;
+        long checksum = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        long now;
+        do {
+            for (int i = 0; i < 64; i++) {
+                kernel.lookForTrouble(first, second, third, tough, sword, goldDelta, hunters);
+                checksum += goldDelta[(int) (passes % hunters)];
+                kernel.digForGold(first, second, goldDelta, hunters);
+                checksum += goldDelta[(int) (passes % hunters)];
+                passes++;
+            }
+            now = System.nanoTime();
+        } while (now < end);
+        if (checksum == Long.MIN_VALUE) {
+            System.out.println(checksum); // keeps the work from being thrown away
+        }
+        return passes * (double) hunters / ((now - start) / 1e9);
+    }
+}
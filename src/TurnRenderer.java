@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The TurnRenderer class collects everything printed during a turn into one reusable buffer
+ * and writes it out in a single flush, right before the game waits for the player.<p>
+ * Text is encoded to UTF-8 straight into the buffer, so printing doesn't create any objects;
+ * text that never changes (like the menu) can be encoded once with encode() and written as bytes.
+ * Subclasses can change what a turn looks like on the way out by overriding writeFrame() (see ScreenRenderer).
+ */
+
+public class TurnRenderer {
+    // constants
+    private static final int INITIAL_SIZE = 4096;
+
+    // instance variables
+    private OutputStream out;
+    private byte[] buffer;
+    private int length;
+
+    /**
+     * @param out Where each turn's text is written when flushed.
+     */
+    public TurnRenderer(OutputStream out) {
+        this.out = out;
+        buffer = new byte[INITIAL_SIZE];
+        length = 0;
+    }
+
+    /**
+     * Encodes text that never changes so it can be written with write() every turn.
+     *
+     * @param text The text.
+     * @return The text as UTF-8 bytes.
+     */
+    public static byte[] encode(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public void print(CharSequence text) {
+        int count = text.length();
+        ensureRoom(count * 3);
+        for (int i = 0; i < count; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xc0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer[length++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[length++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buffer[length++] = '?';
+            } else {
+                buffer[length++] = (byte) (0xe0 | (c >> 12));
+                buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[length++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    public void print(int number) {
+        ensureRoom(11);
+        if (number < 0) {
+            buffer[length++] = '-';
+        } else {
+            number = -number; // work with negatives so Integer.MIN_VALUE fits
+        }
+        int start = length;
+        do {
+            buffer[length++] = (byte) ('0' - number % 10);
+            number /= 10;
+        } while (number != 0);
+        // the digits went in backwards
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+    }
+
+    public void println(CharSequence text) {
+        print(text);
+        println();
+    }
+
+    public void println() {
+        ensureRoom(1);
+        buffer[length++] = '\n';
+    }
+
+    /**
+     * Adds bytes made by encode() to the buffer.
+     *
+     * @param bytes The encoded text.
+     */
+    public void write(byte[] bytes) {
+        ensureRoom(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    /**
+     * Marks that what is printed from here on is a whole new screen (the news, status and menu),
+     * rather than more of a conversation. Renderers that redraw the screen in place (see ScreenRenderer)
+     * draw it from the top; this one just prints on.
+     */
+    public void startScreen() {
+    }
+
+    /**
+     * Writes out everything printed since the last flush and empties the buffer for the next turn.
+     */
+    public void flush() {
+        try {
+            if (length > 0) {
+                writeFrame(out, buffer, length);
+                length = 0;
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes one turn's text.
+     *
+     * @param out Where the text goes.
+     * @param frame The turn's text, as UTF-8 with the escape codes from Colors in it.
+     * @param length How many bytes of frame are the turn's.
+     * @throws IOException If the text can't be written.
+     */
+    protected void writeFrame(OutputStream out, byte[] frame, int length) throws IOException {
+        out.write(frame, 0, length);
+    }
+
+    /**
+     * Makes the buffer bigger if needed; it is kept at its largest size so later turns don't have to grow it again.
+     */
+    private void ensureRoom(int extra) {
+        if (length + extra > buffer.length) {
+            byte[] bigger = new byte[Math.max(buffer.length * 2, length + extra)];
+            System.arraycopy(buffer, 0, bigger, 0, length);
+            buffer = bigger;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * A World is a fixed map of towns joined by roads, each road crossing one kind of Terrain.<p>
+ * Towns are numbered from 0 and every town's roads are numbered from 0. Each town's state (its terrain,
+ * toughness, treasure and whether it has been searched or dug) is packed into one int, so a world of
+ * many thousands of towns costs a few bytes a town; the packing helpers are below.
+ */
+
+public interface World {
+    // the bits of a packed town state
+    int TOUGH_BIT = 1;
+    int TREASURE_SHIFT = 1; // two bits: 0 crown, 1 trophy, 2 gem, 3 dust, as in Town
+    int SEARCHED_BIT = 1 << 3;
+    int DUG_BIT = 1 << 4;
+    int TERRAIN_SHIFT = 5; // three bits: the terrain kind around the town
+
+    int townCount();
+
+    int roadCount(int town);
+
+    /**
+     * @return The town at the other end of one of a town's roads.
+     */
+    int roadTarget(int town, int road);
+
+    /**
+     * @return The terrain kind a road crosses.
+     */
+    int roadTerrain(int town, int road);
+
+    int townState(int town);
+
+    void setTownState(int town, int state);
+
+    /**
+     * Packs a town's state into an int.
+     */
+    static int packTown(int terrainKind, boolean tough, int treasure, boolean searched, boolean dug) {
+        return (terrainKind << TERRAIN_SHIFT) | (tough ? TOUGH_BIT : 0) | (treasure << TREASURE_SHIFT)
+                | (searched ? SEARCHED_BIT : 0) | (dug ? DUG_BIT : 0);
+    }
+
+    static int terrainOf(int state) {
+        return state >>> TERRAIN_SHIFT;
+    }
+
+    static boolean isTough(int state) {
+        return (state & TOUGH_BIT) != 0;
+    }
+
+    static int treasureOf(int state) {
+        return (state >>> TREASURE_SHIFT) & 3;
+    }
+
+    static boolean isSearched(int state) {
+        return (state & SEARCHED_BIT) != 0;
+    }
+
+    static boolean isDug(int state) {
+        return (state & DUG_BIT) != 0;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * The WorldMap class is a World held entirely in memory, in compressed sparse row form:
+ * the roads out of town t are entries roadStart[t] up to roadStart[t + 1] of roadTarget and roadTerrain,
+ * so the whole map is a handful of flat arrays however many towns it has.<p>
+ * Towns are joined in a ring, so every town can reach every other, and each town also gets some roads
+ * to towns picked at random. Every road is two-way and crosses the same terrain both ways.
+ */
+
+public class WorldMap implements World {
+    // instance variables
+    private int[] roadStart;
+    private int[] roadTarget;
+    private byte[] roadTerrain;
+    private int[] townStates;
+
+    /**
+     * Builds a random world.
+     *
+     * @param towns How many towns.
+     * @param extraRoads How many roads to random towns each town starts, on top of the ring.
+     * @param difficulty The mode, for the chance of a town being tough.
+     * @param random Where the world's random numbers come from; the same seed builds the same world.
+     */
+    public WorldMap(int towns, int extraRoads, Difficulty difficulty, GameRandom random) {
+        if (towns < 2) {
+            throw new IllegalArgumentException("A world needs at least 2 towns");
+        }
+        // every road as a pair of ends; road i joins from[i] and to[i]
+        int roads = towns + towns * extraRoads;
+        int[] from = new int[roads];
+        int[] to = new int[roads];
+        byte[] terrain = new byte[roads];
+        for (int i = 0; i < roads; i++) {
+            from[i] = i % towns;
+            if (i < towns) {
+                to[i] = (i + 1) % towns;
+            } else {
+                // skip over from[i] itself so there are no roads from a town back to itself
+                int other = random.nextInt(towns - 1);
+                to[i] = other >= from[i] ? other + 1 : other;
+            }
+            terrain[i] = (byte) random.nextInt(Terrain.KIND_COUNT);
+        }
+
+        // count each town's roads, then lay them out town by town
+        roadStart = new int[towns + 1];
+        for (int i = 0; i < roads; i++) {
+            roadStart[from[i] + 1]++;
+            roadStart[to[i] + 1]++;
+        }
+        for (int t = 0; t < towns; t++) {
+            roadStart[t + 1] += roadStart[t];
+        }
+        roadTarget = new int[roads * 2];
+        roadTerrain = new byte[roads * 2];
+        int[] filled = new int[towns];
+        for (int i = 0; i < roads; i++) {
+            int a = roadStart[from[i]] + filled[from[i]]++;
+            roadTarget[a] = to[i];
+            roadTerrain[a] = terrain[i];
+            int b = roadStart[to[i]] + filled[to[i]]++;
+            roadTarget[b] = from[i];
+            roadTerrain[b] = terrain[i];
+        }
+
+        townStates = new int[towns];
+        for (int t = 0; t < towns; t++) {
+            int kind = random.nextInt(Terrain.KIND_COUNT);
+            boolean tough = random.nextDouble() < difficulty.getToughness();
+            int treasure = random.nextInt(Town.TREASURE_KINDS);
+            townStates[t] = World.packTown(kind, tough, treasure, false, false);
+        }
+    }
+
+    public int townCount() {
+        return townStates.length;
+    }
+
+    public int roadCount(int town) {
+        return roadStart[town + 1] - roadStart[town];
+    }
+
+    public int roadTarget(int town, int road) {
+        return roadTarget[roadStart[town] + road];
+    }
+
+    public int roadTerrain(int town, int road) {
+        return roadTerrain[roadStart[town] + road];
+    }
+
+    public int townState(int town) {
+        return townStates[town];
+    }
+
+    public void setTownState(int town, int state) {
+        townStates[town] = state;
+    }
+}
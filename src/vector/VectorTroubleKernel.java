@@ -0,0 +1,77 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The VectorTroubleKernel class is a TroubleKernel that resolves a whole vector of hunters at a time with the
+ * (incubating) Vector API: the compares become lane masks and the outcome is picked with blends instead of branches.
+ * The hunters left over after the last full vector go through the scalar rules, so the results are exactly
+ * the same as TroubleKernel's.<p>
+ * The JDK 17 compiler doesn't turn double-to-int lane conversions into vector instructions (they run lane by lane,
+ * slower than scalar code), so the whole calculation stays in double lanes. The gold amount is rounded down
+ * by adding and subtracting 1.5 * 2^52; the finished signed amount plus 1.5 * 2^52 has the int in its low 32 bits,
+ * and a long-to-int narrowing of the bits (which is vectorized) picks them out.<p>
+ * It lives on its own because it only compiles and runs with --add-modules jdk.incubator.vector;
+ * TroubleKernel.fastest() loads it when it can and falls back to the scalar kernel when it can't.
+ */
+
+public class VectorTroubleKernel extends TroubleKernel {
+    // constants
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class,
+            VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2)); // as many int lanes as double lanes
+    private static final double MAGIC = 0x1.8p52; // from 2^52 to 2^53 doubles are whole numbers, one apart
+
+    @Override
+    public String getName() {
+        return "vector (" + DOUBLES.length() + " lanes)";
+    }
+
+    @Override
+    public void lookForTrouble(double[] trouble, double[] amount, double[] win, boolean[] tough, boolean[] sword,
+                               int[] goldDelta, int count) {
+        int bound = DOUBLES.loopBound(count);
+        DoubleVector mild = DoubleVector.broadcast(DOUBLES, Town.NO_TROUBLE_CHANCE);
+        DoubleVector zero = DoubleVector.zero(DOUBLES);
+        for (int i = 0; i < bound; i += DOUBLES.length()) {
+            DoubleVector noTroubleChance = mild.blend(Town.TOUGH_NO_TROUBLE_CHANCE, VectorMask.fromArray(DOUBLES, tough, i));
+            VectorMask<Double> found = DoubleVector.fromArray(DOUBLES, trouble, i).compare(VectorOperators.LE, noTroubleChance);
+            VectorMask<Double> won = DoubleVector.fromArray(DOUBLES, win, i).compare(VectorOperators.GT, noTroubleChance)
+                    .or(VectorMask.fromArray(DOUBLES, sword, i));
+            DoubleVector goldDiff = roundDown(DoubleVector.fromArray(DOUBLES, amount, i).mul(Town.MAX_BRAWL_GOLD)).add(1);
+            DoubleVector delta = goldDiff.neg().blend(goldDiff, won);
+            toInts(zero.blend(delta, found)).intoArray(goldDelta, i);
+        }
+        lookForTrouble(trouble, amount, win, tough, sword, goldDelta, bound, count);
+    }
+
+    @Override
+    public void digForGold(double[] dig, double[] amount, int[] goldDelta, int count) {
+        int bound = DOUBLES.loopBound(count);
+        DoubleVector zero = DoubleVector.zero(DOUBLES);
+        for (int i = 0; i < bound; i += DOUBLES.length()) {
+            VectorMask<Double> found = DoubleVector.fromArray(DOUBLES, dig, i).compare(VectorOperators.LT, Town.DIG_CHANCE);
+            DoubleVector goldFound = roundDown(DoubleVector.fromArray(DOUBLES, amount, i).mul(Town.MAX_GOLD_DUG)).add(1);
+            toInts(zero.blend(goldFound, found)).intoArray(goldDelta, i);
+        }
+        digForGold(dig, amount, goldDelta, bound, count);
+    }
+
+    /**
+     * Rounds lanes from 0 up to 2^51 down to whole numbers, the same as an (int) cast does for them.
+     */
+    private static DoubleVector roundDown(DoubleVector x) {
+        DoubleVector nearest = x.add(MAGIC).sub(MAGIC);
+        return nearest.lanewise(VectorOperators.SUB, 1, nearest.compare(VectorOperators.GT, x));
+    }
+
+    /**
+     * Converts lanes holding whole numbers from -2^31 to 2^31 - 1 to ints.
+     */
+    private static IntVector toInts(DoubleVector wholeNumbers) {
+        return (IntVector) wholeNumbers.add(MAGIC).viewAsIntegralLanes().convertShape(VectorOperators.L2I, INTS, 0);
+    }
+}